@@ -31,17 +31,28 @@ import android.view.View;
 import android.view.WindowManager;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public abstract class BaseCamera extends NoSearchActivity
         implements PreviewFrameLayout.OnSizeChangedListener {
 
     private static final String LOG_TAG = "BaseCamera";
 
+    // Does the file work of onPause in the background, one task at a time,
+    // so that pausing never waits for the storage.
+    protected static final ExecutorService sPauseExecutor =
+            Executors.newSingleThreadExecutor();
+
     protected ComboPreferences mPreferences;
 
     protected android.hardware.Camera mCameraDevice;
 
     protected Parameters mParameters;
+    // The committed state of mParameters. Changes go to the device with
+    // commit() or commitSoon().
+    protected final ShadowParameters mShadowParameters =
+            new ShadowParameters();
 
     protected FocusRectangle mFocusRectangle;
     protected String mFocusMode;
@@ -63,6 +74,12 @@ public abstract class BaseCamera extends NoSearchActivity
 
     protected HeadUpDisplay mHeadUpDisplay;
 
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        BitmapPool.instance().trimToSize(0);
+    }
+
     protected void initializeTouchFocus() {
         Log.d(LOG_TAG, "initializeTouchFocus");
         enableTouchAEC(false);
@@ -259,13 +276,13 @@ public abstract class BaseCamera extends NoSearchActivity
             mParameters.set(paramName, focusRect.centerX() + "," + focusRect.centerY());
         }
 
-        mCameraDevice.setParameters(mParameters);
+        mShadowParameters.commit();
     }
 
     private void enableTouchAEC(boolean enable) {
         Log.d(LOG_TAG, "enableTouchAEC: " + enable);
         mParameters.set("touch-aec", enable ? "on" : "off");
-        mCameraDevice.setParameters(mParameters);
+        mShadowParameters.commit();
     }
 
     public void onSizeChanged(Rect newRect) {
@@ -19,113 +19,308 @@ package com.android.camera;
 import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Process;
 import android.provider.MediaStore.Images;
 import android.provider.MediaStore.Video;
 import android.util.Log;
 
-import java.io.FileDescriptor;
-import java.util.WeakHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Provides utilities to decode bitmap, get thumbnail, and cancel the
- * operations.
+ * Schedules the thumbnail decoding on a small pool of worker threads.
  *
- * <p>The function {@link #decodeFileDescriptor(FileDescriptor,
- * BitmapFactory.Options)} is used to decode a bitmap. During decoding another
- * thread can cancel it using the function {@link #cancelThreadDecoding(Thread,
- * ContentResolver)} specifying the {@code Thread} which is in decoding.
+ * <p>A caller submits a request with {@link #requestThumbnail} and gets a
+ * {@link ThumbnailRequest} to wait on or cancel. Requests are served by
+ * priority ({@link #PRIORITY_VISIBLE} first), and in the order submitted
+ * within a priority. Concurrent requests for the same thumbnail share one
+ * decode, which is abandoned only when all of its requests are cancelled,
+ * and each request gets a bitmap of its own. A decode already running in
+ * MediaStore is cancelled through its group id, which is unique per decode.
+ * {@link #cancelAll} drops all the pending work, e.g. when the activity is
+ * paused.
  *
- * <p>{@code cancelThreadDecoding(Thread,ContentResolver)} is sticky until
- * {@code allowThreadDecoding(Thread) } is called.
+ * <p>{@link #getThumbnail} is the blocking form used by the images.
  */
 public class BitmapManager {
     private static final String TAG = "BitmapManager";
-    private static enum State {CANCEL, ALLOW}
-    private static class ThreadStatus {
-        public State mState = State.ALLOW;
-        public BitmapFactory.Options mOptions;
-
-        @Override
-        public String toString() {
-            String s;
-            if (mState == State.CANCEL) {
-                s = "Cancel";
-            } else if (mState == State.ALLOW) {
-                s = "Allow";
-            } else {
-                s = "?";
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private static final int WORKER_COUNT = 2;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    // The decodes not finished yet, by key. Guarded by "this".
+    private final HashMap<String, DecodeJob> mJobs =
+            new HashMap<String, DecodeJob>();
+    private long mNextSequence;
+
+    private static BitmapManager sManager = null;
+
+    private BitmapManager() {
+        mExecutor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT,
+                0, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int mCount;
+
+                    public Thread newThread(final Runnable r) {
+                        Thread t = new Thread("BitmapManager-" + mCount++) {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(
+                                        Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        };
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    public static synchronized BitmapManager instance() {
+        if (sManager == null) {
+            sManager = new BitmapManager();
+        }
+        return sManager;
+    }
+
+    /**
+     * A caller's interest in a decode. The decode is shared with the other
+     * requests for the same thumbnail, but not the bitmap.
+     */
+    public class ThumbnailRequest {
+        private final DecodeJob mJob;
+
+        // Read without the manager lock while waiting on the job.
+        private volatile boolean mCancelled;
+
+        // Guarded by BitmapManager.this.
+        private boolean mCollected;
+        private Bitmap mBitmap;
+
+        private ThumbnailRequest(DecodeJob job) {
+            mJob = job;
+        }
+
+        /**
+         * Waits for the decode and returns the thumbnail, or null if it
+         * failed or the request was cancelled.
+         */
+        public Bitmap get() throws InterruptedException {
+            synchronized (mJob) {
+                while (!mJob.mDone && !mCancelled) mJob.wait();
+            }
+            synchronized (BitmapManager.this) {
+                if (mCancelled) return null;
+                if (!mCollected) {
+                    mCollected = true;
+                    mBitmap = mJob.collect();
+                }
+                return mBitmap;
             }
-            s = "thread state = " + s + ", options = " + mOptions;
-            return s;
+        }
+
+        /**
+         * Drops this request. The decode is abandoned if no other request
+         * is waiting for it.
+         */
+        public void cancel() {
+            synchronized (BitmapManager.this) {
+                if (mCancelled) return;
+                mCancelled = true;
+                if (!mCollected) --mJob.mUncollectedCount;
+                if (--mJob.mRequestCount == 0) cancelJob(mJob);
+            }
+            synchronized (mJob) {
+                mJob.notifyAll();
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
         }
     }
 
-    private final WeakHashMap<Thread, ThreadStatus> mThreadStatus =
-            new WeakHashMap<Thread, ThreadStatus>();
+    private class DecodeJob implements Runnable, Comparable<DecodeJob> {
+        final String mKey;
+        final ContentResolver mResolver;
+        final long mOrigId;
+        final int mKind;
+        final boolean mIsVideo;
 
-    private static BitmapManager sManager = null;
+        // Guarded by BitmapManager.this.
+        int mPriority;
+        long mSequence;
+        int mRequestCount;
+        int mUncollectedCount;
+        boolean mCancelled;
 
-    private BitmapManager() {
+        // Guarded by the job itself.
+        boolean mRunning;
+        boolean mDone;
+        Bitmap mResult;
+
+        DecodeJob(String key, ContentResolver cr, long origId, int kind,
+                boolean isVideo) {
+            mKey = key;
+            mResolver = cr;
+            mOrigId = origId;
+            mKind = kind;
+            mIsVideo = isVideo;
+        }
+
+        public int compareTo(DecodeJob other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence
+                    ? -1
+                    : mSequence == other.mSequence ? 0 : 1;
+        }
+
+        public void run() {
+            long groupId;
+            synchronized (BitmapManager.this) {
+                if (mCancelled) return;
+                groupId = mSequence;
+                synchronized (this) {
+                    mRunning = true;
+                }
+            }
+            Bitmap result = null;
+            try {
+                result = mIsVideo
+                        ? Video.Thumbnails.getThumbnail(
+                                mResolver, mOrigId, groupId, mKind, null)
+                        : Images.Thumbnails.getThumbnail(
+                                mResolver, mOrigId, groupId, mKind, null);
+            } catch (Throwable ex) {
+                Log.e(TAG, "fail to decode thumbnail " + mKey, ex);
+            }
+            synchronized (BitmapManager.this) {
+                if (mJobs.get(mKey) == this) mJobs.remove(mKey);
+                synchronized (this) {
+                    mRunning = false;
+                    mDone = true;
+                    mResult = mCancelled ? null : result;
+                    notifyAll();
+                }
+            }
+        }
+
+        // Returns the result for one request. The callers may rotate and
+        // recycle the thumbnail, so every request but the last one to
+        // collect gets a copy. Must be called with BitmapManager.this
+        // locked, after the job is done.
+        Bitmap collect() {
+            Bitmap result;
+            synchronized (this) {
+                result = mResult;
+            }
+            if (result == null) return null;
+            if (--mUncollectedCount == 0) return result;
+            try {
+                Bitmap.Config config = result.getConfig();
+                return result.copy(config == null
+                        ? Bitmap.Config.ARGB_8888 : config, true);
+            } catch (OutOfMemoryError ex) {
+                Log.w(TAG, "cannot copy thumbnail " + mKey, ex);
+                return null;
+            }
+        }
     }
 
     /**
-     * Get thread status and create one if specified.
+     * Submits a request for the thumbnail of the given ID of the original
+     * image or video. If the same thumbnail is already being decoded, the
+     * request joins it, and raises its priority if needed.
      */
-    private synchronized ThreadStatus getOrCreateThreadStatus(Thread t) {
-        ThreadStatus status = mThreadStatus.get(t);
-        if (status == null) {
-            status = new ThreadStatus();
-            mThreadStatus.put(t, status);
+    public synchronized ThumbnailRequest requestThumbnail(ContentResolver cr,
+            long origId, int kind, boolean isVideo, int priority) {
+        String key = (isVideo ? "v" : "i") + kind + ":" + origId;
+        DecodeJob job = mJobs.get(key);
+        if (job == null) {
+            job = new DecodeJob(key, cr, origId, kind, isVideo);
+            job.mPriority = priority;
+            job.mSequence = mNextSequence++;
+            mJobs.put(key, job);
+            mExecutor.execute(job);
+        } else if (priority < job.mPriority) {
+            // Re-queue it, as the queue cannot reorder a job in place.
+            if (mExecutor.remove(job)) {
+                job.mPriority = priority;
+                mExecutor.execute(job);
+            }
         }
-        return status;
+        ++job.mRequestCount;
+        ++job.mUncollectedCount;
+        return new ThumbnailRequest(job);
     }
 
-    public synchronized boolean canThreadDecoding(Thread t) {
-        ThreadStatus status = mThreadStatus.get(t);
-        if (status == null) {
-            // allow decoding by default
-            return true;
+    /**
+     * Cancels all the decodes, for example when the images on screen are no
+     * longer needed. The waiting requests get null.
+     */
+    public void cancelAll() {
+        ArrayList<DecodeJob> jobs;
+        synchronized (this) {
+            jobs = new ArrayList<DecodeJob>(mJobs.values());
+            for (DecodeJob job : jobs) cancelJob(job);
+        }
+        for (DecodeJob job : jobs) {
+            synchronized (job) {
+                job.mDone = true;
+                job.notifyAll();
+            }
         }
+    }
 
-        boolean result = (status.mState != State.CANCEL);
-        return result;
+    // Must be called with "this" locked.
+    private void cancelJob(DecodeJob job) {
+        job.mCancelled = true;
+        if (mJobs.get(job.mKey) == job) mJobs.remove(job.mKey);
+        if (mExecutor.remove(job)) return;
+        boolean running;
+        synchronized (job) {
+            running = job.mRunning;
+        }
+        if (!running) return;
+        if (job.mIsVideo) {
+            Video.Thumbnails.cancelThumbnailRequest(
+                    job.mResolver, job.mOrigId, job.mSequence);
+        } else {
+            Images.Thumbnails.cancelThumbnailRequest(
+                    job.mResolver, job.mOrigId, job.mSequence);
+        }
     }
 
     /**
      * Gets the thumbnail of the given ID of the original image.
      *
      * <p> This method wraps around @{code getThumbnail} in {@code
-     * android.provider.MediaStore}. It provides the ability to cancel it.
+     * android.provider.MediaStore}. It decodes at the visible priority and
+     * blocks until the thumbnail is ready. The bitmap belongs to the caller, even when the decode was shared. If
+     * the calling thread is interrupted, the request is cancelled and null
+     * is returned.
      */
     public Bitmap getThumbnail(ContentResolver cr, long origId, int kind,
             BitmapFactory.Options options, boolean isVideo) {
-        Thread t = Thread.currentThread();
-        ThreadStatus status = getOrCreateThreadStatus(t);
-
-        if (!canThreadDecoding(t)) {
-            Log.d(TAG, "Thread " + t + " is not allowed to decode.");
-            return null;
-        }
-
+        ThumbnailRequest request = requestThumbnail(
+                cr, origId, kind, isVideo, PRIORITY_VISIBLE);
         try {
-            if (isVideo) {
-                return Video.Thumbnails.getThumbnail(cr, origId, t.getId(),
-                        kind, null);
-            } else {
-                return Images.Thumbnails.getThumbnail(cr, origId, t.getId(),
-                        kind, null);
-            }
-        } finally {
-            synchronized (status) {
-                status.notifyAll();
-            }
-        }
-    }
-
-    public static synchronized BitmapManager instance() {
-        if (sManager == null) {
-            sManager = new BitmapManager();
+            return request.get();
+        } catch (InterruptedException ex) {
+            Log.d(TAG, "thumbnail request " + origId + " interrupted");
+            request.cancel();
+            return null;
         }
-        return sManager;
     }
 }
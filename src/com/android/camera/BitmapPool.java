@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * A pool of mutable bitmaps, so the bitmaps drawn with a canvas (rotated
+ * pictures, thumbnails and textures) can reuse the memory of the ones
+ * dropped before instead of making the garbage collector reclaim it.
+ *
+ * <p>Bitmaps are pooled by their size class, which is the width, height and
+ * config, since a bitmap cannot be resized. The pooled bitmaps are kept
+ * within a byte budget: when it is exceeded, the least recently released
+ * bitmaps are recycled. The decoders cannot draw into an existing bitmap,
+ * so only the canvas paths benefit.
+ *
+ * <p>The hits, misses and evictions are counted in {@link CameraMetrics}.
+ */
+public class BitmapPool {
+    private static final String TAG = "BitmapPool";
+
+    private static final int DEFAULT_CAPACITY = 2 * 1024 * 1024;
+
+    private final HashMap<Long, ArrayList<Bitmap>> mPool =
+            new HashMap<Long, ArrayList<Bitmap>>();
+    // All the pooled bitmaps, the least recently released first.
+    private final LinkedList<Bitmap> mLru = new LinkedList<Bitmap>();
+    private int mCapacity = DEFAULT_CAPACITY;
+    private int mSize;
+
+    private static BitmapPool sInstance;
+
+    public static synchronized BitmapPool instance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool();
+        }
+        return sInstance;
+    }
+
+    private BitmapPool() {
+    }
+
+    private static long sizeClass(int width, int height, Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+
+    private static int byteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Returns a cleared mutable bitmap of the given size, reusing a pooled
+     * one if possible.
+     */
+    public Bitmap get(int width, int height, Config config) {
+        Bitmap bitmap = null;
+        synchronized (this) {
+            ArrayList<Bitmap> list =
+                    mPool.get(sizeClass(width, height, config));
+            if (list != null && !list.isEmpty()) {
+                bitmap = list.remove(list.size() - 1);
+                mLru.remove(bitmap);
+                mSize -= byteCount(bitmap);
+            }
+        }
+        if (bitmap != null) {
+            CameraMetrics.instance().increment(
+                    CameraMetrics.COUNTER_BITMAP_POOL_HITS);
+            bitmap.eraseColor(0);
+            return bitmap;
+        }
+        CameraMetrics.instance().increment(
+                CameraMetrics.COUNTER_BITMAP_POOL_MISSES);
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Gives the bitmap back to the pool. The caller must not use it any
+     * more. Bitmaps that cannot be reused are recycled.
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        Config config = bitmap.getConfig();
+        int bytes = byteCount(bitmap);
+        if (!bitmap.isMutable() || config == null || bytes > mCapacity) {
+            bitmap.recycle();
+            return;
+        }
+        synchronized (this) {
+            long key = sizeClass(bitmap.getWidth(), bitmap.getHeight(), config);
+            ArrayList<Bitmap> list = mPool.get(key);
+            if (list == null) {
+                list = new ArrayList<Bitmap>();
+                mPool.put(key, list);
+            }
+            list.add(bitmap);
+            mLru.addLast(bitmap);
+            mSize += bytes;
+            trimToSize(mCapacity);
+        }
+    }
+
+    /** Sets the byte budget of the pooled bitmaps. */
+    public synchronized void setCapacity(int bytes) {
+        mCapacity = bytes;
+        trimToSize(bytes);
+    }
+
+    /**
+     * Recycles the least recently released bitmaps until the pool holds at
+     * most the given bytes. Call it with 0 on memory pressure.
+     */
+    public synchronized void trimToSize(int bytes) {
+        while (mSize > bytes && !mLru.isEmpty()) {
+            Bitmap bitmap = mLru.removeFirst();
+            mPool.get(sizeClass(bitmap.getWidth(), bitmap.getHeight(),
+                    bitmap.getConfig())).remove(bitmap);
+            mSize -= byteCount(bitmap);
+            bitmap.recycle();
+            CameraMetrics.instance().increment(
+                    CameraMetrics.COUNTER_BITMAP_POOL_EVICTIONS);
+        }
+        if (bytes == 0 && mSize == 0) {
+            Log.v(TAG, "pool cleared");
+            mPool.clear();
+        }
+    }
+
+    public synchronized int getSize() {
+        return mSize;
+    }
+}
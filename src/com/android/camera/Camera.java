@@ -73,6 +73,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import com.android.camera.gallery.IImage;
 import com.android.camera.gallery.IImageList;
+import com.android.camera.gallery.MiniThumbCache;
 import com.android.camera.ui.CameraHeadUpDisplay;
 import com.android.camera.ui.GLRootView;
 import com.android.camera.ui.HeadUpDisplay;
@@ -103,6 +104,7 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     private static final int CLEAR_SCREEN_DELAY = 4;
     private static final int SET_CAMERA_PARAMETERS_WHEN_IDLE = 5;
     private static final int CAMERA_TIMER = 6;
+    private static final int UPDATE_THUMBNAIL = 7;
 
     // The subset of parameters we need to update in setCameraParameters().
     private static final int UPDATE_PARAM_INITIALIZE = 1;
@@ -170,6 +172,7 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     private Uri mSaveUri;
 
     private ImageCapture mImageCapture = null;
+    private ImageSaver mImageSaver;
     private TextView mRecordingTimeView;
 
     private boolean mFirstTimeInitialized;
@@ -190,6 +193,8 @@ public class Camera extends BaseCamera implements View.OnClickListener,
             new PostViewPictureCallback();
     private final RawPictureCallback mRawPictureCallback =
             new RawPictureCallback();
+    private final JpegPictureCallback mJpegPictureCallback =
+            new JpegPictureCallback();
     private final AutoFocusCallback mAutoFocusCallback =
             new AutoFocusCallback();
     private final ZoomListener mZoomListener = new ZoomListener();
@@ -215,6 +220,14 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     public long mPictureDisplayedToJpegCallbackTime;
     public long mJpegCallbackFinishTime;
 
+    // Burst capture keeps taking pictures while the shutter is held.
+    // mBurstStartTime is non-zero from the first shot until the burst ends.
+    private boolean mBursting = false;
+    private int mBurstShots;
+    private long mBurstStartTime;
+    // The sustained rate of the last burst, for the CameraLatency test.
+    public float mBurstFramesPerSecond;
+
     // Add for test
     public static boolean mMediaServerDied = false;
 
@@ -269,6 +282,11 @@ public class Camera extends BaseCamera implements View.OnClickListener,
                     updateTimer(msg.arg1);
                     break;
                 }
+
+                case UPDATE_THUMBNAIL: {
+                    if (mImageSaver != null) mImageSaver.updateThumbnail();
+                    break;
+                }
             }
         }
     }
@@ -302,57 +320,125 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     private void initializeFirstTime() {
         if (mFirstTimeInitialized) return;
 
+        // The provider, storage and audio work runs in the background while
+        // the main thread sets up the listeners and the views.
+        StartupScheduler init =
+                new StartupScheduler("Camera.initializeFirstTime");
+        mContentResolver = getContentResolver();
+
         // Create orientation listenter. This should be done first because it
         // takes some time to get first orientation.
-        mOrientationListener = new MyOrientationEventListener(Camera.this);
-        mOrientationListener.enable();
+        init.add("orientation", StartupScheduler.THREAD_MAIN, new Runnable() {
+            public void run() {
+                mOrientationListener =
+                        new MyOrientationEventListener(Camera.this);
+                mOrientationListener.enable();
+            }
+        });
 
         // Initialize location sevice.
-        mLocationManager = (LocationManager)
-                getSystemService(Context.LOCATION_SERVICE);
-        mRecordLocation = RecordLocationPreference.get(
-                mPreferences, getContentResolver());
-        if (mRecordLocation) startReceivingLocationUpdates();
+        init.add("location", StartupScheduler.THREAD_MAIN, new Runnable() {
+            public void run() {
+                mLocationManager = (LocationManager)
+                        getSystemService(Context.LOCATION_SERVICE);
+                mRecordLocation = RecordLocationPreference.get(
+                        mPreferences, getContentResolver());
+                if (mRecordLocation) startReceivingLocationUpdates();
+            }
+        });
 
-        keepMediaProviderInstance();
-        checkStorage();
+        StartupScheduler.Task provider = init.add("provider",
+                StartupScheduler.THREAD_BACKGROUND, new Runnable() {
+            public void run() {
+                keepMediaProviderInstance();
+            }
+        });
+        StartupScheduler.Task storage = init.add("storage",
+                StartupScheduler.THREAD_BACKGROUND, new Runnable() {
+            public void run() {
+                calculatePicturesRemaining();
+            }
+        });
+        init.add("storageHint", StartupScheduler.THREAD_MAIN, new Runnable() {
+            public void run() {
+                updateStorageHint(mPicturesRemaining);
+            }
+        }, storage);
 
-        // Initialize last picture button.
-        mContentResolver = getContentResolver();
+        // Initialize last picture button. The saved thumbnail is read in the
+        // background.
         if (!mIsImageCaptureIntent)  {
-            findViewById(R.id.camera_switch).setOnClickListener(this);
-            mLastPictureButton =
-                    (ImageView) findViewById(R.id.review_thumbnail);
-            mLastPictureButton.setOnClickListener(this);
-            mThumbController = new ThumbnailController(
-                    getResources(), mLastPictureButton, mContentResolver);
-            mThumbController.loadData(ImageManager.getLastImageThumbPath());
-            // Update last image thumbnail.
-            updateThumbnailButton();
+            final Uri[] thumbUri = new Uri[1];
+            final Bitmap[] thumb = new Bitmap[1];
+            StartupScheduler.Task thumbFile = init.add("thumbnailFile",
+                    StartupScheduler.THREAD_BACKGROUND, new Runnable() {
+                public void run() {
+                    thumb[0] = ThumbnailController.loadData(
+                            ImageManager.getLastImageThumbPath(), thumbUri);
+                    // Map the capture index before updateLastImage() needs
+                    // it in the main thread.
+                    CaptureIndex.instance(Camera.this).preload();
+                }
+            });
+            init.add("thumbnail", StartupScheduler.THREAD_MAIN,
+                    new Runnable() {
+                public void run() {
+                    findViewById(R.id.camera_switch).setOnClickListener(
+                            Camera.this);
+                    mLastPictureButton =
+                            (ImageView) findViewById(R.id.review_thumbnail);
+                    mLastPictureButton.setOnClickListener(Camera.this);
+                    mThumbController = new ThumbnailController(
+                            getResources(), mLastPictureButton,
+                            mContentResolver);
+                    if (thumb[0] != null) {
+                        mThumbController.setLoadedData(thumbUri[0], thumb[0]);
+                    }
+                    // Update last image thumbnail.
+                    updateThumbnailButton();
+                }
+            }, thumbFile, storage, provider);
         }
 
-        // Initialize shutter button.
-        mShutterButton = (ShutterButton) findViewById(R.id.shutter_button);
-        mShutterButton.setOnShutterButtonListener(this);
-        mShutterButton.setVisibility(View.VISIBLE);
+        init.add("focusTone", StartupScheduler.THREAD_BACKGROUND,
+                new Runnable() {
+            public void run() {
+                initializeFocusTone();
+            }
+        });
 
-        mFocusRectangle = (FocusRectangle) findViewById(R.id.focus_rectangle);
-        updateFocusIndicator();
+        init.add("controls", StartupScheduler.THREAD_MAIN, new Runnable() {
+            public void run() {
+                // Initialize shutter button.
+                mShutterButton =
+                        (ShutterButton) findViewById(R.id.shutter_button);
+                mShutterButton.setOnShutterButtonListener(Camera.this);
+                mShutterButton.setVisibility(View.VISIBLE);
+
+                mFocusRectangle =
+                        (FocusRectangle) findViewById(R.id.focus_rectangle);
+                updateFocusIndicator();
+
+                initializeScreenBrightness();
+                installIntentFilter();
+                initializeZoom();
+                mHeadUpDisplay = new CameraHeadUpDisplay(Camera.this);
+                mHeadUpDisplay.setListener(new MyHeadUpDisplayListener());
+                initializeHeadUpDisplay();
+                initializeTouchFocus();
+                clearFocusState();
+                resetFocusIndicator();
+            }
+        });
 
-        initializeScreenBrightness();
-        installIntentFilter();
-        initializeFocusTone();
-        initializeZoom();
-        mHeadUpDisplay = new CameraHeadUpDisplay(this);
-        mHeadUpDisplay.setListener(new MyHeadUpDisplayListener());
-        initializeHeadUpDisplay();
-        initializeTouchFocus();
-        clearFocusState();
-        resetFocusIndicator();
+        init.start();
+        init.awaitAll();
 
         mFirstTimeInitialized = true;
         changeHeadUpDisplayState();
         addIdleHandler();
+        preopenOtherCamera();
+        StartupTrace.mark(StartupTrace.SHUTTER_READY);
     }
 
     private void addIdleHandler() {
@@ -366,13 +452,22 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     }
 
     private void updateThumbnailButton() {
-        // Update last image if URI is invalid and the storage is ready.
-        if (!mThumbController.isUriValid() && mPicturesRemaining >= 0) {
-            updateLastImage();
+        // Show the thumbnail we have and check its uri in the background.
+        // Update last image if the URI is invalid and the storage is ready.
+        if (mPicturesRemaining >= 0) {
+            mThumbController.checkUriAsync(mUpdateLastImage);
         }
         mThumbController.updateDisplayIfNeeded();
     }
 
+    private final Runnable mUpdateLastImage = new Runnable() {
+        public void run() {
+            if (mPausing) return;
+            updateLastImage();
+            mThumbController.updateDisplayIfNeeded();
+        }
+    };
+
     // If the activity is paused and resumed, this method will be called in
     // onResume.
     private void initializeSecondTime() {
@@ -396,6 +491,16 @@ public class Camera extends BaseCamera implements View.OnClickListener,
         if (!mIsImageCaptureIntent) {
             updateThumbnailButton();
         }
+        preopenOtherCamera();
+        StartupTrace.mark(StartupTrace.SHUTTER_READY);
+    }
+
+    // Opens the camera of the switch button ahead, so switching is fast.
+    private void preopenOtherCamera() {
+        if (mNumberOfCameras > 1) {
+            CameraHolder.instance().preopen(
+                    (mCameraId + 1) % mNumberOfCameras);
+        }
     }
 
     private void initializeZoom() {
@@ -563,6 +668,8 @@ public class Camera extends BaseCamera implements View.OnClickListener,
             mShutterCallbackTime = System.currentTimeMillis();
             mShutterLag = mShutterCallbackTime - mCaptureStartTime;
             Log.v(TAG, "mShutterLag = " + mShutterLag + "ms");
+            CameraMetrics.instance().record(
+                    CameraMetrics.STAGE_SHUTTER, mShutterLag);
             clearFocusState();
         }
     }
@@ -574,6 +681,8 @@ public class Camera extends BaseCamera implements View.OnClickListener,
             Log.v(TAG, "mShutterToPostViewCallbackTime = "
                     + (mPostViewPictureCallbackTime - mShutterCallbackTime)
                     + "ms");
+            CameraMetrics.instance().record(CameraMetrics.STAGE_POSTVIEW,
+                    mPostViewPictureCallbackTime - mShutterCallbackTime);
         }
     }
 
@@ -583,6 +692,8 @@ public class Camera extends BaseCamera implements View.OnClickListener,
             mRawPictureCallbackTime = System.currentTimeMillis();
             Log.v(TAG, "mShutterToRawCallbackTime = "
                     + (mRawPictureCallbackTime - mShutterCallbackTime) + "ms");
+            CameraMetrics.instance().record(CameraMetrics.STAGE_RAW,
+                    mRawPictureCallbackTime - mShutterCallbackTime);
 
             if (mShutterdownTime != 0)
                 Log.e(TAG,"<PROFILE> Snapshot to Thumb Latency = "
@@ -592,13 +703,11 @@ public class Camera extends BaseCamera implements View.OnClickListener,
         }
     }
 
+    // A single instance is reused for every shot. mLocation is set by
+    // ImageCapture.capture() before each takePicture().
     private final class JpegPictureCallback implements PictureCallback {
         Location mLocation;
 
-        public JpegPictureCallback(Location loc) {
-            mLocation = loc;
-        }
-
         public void onPictureTaken(
                 final byte [] jpegData, final android.hardware.Camera camera) {
             if (mPausing) {
@@ -622,6 +731,10 @@ public class Camera extends BaseCamera implements View.OnClickListener,
             }
             Log.v(TAG, "mPictureDisplayedToJpegCallbackTime = "
                     + mPictureDisplayedToJpegCallbackTime + "ms");
+            CameraMetrics metrics = CameraMetrics.instance();
+            metrics.record(CameraMetrics.STAGE_JPEG,
+                    mJpegPictureCallbackTime - mShutterCallbackTime);
+            metrics.increment(CameraMetrics.COUNTER_PICTURES);
             mHeadUpDisplay.setEnabled(true);
 
             if (mShutterdownTime != 0)
@@ -631,15 +744,16 @@ public class Camera extends BaseCamera implements View.OnClickListener,
 
             if (!mIsImageCaptureIntent) {
                 // We want to show the taken picture for a while, so we wait
-                // for at least 1.2 second before restarting the preview.
+                // for at least 1.2 second before restarting the preview. In
+                // burst mode the next shot is taken right away instead.
                 long delay = 1200 - mPictureDisplayedToJpegCallbackTime;
-                if (delay < 0) {
+                if (delay < 0 || mBurstStartTime != 0) {
                     restartPreview();
                 } else {
                     mHandler.sendEmptyMessageDelayed(RESTART_PREVIEW, delay);
                 }
             }
-            mImageCapture.storeImage(jpegData, camera, mLocation);
+            mImageCapture.storeImage(jpegData, mLocation);
 
             // Calculate this in advance of each shot so we don't add to shutter
             // latency. It's true that someone else could write to the SD card in
@@ -660,8 +774,17 @@ public class Camera extends BaseCamera implements View.OnClickListener,
             }
             mStatus = IDLE;
             decrementkeypress();
+
+            if (mBurstStartTime != 0) {
+                ++mBurstShots;
+                if (mBursting && canTakePicture()) {
+                    mImageCapture.onSnap();
+                } else {
+                    finishBurst();
+                }
+            }
         }
-        }
+    }
 
     private final class AutoFocusCallback
             implements android.hardware.Camera.AutoFocusCallback {
@@ -670,6 +793,8 @@ public class Camera extends BaseCamera implements View.OnClickListener,
             mFocusCallbackTime = System.currentTimeMillis();
             mAutoFocusTime = mFocusCallbackTime - mFocusStartTime;
             Log.e(TAG, "<PROFILE> mAutoFocusTime = " + mAutoFocusTime + "ms");
+            CameraMetrics.instance().record(
+                    CameraMetrics.STAGE_FOCUS, mAutoFocusTime);
             if (mFocusState == FOCUSING_SNAP_ON_FINISH) {
                 // Take the picture no matter focus succeeds or fails. No need
                 // to play the AF sound if we're about to play the shutter
@@ -738,37 +863,13 @@ public class Camera extends BaseCamera implements View.OnClickListener,
 
         byte[] mCaptureOnlyData;
 
-        // Returns the rotation degree in the jpeg header.
-        private int storeImage(byte[] data, Location loc) {
-            try {
-                long dateTaken = System.currentTimeMillis();
-                String title = createName(dateTaken);
-                String filename = title + ".jpg";
-                int[] degree = new int[1];
-                mLastContentUri = ImageManager.addImage(
-                        mContentResolver,
-                        title,
-                        dateTaken,
-                        loc, // location from gps/network
-                        ImageManager.CAMERA_IMAGE_BUCKET_NAME, filename,
-                        null, data,
-                        degree);
-                return degree[0];
-            } catch (Exception ex) {
-                Log.e(TAG, "Exception while compressing image.", ex);
-                return 0;
-            }
-        }
-
-        public void storeImage(final byte[] data,
-                android.hardware.Camera camera, Location loc) {
+        public void storeImage(final byte[] data, Location loc) {
             if (!mIsImageCaptureIntent) {
-                int degree = storeImage(data, loc);
-                sendBroadcast(new Intent(
-                        "com.android.camera.NEW_PICTURE", mLastContentUri));
-                setLastPictureThumb(data, degree,
-                        mImageCapture.getLastCaptureUri());
-                mThumbController.updateDisplayIfNeeded();
+                // The JPEG is written, inserted into the media store and
+                // decoded for the thumbnail by mImageSaver, so the shutter is
+                // ready again as soon as the bytes are handed off.
+                mImageSaver.addImage(data, loc, getThumbnailSampleSize(),
+                        getThumbnailMinSide());
             } else {
                 mCaptureOnlyData = data;
                 showPostCaptureAlert();
@@ -790,6 +891,10 @@ public class Camera extends BaseCamera implements View.OnClickListener,
             return mLastContentUri;
         }
 
+        private void setLastCaptureUri(Uri uri) {
+            mLastContentUri = uri;
+        }
+
         public byte[] getLastCaptureData() {
             return mCaptureOnlyData;
         }
@@ -847,14 +952,15 @@ public class Camera extends BaseCamera implements View.OnClickListener,
                 }
             }
 
-            mCameraDevice.setParameters(mParameters);
+            mShadowParameters.commit();
 
             incrementkeypress();
             Size pictureSize = mParameters.getPictureSize();
             mImageWidth = pictureSize.width;
             mImageHeight = pictureSize.height;
+            mJpegPictureCallback.mLocation = loc;
             mCameraDevice.takePicture(mShutterCallback, mRawPictureCallback,
-                    mPostViewPictureCallback, new JpegPictureCallback(loc));
+                    mPostViewPictureCallback, mJpegPictureCallback);
             mPreviewing = false;
         }
 
@@ -876,32 +982,228 @@ public class Camera extends BaseCamera implements View.OnClickListener,
         }
     }
 
-    private boolean saveDataToFile(String filePath, byte[] data) {
-        FileOutputStream f = null;
-        try {
-            f = new FileOutputStream(filePath);
-            f.write(data);
-        } catch (IOException e) {
-            return false;
-        } finally {
-            MenuHelper.closeSilently(f);
+    // Each SaveRequest holds a captured JPEG and everything the ImageSaver
+    // needs to store it without touching the views.
+    private static class SaveRequest {
+        byte[] data;
+        Location loc;
+        long dateTaken;
+        int thumbSampleSize;
+        int thumbMinSide;
+    }
+
+    // We use a queue to store the SaveRequests that have not been completed
+    // (waiting to be stored or being stored). When the queue is full,
+    // addImage() blocks until the saver thread has made room, so a fast
+    // shooter cannot run us out of memory.
+    private class ImageSaver extends Thread {
+        private static final int QUEUE_LIMIT = 3;
+
+        private final ArrayList<SaveRequest> mQueue;
+        private boolean mStop;
+
+        // The result of the last completed request. It is handed to the main
+        // thread by updateThumbnail().
+        private Uri mPendingUri;
+        private Bitmap mPendingThumb;
+
+        // Runs in main thread
+        public ImageSaver() {
+            super("ImageSaver");
+            mQueue = new ArrayList<SaveRequest>();
+            start();
+        }
+
+        // Runs in main thread
+        public void addImage(final byte[] data, Location loc,
+                int thumbSampleSize, int thumbMinSide) {
+            SaveRequest r = new SaveRequest();
+            r.data = data;
+            r.loc = (loc == null) ? null : new Location(loc);  // make a copy
+            r.dateTaken = System.currentTimeMillis();
+            r.thumbSampleSize = thumbSampleSize;
+            r.thumbMinSide = thumbMinSide;
+            synchronized (this) {
+                while (mQueue.size() >= QUEUE_LIMIT) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // ignore.
+                    }
+                }
+                mQueue.add(r);
+                notifyAll();  // Tell saver thread there is new work to do.
+            }
+        }
+
+        // Runs in saver thread
+        @Override
+        public void run() {
+            while (true) {
+                SaveRequest r;
+                synchronized (this) {
+                    if (mQueue.isEmpty()) {
+                        notifyAll();  // notify main thread in waitDone
+
+                        // Note that we can only stop after we saved all images
+                        // in the queue.
+                        if (mStop) break;
+
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            // ignore.
+                        }
+                        continue;
+                    }
+                    r = mQueue.get(0);
+                }
+                storeImage(r);
+                synchronized (this) {
+                    mQueue.remove(0);
+                    notifyAll();  // the main thread may wait in addImage
+                }
+            }
+        }
+
+        // Runs in main thread
+        public void waitDone() {
+            synchronized (this) {
+                while (!mQueue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // ignore.
+                    }
+                }
+            }
+            updateThumbnail();
+        }
+
+        // Runs in main thread
+        public void finish() {
+            waitDone();
+            synchronized (this) {
+                mStop = true;
+                notifyAll();
+            }
+            try {
+                join();
+            } catch (InterruptedException ex) {
+                // ignore.
+            }
+        }
+
+        // Runs in main thread (because we need to update the thumbnail button
+        // in the main thread)
+        public void updateThumbnail() {
+            Uri uri;
+            Bitmap thumb;
+            synchronized (this) {
+                mHandler.removeMessages(UPDATE_THUMBNAIL);
+                uri = mPendingUri;
+                thumb = mPendingThumb;
+                mPendingUri = null;
+                mPendingThumb = null;
+            }
+            if (uri == null) return;
+            mImageCapture.setLastCaptureUri(uri);
+            if (mThumbController != null) {
+                mThumbController.setData(uri, thumb);
+                mThumbController.updateDisplayIfNeeded();
+            }
+            // The thumbnail controller keeps a scaled copy.
+            BitmapPool.instance().release(thumb);
+        }
+
+        // Runs in saver thread
+        private void storeImage(SaveRequest r) {
+            Uri uri = null;
+            int degree = 0;
+            try {
+                String title = createName(r.dateTaken);
+                String filename = title + ".jpg";
+                int[] degreeOut = new int[1];
+                uri = ImageManager.addImage(
+                        mContentResolver,
+                        title,
+                        r.dateTaken,
+                        r.loc, // location from gps/network
+                        ImageManager.CAMERA_IMAGE_BUCKET_NAME, filename,
+                        null, r.data,
+                        degreeOut);
+                degree = degreeOut[0];
+            } catch (Exception ex) {
+                Log.e(TAG, "Exception while compressing image.", ex);
+            }
+            if (uri == null) {
+                CameraMetrics.instance().increment(
+                        CameraMetrics.COUNTER_SAVE_FAILURES);
+                return;
+            }
+
+            sendBroadcast(new Intent("com.android.camera.NEW_PICTURE", uri));
+            long thumbStart = System.currentTimeMillis();
+            Bitmap thumb = createLastPictureThumb(
+                    r.data, degree, r.thumbSampleSize, r.thumbMinSide);
+            CameraMetrics.instance().record(CameraMetrics.STAGE_THUMBNAIL,
+                    System.currentTimeMillis() - thumbStart);
+            CaptureIndex.instance(Camera.this).add(
+                    CaptureIndex.TYPE_IMAGE, uri, r.dateTaken, degree, thumb);
+            synchronized (this) {
+                BitmapPool.instance().release(mPendingThumb);
+                mPendingUri = uri;
+                mPendingThumb = thumb;
+            }
+            mHandler.sendEmptyMessage(UPDATE_THUMBNAIL);
         }
-        return true;
     }
 
-    private void setLastPictureThumb(byte[] data, int degree, Uri uri) {
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inSampleSize = 16;
-        if(mThumbController != null && mImageWidth > 0 && mImageHeight > 0){
+    // Runs in main thread. The thumbnail button size is only readable here,
+    // so the sample size is computed before the JPEG is handed to the saver.
+    private int getThumbnailSampleSize() {
+        int sampleSize = 16;
+        if (mThumbController != null && mImageWidth > 0 && mImageHeight > 0) {
             int miniThumbHeight = mThumbController.getThumbnailHeight();
-            if(miniThumbHeight > 0){
-                options.inSampleSize = mImageHeight/miniThumbHeight;
+            if (miniThumbHeight > 0) {
+                sampleSize = mImageHeight / miniThumbHeight;
             }
         }
+        return sampleSize;
+    }
+
+    // Runs in main thread. Returns the smallest side an EXIF thumbnail must
+    // have to be used in place of decoding the whole picture.
+    private int getThumbnailMinSide() {
+        if (mThumbController == null) return 0;
+        return Math.max(mThumbController.getThumbnailWidth(),
+                mThumbController.getThumbnailHeight());
+    }
+
+    private static Bitmap createLastPictureThumb(
+            byte[] data, int degree, int sampleSize, int minSide) {
+        // Most drivers embed a small thumbnail in the EXIF header. Decoding it
+        // is much cheaper than decoding the whole picture, so use it if it is
+        // large enough for the thumbnail button.
+        Bitmap exifThumb = Exif.getThumbnail(data);
+        if (exifThumb != null) {
+            if (minSide > 0 && Math.min(exifThumb.getWidth(),
+                    exifThumb.getHeight()) >= minSide) {
+                return Util.rotate(exifThumb, degree);
+            }
+            exifThumb.recycle();
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
         Bitmap lastPictureThumb =
                 BitmapFactory.decodeByteArray(data, 0, data.length, options);
-        lastPictureThumb = Util.rotate(lastPictureThumb, degree);
-        mThumbController.setData(uri, lastPictureThumb);
+        return Util.rotate(lastPictureThumb, degree);
+    }
+
+    // The capture metrics are written here when the activity pauses.
+    public String getMetricsSnapshotPath() {
+        return getFileStreamPath("capture_metrics.txt").getPath();
     }
 
     private String createName(long dateTaken) {
@@ -915,29 +1217,35 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
-        prefs = getSharedPreferences("com.android.camera_preferences", 0);
-        powerShutter(prefs);
-        setContentView(R.layout.camera);
-        mSurfaceView = (SurfaceView) findViewById(R.id.camera_preview);
-        mRecordingTimeView = (TextView) findViewById(R.id.recording_time);
-        mPreferences = new ComboPreferences(this);
-        CameraSettings.upgradeGlobalPreferences(mPreferences.getGlobal());
-        mCameraId = CameraSettings.readPreferredCameraId(mPreferences);
-        mPreferences.setLocalId(this, mCameraId);
-        CameraSettings.upgradeLocalPreferences(mPreferences.getLocal());
-
+        StartupTrace.begin(StartupTrace.ON_CREATE);
         mShutterdownTime = 0;
         mShutterupTime = 0;
 
-        mNumberOfCameras = CameraHolder.instance().getNumberOfCameras();
-
-        // we need to reset exposure for the preview
-        resetExposureCompensation();
         /*
-         * To reduce startup time, we start the preview in another thread.
+         * To reduce startup time, the preferences are upgraded and the
+         * preview is started in the background while the views are inflated.
          * We make sure the preview is started at the end of onCreate.
          */
-        Thread startPreviewThread = new Thread(new Runnable() {
+        StartupScheduler startup = new StartupScheduler("Camera.onCreate");
+        StartupScheduler.Task preferences = startup.add("preferences",
+                StartupScheduler.THREAD_BACKGROUND, new Runnable() {
+            public void run() {
+                mPreferences = new ComboPreferences(Camera.this);
+                CameraSettings.upgradeGlobalPreferences(
+                        mPreferences.getGlobal());
+                mCameraId = CameraSettings.readPreferredCameraId(mPreferences);
+                mPreferences.setLocalId(Camera.this, mCameraId);
+                CameraSettings.upgradeLocalPreferences(
+                        mPreferences.getLocal());
+                mNumberOfCameras =
+                        CameraHolder.instance().getNumberOfCameras();
+                CameraCapabilities.preload(Camera.this);
+                // we need to reset exposure for the preview
+                resetExposureCompensation();
+            }
+        });
+        startup.add("preview", StartupScheduler.THREAD_BACKGROUND,
+                new Runnable() {
             public void run() {
                 try {
                     mStartPreviewFail = false;
@@ -951,8 +1259,27 @@ public class Camera extends BaseCamera implements View.OnClickListener,
                     mStartPreviewFail = true;
                 }
             }
+        }, preferences);
+        startup.add("layout", StartupScheduler.THREAD_MAIN, new Runnable() {
+            public void run() {
+                initializeLayout();
+            }
         });
-        startPreviewThread.start();
+        startup.start();
+
+        // Make sure preview is started.
+        startup.awaitAll();
+        if (mStartPreviewFail) {
+            showCameraErrorAndFinish();
+        }
+    }
+
+    private void initializeLayout() {
+        prefs = getSharedPreferences("com.android.camera_preferences", 0);
+        powerShutter(prefs);
+        setContentView(R.layout.camera);
+        mSurfaceView = (SurfaceView) findViewById(R.id.camera_preview);
+        mRecordingTimeView = (TextView) findViewById(R.id.recording_time);
 
         // don't set mSurfaceHolder here. We have it set ONLY within
         // surfaceChanged / surfaceDestroyed, other parts of the code
@@ -981,17 +1308,6 @@ public class Camera extends BaseCamera implements View.OnClickListener,
             mSwitcher.setOnSwitchListener(this);
             mSwitcher.addTouchView(findViewById(R.id.camera_switch_set));
         }
-
-        // Make sure preview is started.
-        try {
-            startPreviewThread.join();
-            if (mStartPreviewFail) {
-                showCameraErrorAndFinish();
-                return;
-            }
-        } catch (InterruptedException ex) {
-            // ignore
-        }
     }
 
     private void changeHeadUpDisplayState() {
@@ -1149,14 +1465,7 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     }
 
     private Bitmap createCaptureBitmap(byte[] data) {
-        // This is really stupid...we just want to read the orientation in
-        // the jpeg header.
-        String filepath = ImageManager.getTempJpegPath();
-        int degree = 0;
-        if (saveDataToFile(filepath, data)) {
-            degree = ImageManager.getExifOrientation(filepath);
-            new File(filepath).delete();
-        }
+        int degree = Exif.getOrientation(data);
 
         // Limit to 50k pixels so we can return it in the intent.
         Bitmap bitmap = Util.makeBitmap(data, 50 * 1024);
@@ -1363,11 +1672,13 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     @Override
     protected void onResume() {
         super.onResume();
+        StartupTrace.resume();
 
         mPausing = false;
         mJpegPictureCallbackTime = 0;
         mZoomValue = 0;
         mImageCapture = new ImageCapture();
+        if (!mIsImageCaptureIntent) mImageSaver = new ImageSaver();
 
         // Start the preview if it is not started.
         if (!mPreviewing && !mStartPreviewFail) {
@@ -1399,22 +1710,49 @@ public class Camera extends BaseCamera implements View.OnClickListener,
 
     @Override
     protected void onPause() {
+        StartupTrace.end();
         mPausing = true;
         stopPreview();
         // Close the camera now because other activities may need to use it.
         closeCamera();
+        CameraHolder.instance().releaseStandby();
         resetScreenOn();
         changeHeadUpDisplayState();
 
+        // Flush the pending saves so the stored thumbnail below refers to the
+        // last picture taken.
+        if (mImageSaver != null) {
+            mImageSaver.finish();
+            mImageSaver = null;
+        }
+        CameraMetrics.instance().log();
+        sPauseExecutor.execute(new Runnable() {
+            public void run() {
+                CameraMetrics.instance().writeSnapshot(
+                        getMetricsSnapshotPath());
+            }
+        });
+
         if (mFirstTimeInitialized) {
             mOrientationListener.disable();
             if (!mIsImageCaptureIntent) {
                 mThumbController.storeData(
                         ImageManager.getLastImageThumbPath());
             }
+            // A thumbnail still being decoded for the button is not shown.
+            BitmapManager.instance().cancelAll();
+            final CaptureIndex index = CaptureIndex.instance(Camera.this);
+            sPauseExecutor.execute(new Runnable() {
+                public void run() {
+                    MiniThumbCache.instance().flush();
+                    index.flush();
+                }
+            });
             hidePostCaptureAlert();
         }
         keypresscount = 0;
+        mBursting = false;
+        mBurstStartTime = 0;
         if (mDidRegister) {
             unregisterReceiver(mReceiver);
             mDidRegister = false;
@@ -1687,9 +2025,38 @@ public class Camera extends BaseCamera implements View.OnClickListener,
         }
     }
 
+    private boolean isBurstCaptureMode() {
+        return mCaptureMode.equals(getResources().getString(
+                R.string.pref_camera_capturemode_entry_burst));
+    }
+
+    // Burst shots are taken without focusing: the focus of the first shot is
+    // kept for the whole burst.
+    private void startBurst() {
+        if (mHeadUpDisplay.collapse()) return;
+        if (!canTakePicture()) return;
+        mBursting = true;
+        mBurstShots = 0;
+        mBurstStartTime = System.currentTimeMillis();
+        mImageCapture.onSnap();
+    }
+
+    private void finishBurst() {
+        long duration = System.currentTimeMillis() - mBurstStartTime;
+        mBurstFramesPerSecond = (duration > 0)
+                ? mBurstShots * 1000f / duration
+                : 0;
+        Log.v(TAG, "<PROFILE> Burst: " + mBurstShots + " shots in "
+                + duration + "ms, " + mBurstFramesPerSecond + " fps");
+        mBursting = false;
+        mBurstStartTime = 0;
+    }
+
     private void doSnap() {
         if (mHeadUpDisplay.collapse()) return;
         if (mTimerMode) return;
+        // The burst is driven by the shutter press and release in doFocus().
+        if (isBurstCaptureMode()) return;
         Log.d(TAG, "doSnap: mFocusState=" + mFocusState + " mFocusMode=" + mFocusMode);
         // If the user has half-pressed the shutter and focus is completed, we
         // can take the photo right away. If the focus mode is infinity, we can
@@ -1712,6 +2079,16 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     }
 
     private void doFocus(boolean pressed) {
+        if (!mTimerMode && isBurstCaptureMode()) {
+            if (pressed) {
+                if (!mBursting) startBurst();
+            } else {
+                // The shot in flight completes and then finishBurst() runs.
+                mBursting = false;
+            }
+            return;
+        }
+
         if (!mTimerMode && pressed) {
             if (mCaptureMode.equals(getResources().getString(
                     R.string.pref_camera_capturemode_entry_timer))) {
@@ -1748,6 +2125,7 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     }
 
     public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
+        StartupTrace.mark(StartupTrace.SURFACE_CHANGED);
         // Make sure we have a surface in the holder before proceeding.
         if (holder.getSurface() == null) {
             Log.d(TAG, "holder.getSurface() == null");
@@ -1801,6 +2179,7 @@ public class Camera extends BaseCamera implements View.OnClickListener,
 
     private void closeCamera() {
         if (mCameraDevice != null) {
+            mShadowParameters.detach();
             CameraHolder.instance().release();
             mCameraDevice.setZoomChangeListener(null);
             mCameraDevice = null;
@@ -1812,25 +2191,86 @@ public class Camera extends BaseCamera implements View.OnClickListener,
         if (mCameraDevice == null) {
             mCameraDevice = CameraHolder.instance().open(mCameraId);
             mInitialParams = mCameraDevice.getParameters();
+            mParameters = mShadowParameters.reload(mCameraDevice);
         }
     }
 
     private void updateLastImage() {
-        IImageList list = ImageManager.makeImageList(
-            mContentResolver,
-            dataLocation(),
-            ImageManager.INCLUDE_IMAGES,
-            ImageManager.SORT_ASCENDING,
-            ImageManager.CAMERA_IMAGE_BUCKET_ID);
-        int count = list.getCount();
-        if (count > 0) {
-            IImage image = list.getImageAt(count - 1);
-            Uri uri = image.fullSizeImageUri();
-            mThumbController.setData(uri, image.miniThumbBitmap());
-        } else {
-            mThumbController.setData(null, null);
+        // Try the capture index first, which needs no media provider query.
+        // Its latest capture is shown right away and its uri is checked in
+        // the background; if the capture is gone, it is dropped from the
+        // index and the next one is tried.
+        final CaptureIndex index = CaptureIndex.instance(Camera.this);
+        CaptureIndex.Entry entry = index.getLatest(CaptureIndex.TYPE_IMAGE);
+        Bitmap thumb = entry == null ? null : entry.decodeThumbnail();
+        if (thumb != null) {
+            final Uri uri = entry.mUri;
+            mThumbController.setData(uri, thumb);
+            mThumbController.checkUriAsync(new Runnable() {
+                public void run() {
+                    index.remove(uri);
+                    mUpdateLastImage.run();
+                }
+            });
+            return;
         }
-        list.close();
+
+        // Otherwise ask the media provider in the background. The result is
+        // shown unless another thumbnail was set meanwhile.
+        final Uri shownUri = mThumbController.getUri();
+        ThumbnailController.execute(new Runnable() {
+            public void run() {
+                IImageList list = ImageManager.makeImageList(
+                        mContentResolver,
+                        dataLocation(),
+                        ImageManager.INCLUDE_IMAGES,
+                        ImageManager.SORT_ASCENDING,
+                        ImageManager.CAMERA_IMAGE_BUCKET_ID);
+                int count = list.getCount();
+                Uri uri = null;
+                Bitmap bitmap = null;
+                long dateTaken = 0;
+                if (count > 0) {
+                    IImage image = list.getImageAt(count - 1);
+                    uri = image.fullSizeImageUri();
+                    bitmap = image.miniThumbBitmap();
+                    dateTaken = image.getDateTaken();
+                }
+                list.close();
+
+                final Uri lastUri = uri;
+                final Bitmap lastBitmap = bitmap;
+                final long lastDateTaken = dateTaken;
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        if (mPausing || !Util.equals(
+                                shownUri, mThumbController.getUri())) {
+                            return;
+                        }
+                        mThumbController.setData(lastUri, lastBitmap);
+                        mThumbController.updateDisplayIfNeeded();
+                        seedCaptureIndex(lastUri, lastDateTaken);
+                    }
+                });
+            }
+        });
+    }
+
+    // Adds the thumbnail shown to the capture index, so the next time it is
+    // found without a media provider query.
+    private void seedCaptureIndex(final Uri uri, final long dateTaken) {
+        Bitmap shown = mThumbController.getThumb();
+        if (uri == null || shown == null) return;
+        // The controller hands its thumbnails back to BitmapPool, so the
+        // index gets a copy to compress in the background.
+        final Bitmap thumb = shown.copy(shown.getConfig(), false);
+        if (thumb == null) return;
+        ThumbnailController.execute(new Runnable() {
+            public void run() {
+                CaptureIndex.instance(Camera.this).add(
+                        CaptureIndex.TYPE_IMAGE, uri, dateTaken, 0, thumb);
+            }
+        });
     }
 
     private void showCameraErrorAndFinish() {
@@ -1869,17 +2309,17 @@ public class Camera extends BaseCamera implements View.OnClickListener,
         if (mPreviewing) stopPreview();
 
         setPreviewDisplay(mSurfaceHolder);
-        Util.setCameraDisplayOrientation(this, mCameraId, mCameraDevice);
-        setCameraParameters(UPDATE_PARAM_ALL);
-
+        Util.setCameraDisplayOrientation(
+                this, mCameraId, mCameraDevice, mParameters);
         CameraSettings.setVideoMode(mParameters, false);
-        mCameraDevice.setParameters(mParameters);
+        setCameraParameters(UPDATE_PARAM_ALL);
 
         mCameraDevice.setErrorCallback(mErrorCallback);
 
         try {
             Log.v(TAG, "startPreview");
             mCameraDevice.startPreview();
+            StartupTrace.mark(StartupTrace.START_PREVIEW);
         } catch (Throwable ex) {
             closeCamera();
             throw new RuntimeException("startPreview failed", ex);
@@ -1891,7 +2331,7 @@ public class Camera extends BaseCamera implements View.OnClickListener,
         /* Get the correct max zoom value, as this varies with
         * preview size/picture resolution
         */
-        mParameters = mCameraDevice.getParameters();
+        mParameters = mShadowParameters.reload(mCameraDevice);
         mZoomMax = mParameters.getMaxZoom();
     }
 
@@ -2000,8 +2440,7 @@ public class Camera extends BaseCamera implements View.OnClickListener,
 
                 // Zoom related settings will be changed for different preview
                 // sizes, so set and read the parameters to get lastest values
-                mCameraDevice.setParameters(mParameters);
-                mParameters = mCameraDevice.getParameters();
+                mParameters = mShadowParameters.commitAndReload();
             }
         }
 
@@ -2013,12 +2452,11 @@ public class Camera extends BaseCamera implements View.OnClickListener,
         if (isSupported(mSceneMode, mParameters.getSupportedSceneModes())) {
             if (!mParameters.getSceneMode().equals(mSceneMode)) {
                 mParameters.setSceneMode(mSceneMode);
-                mCameraDevice.setParameters(mParameters);
 
                 // Setting scene mode will change the settings of flash mode,
                 // white balance, and focus mode. Here we read back the
                 // parameters, so we can know those settings.
-                mParameters = mCameraDevice.getParameters();
+                mParameters = mShadowParameters.commitAndReload();
             }
         } else {
             mSceneMode = mParameters.getSceneMode();
@@ -2156,8 +2594,19 @@ public class Camera extends BaseCamera implements View.OnClickListener,
     // the subsets actually need updating. The PREFERENCE set needs extra
     // locking because the preference can be changed from GLThread as well.
     private void setCameraParameters(int updateSet) {
-        mParameters = mCameraDevice.getParameters();
+        updateCameraParameters(updateSet);
+        try {
+            mShadowParameters.commit();
+        } catch (Exception e) {
+            // Some phones with dual cameras fail to report the actual parameters
+            // on the FFC. Filtering is device-specific but would be better.
+            Log.e(TAG, "Error setting parameters: " + e.getMessage());
+        }
+    }
 
+    // Changes mParameters without committing them. mParameters holds what
+    // was last committed, so it does not need to be read from the device.
+    private void updateCameraParameters(int updateSet) {
         if ((updateSet & UPDATE_PARAM_INITIALIZE) != 0) {
             updateCameraParametersInitialize();
         }
@@ -2169,20 +2618,12 @@ public class Camera extends BaseCamera implements View.OnClickListener,
         if ((updateSet & UPDATE_PARAM_PREFERENCE) != 0) {
             updateCameraParametersPreference();
         }
-
-        CameraSettings.dumpParameters(mParameters);
-
-        try {
-            mCameraDevice.setParameters(mParameters);
-        } catch (Exception e) {
-            // Some phones with dual cameras fail to report the actual parameters
-            // on the FFC. Filtering is device-specific but would be better.
-            Log.e(TAG, "Error setting parameters: " + e.getMessage());
-        }
     }
 
     // If the Camera is idle, update the parameters immediately, otherwise
-    // accumulate them in mUpdateSet and update later.
+    // accumulate them in mUpdateSet and update later. The updates are
+    // committed after a preview frame, so a burst of them (like zoom steps)
+    // costs one commit.
     private void setCameraParametersWhenIdle(int additionalUpdateSet) {
         mUpdateSet |= additionalUpdateSet;
         if (mCameraDevice == null) {
@@ -2191,7 +2632,8 @@ public class Camera extends BaseCamera implements View.OnClickListener,
             mUpdateSet = 0;
             return;
         } else if (isCameraIdle()) {
-            setCameraParameters(mUpdateSet);
+            updateCameraParameters(mUpdateSet);
+            mShadowParameters.commitSoon();
             mUpdateSet = 0;
         } else {
             if (!mHandler.hasMessages(SET_CAMERA_PARAMETERS_WHEN_IDLE)) {
@@ -2393,6 +2835,8 @@ public class Camera extends BaseCamera implements View.OnClickListener,
         CameraSettings.writePreferredCameraId(mPreferences, cameraId);
 
         stopPreview();
+        // Keep the current camera open so switching back is fast.
+        CameraHolder.instance().standby();
         closeCamera();
 
         // Remove the messages in the event queue.
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.camera;
+
+import android.content.Context;
+import android.hardware.Camera.Parameters;
+import android.hardware.Camera.Size;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The options a camera supports, as used to build the settings menu.
+ *
+ * <p>The options are resolved from the {@link Parameters} of a camera the
+ * first time it is used, and kept in a small file so that later starts
+ * don't parse the parameter strings or query the camcorder profiles again.
+ * The file records {@link Build#FINGERPRINT}, so it is dropped when the
+ * system or the firmware is updated and the driver may report different
+ * options.
+ *
+ * <p>The white balance, flash and focus modes are not kept: the driver
+ * narrows them in some scene modes, so they are read from the current
+ * parameters.
+ */
+public class CameraCapabilities {
+    private static final String TAG = "CameraCapabilities";
+
+    private static final String FILE_NAME = "camera_capabilities";
+    private static final int MAGIC = 0xCA9AB1E5;
+    // Bump this when the resolved options change.
+    private static final int VERSION = 2;
+
+    // Indexed by camera id. Null if not resolved yet.
+    private static CameraCapabilities[] sCache;
+    private static File sFile;
+
+    // The supported values, or null if the parameter is not supported.
+    public final List<String> mPictureSizes;
+    public final List<String> mColorEffects;
+    public final List<String> mSceneModes;
+
+    public final int mMaxExposureCompensation;
+    public final int mMinExposureCompensation;
+    public final float mExposureCompensationStep;
+
+    public final boolean mHDCapable;
+
+    // Touch focus is available if the parameter name is not null. The
+    // "touch" focus mode is offered only if mTouchFocusMode is set.
+    public final String mTouchFocusParameter;
+    public final boolean mTouchFocusNeedsRect;
+    public final boolean mTouchFocusMode;
+
+    private CameraCapabilities(int cameraId, Parameters parameters) {
+        mPictureSizes = sizeListToStringList(
+                parameters.getSupportedPictureSizes());
+        mColorEffects = parameters.getSupportedColorEffects();
+        mSceneModes = parameters.getSupportedSceneModes();
+        mMaxExposureCompensation = parameters.getMaxExposureCompensation();
+        mMinExposureCompensation = parameters.getMinExposureCompensation();
+        mExposureCompensationStep =
+                parameters.getExposureCompensationStep();
+        mHDCapable = CameraSettings.queryHDCapable(cameraId);
+
+        String[] touchFocus = new String[1];
+        boolean[] needsRect = new boolean[1];
+        mTouchFocusMode = CameraSettings.checkTouchFocus(
+                parameters, touchFocus, needsRect);
+        mTouchFocusParameter = touchFocus[0];
+        mTouchFocusNeedsRect = needsRect[0];
+    }
+
+    private CameraCapabilities(DataInputStream in) throws IOException {
+        mPictureSizes = readList(in);
+        mColorEffects = readList(in);
+        mSceneModes = readList(in);
+        mMaxExposureCompensation = in.readInt();
+        mMinExposureCompensation = in.readInt();
+        mExposureCompensationStep = in.readFloat();
+        mHDCapable = in.readBoolean();
+        mTouchFocusParameter = in.readBoolean() ? in.readUTF() : null;
+        mTouchFocusNeedsRect = in.readBoolean();
+        mTouchFocusMode = in.readBoolean();
+    }
+
+    private void writeTo(DataOutputStream out) throws IOException {
+        writeList(out, mPictureSizes);
+        writeList(out, mColorEffects);
+        writeList(out, mSceneModes);
+        out.writeInt(mMaxExposureCompensation);
+        out.writeInt(mMinExposureCompensation);
+        out.writeFloat(mExposureCompensationStep);
+        out.writeBoolean(mHDCapable);
+        out.writeBoolean(mTouchFocusParameter != null);
+        if (mTouchFocusParameter != null) out.writeUTF(mTouchFocusParameter);
+        out.writeBoolean(mTouchFocusNeedsRect);
+        out.writeBoolean(mTouchFocusMode);
+    }
+
+    /**
+     * Loads the cache file if it is not loaded yet. This can be called in a
+     * background thread during the startup.
+     */
+    public static synchronized void preload(Context context) {
+        if (sCache != null) return;
+        sFile = new File(context.getFilesDir(), FILE_NAME);
+        sCache = new CameraCapabilities[
+                CameraHolder.instance().getNumberOfCameras()];
+        if (!sFile.exists()) return;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(sFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !Build.FINGERPRINT.equals(in.readUTF())) {
+                Log.v(TAG, "drop the capabilities of another build");
+                return;
+            }
+            for (int i = 0, n = in.readInt(); i < n; i++) {
+                int cameraId = in.readInt();
+                CameraCapabilities capabilities = new CameraCapabilities(in);
+                if (cameraId >= 0 && cameraId < sCache.length) {
+                    sCache[cameraId] = capabilities;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "fail to read the capabilities", e);
+            sCache = new CameraCapabilities[sCache.length];
+        } finally {
+            Util.closeSilently(in);
+        }
+    }
+
+    /** Returns the capabilities if they are loaded, or null. */
+    public static synchronized CameraCapabilities getCached(int cameraId) {
+        return sCache == null ? null : sCache[cameraId];
+    }
+
+    /**
+     * Returns the capabilities of the camera, resolving them from the
+     * parameters and saving them if they are not known yet.
+     */
+    public static synchronized CameraCapabilities get(Context context,
+            int cameraId, Parameters parameters) {
+        preload(context);
+        if (sCache[cameraId] == null) {
+            sCache[cameraId] = new CameraCapabilities(cameraId, parameters);
+            save();
+        }
+        return sCache[cameraId];
+    }
+
+    // Writes the cache to a temporary file and renames it, so a reader never
+    // sees a partial file.
+    private static void save() {
+        File temp = new File(sFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(Build.FINGERPRINT);
+            int count = 0;
+            for (CameraCapabilities capabilities : sCache) {
+                if (capabilities != null) count++;
+            }
+            out.writeInt(count);
+            for (int i = 0; i < sCache.length; i++) {
+                if (sCache[i] == null) continue;
+                out.writeInt(i);
+                sCache[i].writeTo(out);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(sFile)) throw new IOException("rename failed");
+        } catch (IOException e) {
+            Log.w(TAG, "fail to write the capabilities", e);
+            temp.delete();
+        } finally {
+            Util.closeSilently(out);
+        }
+    }
+
+    private static List<String> readList(DataInputStream in)
+            throws IOException {
+        int size = in.readInt();
+        if (size < 0) return null;
+        ArrayList<String> list = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(in.readUTF());
+        }
+        return list;
+    }
+
+    private static void writeList(DataOutputStream out, List<String> list)
+            throws IOException {
+        if (list == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(list.size());
+        for (String value : list) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static List<String> sizeListToStringList(List<Size> sizes) {
+        if (sizes == null) return null;
+        ArrayList<String> list = new ArrayList<String>();
+        for (Size size : sizes) {
+            list.add(String.format("%dx%d", size.width, size.height));
+        }
+        return list;
+    }
+}
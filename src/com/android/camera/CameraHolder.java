@@ -41,22 +41,42 @@ import java.io.IOException;
  *
  * <p>This is used in switching between {@code Camera} and {@code VideoCamera}
  * activities.
+ *
+ * <p>To make switching between the front and back cameras fast, the other
+ * cameras can be opened ahead with {@code preopen()} and are then held on
+ * standby until they are opened or {@code releaseStandby()} is called. This
+ * only works if the hardware can open the cameras at the same time; the
+ * first failure turns it off for the rest of the process.
  */
 public class CameraHolder {
     private static final String TAG = "CameraHolder";
-    private android.hardware.Camera mCameraDevice;
     private long mKeepBeforeTime = 0;  // Keep the Camera before this time.
     private final Handler mHandler;
     private int mUsers = 0;  // number of open() - number of release()
     private int mNumberOfCameras;
-    private int mCameraId = -1;
+    private int mCameraId = -1;  // The camera in use or being kept.
     private CameraInfo[] mInfo;
 
+    // The open devices, indexed by camera id. All but mCameraId are on
+    // standby.
+    private android.hardware.Camera[] mDevices;
+
+    // Set by standby(): the camera being released stays open on standby.
+    private boolean mStandbyOnRelease;
+
+    private static final int CONCURRENT_UNKNOWN = 0;
+    private static final int CONCURRENT_SUPPORTED = 1;
+    private static final int CONCURRENT_UNSUPPORTED = 2;
+    private int mConcurrentOpen = CONCURRENT_UNKNOWN;
+
+    // The camera being opened by preopenDevice(), or -1.
+    private int mPreopeningId = -1;
+
     // We store the camera parameters when we actually open the device,
     // so we can restore them in the subsequent open() requests by the user.
     // This prevents the parameters set by the Camera activity used by
-    // the VideoCamera activity inadvertently.
-    private Parameters mParameters;
+    // the VideoCamera activity inadvertently. They are kept per camera id.
+    private Parameters[] mParameters;
 
     // Use a singleton.
     private static CameraHolder sHolder;
@@ -83,7 +103,10 @@ public class CameraHolder {
                         // there is a chance that this message has been handled
                         // before being removed. So, we need to add a check
                         // here:
-                        if (CameraHolder.this.mUsers == 0) releaseCamera();
+                        if (CameraHolder.this.mUsers == 0
+                                && CameraHolder.this.mCameraId != -1) {
+                            releaseCamera();
+                        }
                     }
                     break;
             }
@@ -100,6 +123,8 @@ public class CameraHolder {
             mInfo[i] = new CameraInfo();
             android.hardware.Camera.getCameraInfo(i, mInfo[i]);
         }
+        mDevices = new android.hardware.Camera[mNumberOfCameras];
+        mParameters = new Parameters[mNumberOfCameras];
     }
 
     public int getNumberOfCameras() {
@@ -113,34 +138,166 @@ public class CameraHolder {
     public synchronized android.hardware.Camera open(int cameraId)
             throws CameraHardwareException {
         Assert(mUsers == 0);
-        if (mCameraDevice != null && mCameraId != cameraId) {
-            mCameraDevice.release();
-            mCameraDevice = null;
+        waitForPreopen();
+        if (mCameraId != -1 && mCameraId != cameraId) {
+            // The kept camera stays open on standby if the hardware allows.
+            if (mConcurrentOpen != CONCURRENT_SUPPORTED) {
+                closeDevice(mCameraId);
+            }
             mCameraId = -1;
         }
-        if (mCameraDevice == null) {
-            try {
-                Log.v(TAG, "open camera " + cameraId);
-                mCameraDevice = android.hardware.Camera.open(cameraId);
-                mCameraId = cameraId;
-            } catch (RuntimeException e) {
-                Log.e(TAG, "fail to connect Camera", e);
-                throw new CameraHardwareException(e);
-            }
-            mParameters = mCameraDevice.getParameters();
+        android.hardware.Camera device = mDevices[cameraId];
+        if (device == null) {
+            device = openDevice(cameraId);
+            mParameters[cameraId] = device.getParameters();
         } else {
             try {
-                mCameraDevice.reconnect();
+                device.reconnect();
             } catch (IOException e) {
                 Log.e(TAG, "reconnect failed.");
                 throw new CameraHardwareException(e);
             }
-            mCameraDevice.setParameters(mParameters);
+            device.setParameters(mParameters[cameraId]);
         }
+        mCameraId = cameraId;
         ++mUsers;
         mHandler.removeMessages(RELEASE_CAMERA);
         mKeepBeforeTime = 0;
-        return mCameraDevice;
+        StartupTrace.mark(StartupTrace.CAMERA_OPEN);
+        return device;
+    }
+
+    // Opens the device. If it fails while other cameras are on standby, they
+    // are closed and the open is tried again.
+    private android.hardware.Camera openDevice(int cameraId)
+            throws CameraHardwareException {
+        try {
+            Log.v(TAG, "open camera " + cameraId);
+            mDevices[cameraId] = android.hardware.Camera.open(cameraId);
+            return mDevices[cameraId];
+        } catch (RuntimeException e) {
+            if (!closeStandbyDevices()) {
+                Log.e(TAG, "fail to connect Camera", e);
+                throw new CameraHardwareException(e);
+            }
+            Log.w(TAG, "cannot open cameras concurrently", e);
+            mConcurrentOpen = CONCURRENT_UNSUPPORTED;
+        }
+        try {
+            mDevices[cameraId] = android.hardware.Camera.open(cameraId);
+            return mDevices[cameraId];
+        } catch (RuntimeException e) {
+            Log.e(TAG, "fail to connect Camera", e);
+            throw new CameraHardwareException(e);
+        }
+    }
+
+    /**
+     * Opens the camera in the background and holds it on standby, so a
+     * following {@code open()} of it is cheap. Nothing is done if no camera
+     * is in use or the hardware cannot open the cameras concurrently.
+     */
+    public void preopen(final int cameraId) {
+        new Thread("CameraPreopen") {
+            @Override
+            public void run() {
+                // The thread has no looper, so the callbacks of the device
+                // go to the main thread as if it were opened there.
+                preopenDevice(cameraId);
+            }
+        }.start();
+    }
+
+    // The device is opened without holding the lock, so open() and
+    // release() in the main thread don't wait for the hardware. It is
+    // published only if a camera is still in use and nobody opened this one
+    // meanwhile.
+    private void preopenDevice(int cameraId) {
+        synchronized (this) {
+            if (mUsers == 0 || mDevices[cameraId] != null
+                    || mPreopeningId != -1
+                    || mConcurrentOpen == CONCURRENT_UNSUPPORTED) {
+                return;
+            }
+            mPreopeningId = cameraId;
+        }
+
+        android.hardware.Camera device = null;
+        Parameters parameters = null;
+        try {
+            Log.v(TAG, "preopen camera " + cameraId);
+            device = android.hardware.Camera.open(cameraId);
+            parameters = device.getParameters();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "cannot open cameras concurrently", e);
+            if (device != null) {
+                device.release();
+                device = null;
+            }
+        }
+
+        android.hardware.Camera unused = null;
+        synchronized (this) {
+            mPreopeningId = -1;
+            notifyAll();
+            if (device == null) {
+                mConcurrentOpen = CONCURRENT_UNSUPPORTED;
+            } else if (mUsers == 0 || mDevices[cameraId] != null) {
+                unused = device;
+            } else {
+                mDevices[cameraId] = device;
+                mParameters[cameraId] = parameters;
+                mConcurrentOpen = CONCURRENT_SUPPORTED;
+            }
+        }
+        if (unused != null) {
+            Log.v(TAG, "close preopened camera " + cameraId);
+            unused.release();
+        }
+    }
+
+    // Waits until preopenDevice() is done with the hardware, so the device
+    // it opens can be reused or closed to make room.
+    private void waitForPreopen() {
+        while (mPreopeningId != -1) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                // ignore.
+            }
+        }
+    }
+
+    /**
+     * Keeps the camera in use open on standby when it is released, so
+     * switching back to it is cheap. It is closed as usual if the hardware
+     * is not known to open the cameras concurrently.
+     */
+    public synchronized void standby() {
+        mStandbyOnRelease = true;
+    }
+
+    /** Closes the cameras on standby. */
+    public synchronized void releaseStandby() {
+        closeStandbyDevices();
+    }
+
+    // Returns true if any device was closed.
+    private boolean closeStandbyDevices() {
+        boolean closed = false;
+        for (int i = 0; i < mNumberOfCameras; i++) {
+            if (i != mCameraId && mDevices[i] != null) {
+                closeDevice(i);
+                closed = true;
+            }
+        }
+        return closed;
+    }
+
+    private void closeDevice(int cameraId) {
+        Log.v(TAG, "close camera " + cameraId);
+        mDevices[cameraId].release();
+        mDevices[cameraId] = null;
     }
 
     /**
@@ -163,21 +320,23 @@ public class CameraHolder {
     public synchronized void release() {
         Assert(mUsers == 1);
         --mUsers;
-        mCameraDevice.stopPreview();
+        mDevices[mCameraId].stopPreview();
         releaseCamera();
     }
 
     private synchronized void releaseCamera() {
         Assert(mUsers == 0);
-        Assert(mCameraDevice != null);
+        Assert(mDevices[mCameraId] != null);
         long now = System.currentTimeMillis();
         if (now < mKeepBeforeTime) {
             mHandler.sendEmptyMessageDelayed(RELEASE_CAMERA,
                     mKeepBeforeTime - now);
             return;
         }
-        mCameraDevice.release();
-        mCameraDevice = null;
+        boolean standby = mStandbyOnRelease
+                && mConcurrentOpen == CONCURRENT_SUPPORTED;
+        mStandbyOnRelease = false;
+        if (!standby) closeDevice(mCameraId);
         mCameraId = -1;
     }
 
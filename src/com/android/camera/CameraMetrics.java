@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide registry of latency histograms and counters.
+ *
+ * <p>Recording never blocks: the histograms and counters are lock-free and
+ * the registry lookup is a {@code ConcurrentHashMap} read once the metric
+ * exists. {@link #dump(PrintWriter)} prints a human-readable report and
+ * {@link #writeSnapshot(String)} writes the same numbers as
+ * {@code java.util.Properties} so test tools can compare builds.
+ */
+public class CameraMetrics {
+    private static final String TAG = "CameraMetrics";
+
+    // Capture stages. Shutter, raw, postview and jpeg are measured from the
+    // takePicture() call or the shutter callback, the others are the time
+    // spent in the stage itself.
+    public static final String STAGE_FOCUS = "focus";
+    public static final String STAGE_SHUTTER = "shutter";
+    public static final String STAGE_RAW = "raw";
+    public static final String STAGE_POSTVIEW = "postview";
+    public static final String STAGE_JPEG = "jpeg";
+    public static final String STAGE_SAVE = "save";
+    public static final String STAGE_DB_INSERT = "db_insert";
+    public static final String STAGE_THUMBNAIL = "thumbnail";
+
+    public static final String COUNTER_PICTURES = "pictures";
+    public static final String COUNTER_SAVE_FAILURES = "save_failures";
+    public static final String COUNTER_BITMAP_POOL_HITS = "bitmap_pool_hits";
+    public static final String COUNTER_BITMAP_POOL_MISSES =
+            "bitmap_pool_misses";
+    public static final String COUNTER_BITMAP_POOL_EVICTIONS =
+            "bitmap_pool_evictions";
+
+    private final ConcurrentHashMap<String, LatencyHistogram> mHistograms =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentHashMap<String, AtomicLong> mCounters =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    private static CameraMetrics sInstance;
+
+    public static synchronized CameraMetrics instance() {
+        if (sInstance == null) {
+            sInstance = new CameraMetrics();
+        }
+        return sInstance;
+    }
+
+    private CameraMetrics() {
+    }
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            mHistograms.putIfAbsent(name, new LatencyHistogram(name));
+            histogram = mHistograms.get(name);
+        }
+        return histogram;
+    }
+
+    public AtomicLong counter(String name) {
+        AtomicLong counter = mCounters.get(name);
+        if (counter == null) {
+            mCounters.putIfAbsent(name, new AtomicLong());
+            counter = mCounters.get(name);
+        }
+        return counter;
+    }
+
+    public void record(String stage, long millis) {
+        histogram(stage).record(millis);
+    }
+
+    public void increment(String counter) {
+        counter(counter).incrementAndGet();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms.values()) {
+            histogram.reset();
+        }
+        for (AtomicLong counter : mCounters.values()) {
+            counter.set(0);
+        }
+    }
+
+    /** Prints the metrics in the style of dumpsys. */
+    public void dump(PrintWriter pw) {
+        pw.println("Camera metrics:");
+        for (LatencyHistogram h : sortedHistograms().values()) {
+            pw.println(String.format(
+                    "  %-12s count=%d mean=%dms p50=%dms p95=%dms p99=%dms"
+                    + " max=%dms", h.getName(), h.getCount(), h.getMean(),
+                    h.getPercentile(50), h.getPercentile(95),
+                    h.getPercentile(99), h.getMax()));
+        }
+        for (Map.Entry<String, AtomicLong> e : sortedCounters().entrySet()) {
+            pw.println(String.format("  %-12s %d", e.getKey(),
+                    e.getValue().get()));
+        }
+        pw.flush();
+    }
+
+    public void log() {
+        StringWriter s = new StringWriter();
+        dump(new PrintWriter(s));
+        Log.v(TAG, s.toString());
+    }
+
+    /**
+     * Writes the metrics as "name.field=value" lines. The file is written to
+     * a temporary file first and renamed, so readers never see a partial
+     * snapshot. Returns true for success.
+     */
+    public boolean writeSnapshot(String filePath) {
+        File file = new File(filePath);
+        File temp = new File(filePath + ".tmp");
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(temp);
+            PrintWriter pw = new PrintWriter(writer);
+            for (LatencyHistogram h : sortedHistograms().values()) {
+                String name = h.getName();
+                pw.println(name + ".count=" + h.getCount());
+                pw.println(name + ".mean=" + h.getMean());
+                pw.println(name + ".p50=" + h.getPercentile(50));
+                pw.println(name + ".p95=" + h.getPercentile(95));
+                pw.println(name + ".p99=" + h.getPercentile(99));
+                pw.println(name + ".max=" + h.getMax());
+            }
+            for (Map.Entry<String, AtomicLong> e
+                    : sortedCounters().entrySet()) {
+                pw.println(e.getKey() + "=" + e.getValue().get());
+            }
+            pw.flush();
+            if (pw.checkError()) throw new IOException("write failed");
+        } catch (IOException e) {
+            Log.w(TAG, "fail to write metrics snapshot", e);
+            temp.delete();
+            return false;
+        } finally {
+            Util.closeSilently(writer);
+        }
+        return temp.renameTo(file);
+    }
+
+    private TreeMap<String, LatencyHistogram> sortedHistograms() {
+        return new TreeMap<String, LatencyHistogram>(mHistograms);
+    }
+
+    private TreeMap<String, AtomicLong> sortedCounters() {
+        return new TreeMap<String, AtomicLong>(mCounters);
+    }
+}
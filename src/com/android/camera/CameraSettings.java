@@ -160,6 +160,8 @@ public class CameraSettings {
     }
 
     private void initPreference(PreferenceGroup group) {
+        CameraCapabilities capabilities =
+                CameraCapabilities.get(mContext, mCameraId, mParameters);
         ListPreference videoQuality = group.findPreference(KEY_VIDEO_QUALITY);
         ListPreference pictureSize = group.findPreference(KEY_PICTURE_SIZE);
         ListPreference whiteBalance =  group.findPreference(KEY_WHITE_BALANCE);
@@ -192,7 +194,7 @@ public class CameraSettings {
                     break;
                 }
             }
-            if (!isHDCapable(mCameraId)) {
+            if (!capabilities.mHDCapable) {
                 List<String> supported = new ArrayList<String>();
                 for (CharSequence value : values) {
                     if (!VIDEO_QUALITY_HD.equals(value) &&
@@ -215,7 +217,8 @@ public class CameraSettings {
 
         // Filter out unsupported settings / options
         if (pictureSize != null) {
-            final List<String> pictureSizes = sizeListToStringList(mParameters.getSupportedPictureSizes());
+            final List<String> pictureSizes =
+                    new ArrayList<String>(capabilities.mPictureSizes);
             final String filteredSizes = mContext.getResources().getString(R.string.filtered_pictureSizes);
             if (filteredSizes != null && filteredSizes.length() > 0) {
                 pictureSizes.removeAll(Arrays.asList(filteredSizes.split(",")));
@@ -235,12 +238,12 @@ public class CameraSettings {
                 }
             } else {
                 filterUnsupportedOptions(group,
-                        colorEffect, mParameters.getSupportedColorEffects());
+                        colorEffect, capabilities.mColorEffects);
             }
         }
         if (sceneMode != null) {
             filterUnsupportedOptions(group,
-                    sceneMode, mParameters.getSupportedSceneModes());
+                    sceneMode, capabilities.mSceneModes);
         }
         if (flashMode != null) {
             filterUnsupportedOptions(group,
@@ -251,8 +254,10 @@ public class CameraSettings {
             if (isFrontFacingCamera() && !mContext.getResources().getBoolean(R.bool.ffc_canFocus)) {
                 filterUnsupportedOptions(group, focusMode, new ArrayList<String>());
             } else {
-                List<String> focusModes = mParameters.getSupportedFocusModes();
-                if (checkTouchFocus()) {
+                List<String> focusModes = new ArrayList<String>();
+                List<String> supported = mParameters.getSupportedFocusModes();
+                if (supported != null) focusModes.addAll(supported);
+                if (useTouchFocus(capabilities)) {
                     focusModes.add(FOCUS_MODE_TOUCH);
                 }
                 filterUnsupportedOptions(group, focusMode, focusModes);
@@ -263,7 +268,9 @@ public class CameraSettings {
             filterUnsupportedOptions(group,
                     videoFlashMode, mParameters.getSupportedFlashModes());
         }
-        if (exposure != null) buildExposureCompensation(group, exposure);
+        if (exposure != null) {
+            buildExposureCompensation(group, exposure, capabilities);
+        }
         if (cameraId != null) buildCameraId(group, cameraId);
 /*
         if (iso != null) {
@@ -285,9 +292,18 @@ public class CameraSettings {
 */
     }
 
-    private boolean checkTouchFocus() {
-        if (mParameters.get("taking-picture-zoom") != null ||
-            mParameters.get("touch-focus") != null) {
+    private static boolean useTouchFocus(CameraCapabilities capabilities) {
+        sTouchFocusParameter = capabilities.mTouchFocusParameter;
+        sTouchFocusNeedsRect = capabilities.mTouchFocusNeedsRect;
+        return capabilities.mTouchFocusMode;
+    }
+
+    // Finds the touch focus parameter of the driver. Returns true if the
+    // "touch" focus mode should be offered.
+    static boolean checkTouchFocus(Parameters parameters,
+            String[] parameterName, boolean[] needsRect) {
+        if (parameters.get("taking-picture-zoom") != null ||
+            parameters.get("touch-focus") != null) {
             /* HTC camera, which always have touch-to-focus support. Unfortunately
              * the touch-to-focus parameter 'touch-focus' is not present at initialization
              * time, which is why we need to resort to another HTC specific parameter
@@ -295,34 +311,34 @@ public class CameraSettings {
              * The 'touch-focus' parameter is checked anyway so that libcamera.so wrappers
              * may implement the HTC's inteface without implenting its quirk.
              */
-            sTouchFocusParameter = "touch-focus";
-            sTouchFocusNeedsRect = false;
+            parameterName[0] = "touch-focus";
+            needsRect[0] = false;
             return true;
         }
-        if (mParameters.get("nv-areas-to-focus") != null) {
+        if (parameters.get("nv-areas-to-focus") != null) {
             /* Nvidia camera with touch-to-focus support */
-            sTouchFocusParameter = "nv-areas-to-focus";
-            sTouchFocusNeedsRect = true;
+            parameterName[0] = "nv-areas-to-focus";
+            needsRect[0] = true;
             return true;
         }
-        if (mParameters.get("mot-areas-to-focus") != null ||
-            mParameters.get("mot-max-burst-size") != null) {
+        if (parameters.get("mot-areas-to-focus") != null ||
+            parameters.get("mot-max-burst-size") != null) {
             /* Motorola camera with touch-to-focus support.
              * Here we also check for Motorola-specific mot-max-burst-size, because
              * on some of their libcameras, something similar to the HTC situation
              * explained earlier happens too.
              */
-            sTouchFocusParameter = "mot-areas-to-focus";
-            sTouchFocusNeedsRect = true;
+            parameterName[0] = "mot-areas-to-focus";
+            needsRect[0] = true;
             return true;
         }
-        if (mParameters.get("camera-name") != null &&
-            mParameters.get("s3d-supported") != null) {
+        if (parameters.get("camera-name") != null &&
+            parameters.get("s3d-supported") != null) {
             /* Similar hack to HTC, for OMAP4. These do export the
              * "touch" focus mode, but they don't have the param
              * listed until it's used */
-            sTouchFocusParameter = "touch-position";
-            sTouchFocusNeedsRect = false;
+            parameterName[0] = "touch-position";
+            needsRect[0] = false;
             /* yes, false. If it isn't listed in the focus modes, it
              * isn't supported */
             return false;
@@ -339,15 +355,15 @@ public class CameraSettings {
         return sTouchFocusNeedsRect;
     }
 
-    private void buildExposureCompensation(
-            PreferenceGroup group, ListPreference exposure) {
-        int max = mParameters.getMaxExposureCompensation();
-        int min = mParameters.getMinExposureCompensation();
+    private void buildExposureCompensation(PreferenceGroup group,
+            ListPreference exposure, CameraCapabilities capabilities) {
+        int max = capabilities.mMaxExposureCompensation;
+        int min = capabilities.mMinExposureCompensation;
         if (max == 0 && min == 0) {
             removePreference(group, exposure.getKey());
             return;
         }
-        float step = mParameters.getExposureCompensationStep();
+        float step = capabilities.mExposureCompensationStep;
 
         // show only integer values for exposure compensation
         int maxValue = (int) Math.floor(max * step);
@@ -441,14 +457,6 @@ public class CameraSettings {
         }
     }
 
-    private static List<String> sizeListToStringList(List<Size> sizes) {
-        ArrayList<String> list = new ArrayList<String>();
-        for (Size size : sizes) {
-            list.add(String.format("%dx%d", size.width, size.height));
-        }
-        return list;
-    }
-
     public static void upgradeLocalPreferences(SharedPreferences pref) {
         int version;
         try {
@@ -517,6 +525,14 @@ public class CameraSettings {
     }
 
     public static final boolean isHDCapable(int cameraId) {
+        CameraCapabilities capabilities =
+                CameraCapabilities.getCached(cameraId);
+        return capabilities != null
+                ? capabilities.mHDCapable
+                : queryHDCapable(cameraId);
+    }
+
+    static boolean queryHDCapable(int cameraId) {
         boolean ret = false;
         try {
             ret = CamcorderProfile.get(cameraId, CamcorderProfile.QUALITY_HD) != null;
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+
+/**
+ * A small persistent index of the most recent captures, so the thumbnail of
+ * the last picture or video can be shown without querying the media
+ * provider.
+ *
+ * <p>The index is a memory-mapped file holding a ring of fixed-size slots.
+ * It lives in the private files directory rather than on the external
+ * storage, so the mapping never pins the card when it is unmounted.
+ * Each slot has the uri, date, type and orientation of one capture and the
+ * offset of its thumbnail (a small JPEG) in the thumbnail area of the file.
+ * A slot is written with its sequence number cleared and the sequence
+ * number is set last, with a checksum over the rest, so a slot torn by a
+ * crash is ignored. Nothing is checked against the media provider here:
+ * callers verify the uri of an entry when they use it and remove() it if it
+ * is gone.
+ */
+public class CaptureIndex {
+    private static final String TAG = "CaptureIndex";
+
+    public static final int TYPE_IMAGE = 1;
+    public static final int TYPE_VIDEO = 2;
+
+    private static final String FILE_NAME = "capture_index";
+    private static final int MAGIC = 0xCA971DE8;
+    private static final int VERSION = 1;
+
+    private static final int SLOT_COUNT = 8;
+    private static final int MAX_URI_LENGTH = 128;
+    private static final int MAX_THUMBNAIL_SIZE = 16 * 1024;
+
+    // magic, version, slot count, reserved
+    private static final int HEADER_SIZE = 16;
+    // sequence, date, type, orientation, thumbnail offset, thumbnail length,
+    // uri length, checksum, uri
+    private static final int SLOT_SIZE = 8 + 8 + 4 * 6 + MAX_URI_LENGTH;
+    private static final int THUMBNAIL_AREA =
+            HEADER_SIZE + SLOT_COUNT * SLOT_SIZE;
+    private static final int FILE_SIZE =
+            THUMBNAIL_AREA + SLOT_COUNT * MAX_THUMBNAIL_SIZE;
+
+    private static CaptureIndex sInstance;
+
+    private final String mPath;
+    private MappedByteBuffer mBuffer;
+    private boolean mOpenFailed;
+    private long mSequence;
+
+    /** An entry of the index. */
+    public static class Entry {
+        public final Uri mUri;
+        public final long mDateTaken;
+        public final int mType;
+        public final int mOrientation;
+        private final byte[] mThumbnail;
+
+        private Entry(Uri uri, long dateTaken, int type, int orientation,
+                byte[] thumbnail) {
+            mUri = uri;
+            mDateTaken = dateTaken;
+            mType = type;
+            mOrientation = orientation;
+            mThumbnail = thumbnail;
+        }
+
+        public boolean hasThumbnail() {
+            return mThumbnail != null;
+        }
+
+        // Returns the thumbnail, which is upright, or null.
+        public Bitmap decodeThumbnail() {
+            if (mThumbnail == null) return null;
+            try {
+                return BitmapFactory.decodeByteArray(
+                        mThumbnail, 0, mThumbnail.length);
+            } catch (OutOfMemoryError ex) {
+                Log.e(TAG, "Got oom exception ", ex);
+                return null;
+            }
+        }
+    }
+
+    public static synchronized CaptureIndex instance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CaptureIndex(
+                    new File(context.getFilesDir(), FILE_NAME).getPath());
+        }
+        return sInstance;
+    }
+
+    public CaptureIndex(String path) {
+        mPath = path;
+    }
+
+    /**
+     * Maps the file if it is not mapped yet. This can be called in a
+     * background thread during the startup.
+     */
+    public synchronized void preload() {
+        open();
+    }
+
+    // Maps the file, formatting it if it is new or of another version.
+    private boolean open() {
+        if (mBuffer != null) return true;
+        if (mOpenFailed) return false;
+        RandomAccessFile file = null;
+        try {
+            File f = new File(mPath);
+            File dir = f.getParentFile();
+            if (dir != null && !dir.exists()) dir.mkdirs();
+            file = new RandomAccessFile(f, "rw");
+            boolean fresh = file.length() != FILE_SIZE;
+            if (fresh) file.setLength(FILE_SIZE);
+            // The mapping stays valid after the file is closed.
+            mBuffer = file.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            if (fresh || mBuffer.getInt(0) != MAGIC
+                    || mBuffer.getInt(4) != VERSION
+                    || mBuffer.getInt(8) != SLOT_COUNT) {
+                format();
+            }
+            for (int i = 0; i < SLOT_COUNT; ++i) {
+                mSequence = Math.max(mSequence, mBuffer.getLong(slot(i)));
+            }
+            return true;
+        } catch (IOException ex) {
+            Log.w(TAG, "cannot open " + mPath, ex);
+            mBuffer = null;
+            mOpenFailed = true;
+            return false;
+        } finally {
+            Util.closeSilently(file);
+        }
+    }
+
+    private void format() {
+        for (int i = 0; i < SLOT_COUNT; ++i) mBuffer.putLong(slot(i), 0);
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mBuffer.putInt(8, SLOT_COUNT);
+        mBuffer.putInt(12, 0);
+    }
+
+    private static int slot(int i) {
+        return HEADER_SIZE + i * SLOT_SIZE;
+    }
+
+    /**
+     * Adds a capture. The thumbnail is stored as a JPEG; it is left out if
+     * it does not fit in a slot.
+     */
+    public void add(int type, Uri uri, long dateTaken, int orientation,
+            Bitmap thumbnail) {
+        byte[] data = null;
+        if (thumbnail != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8 * 1024);
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            data = out.toByteArray();
+        }
+        add(type, uri, dateTaken, orientation, data);
+    }
+
+    public synchronized void add(int type, Uri uri, long dateTaken,
+            int orientation, byte[] thumbnail) {
+        byte[] uriBytes = uri.toString().getBytes();
+        if (uriBytes.length > MAX_URI_LENGTH || !open()) return;
+        if (thumbnail != null && thumbnail.length > MAX_THUMBNAIL_SIZE) {
+            thumbnail = null;
+        }
+        long sequence = mSequence + 1;
+        int i = (int) (sequence % SLOT_COUNT);
+        int offset = slot(i);
+        int thumbnailOffset = THUMBNAIL_AREA + i * MAX_THUMBNAIL_SIZE;
+        int thumbnailLength = thumbnail == null ? 0 : thumbnail.length;
+
+        ByteBuffer buffer = mBuffer;
+        buffer.putLong(offset, 0);
+        buffer.putLong(offset + 8, dateTaken);
+        buffer.putInt(offset + 16, type);
+        buffer.putInt(offset + 20, orientation);
+        buffer.putInt(offset + 24, thumbnailOffset);
+        buffer.putInt(offset + 28, thumbnailLength);
+        buffer.putInt(offset + 32, uriBytes.length);
+        put(offset + 40, uriBytes);
+        if (thumbnail != null) put(thumbnailOffset, thumbnail);
+        buffer.putInt(offset + 36, checksum(offset));
+        buffer.putLong(offset, sequence);
+        mSequence = sequence;
+    }
+
+    /** Returns the most recent capture of the given type, or null. */
+    public synchronized Entry getLatest(int type) {
+        if (!open()) return null;
+        int latest = -1;
+        long latestSequence = 0;
+        for (int i = 0; i < SLOT_COUNT; ++i) {
+            int offset = slot(i);
+            long sequence = mBuffer.getLong(offset);
+            if (sequence > latestSequence
+                    && mBuffer.getInt(offset + 16) == type
+                    && isValid(offset)) {
+                latest = offset;
+                latestSequence = sequence;
+            }
+        }
+        if (latest < 0) return null;
+
+        Uri uri = Uri.parse(new String(
+                get(latest + 40, mBuffer.getInt(latest + 32))));
+        int thumbnailLength = mBuffer.getInt(latest + 28);
+        byte[] thumbnail = thumbnailLength == 0
+                ? null
+                : get(mBuffer.getInt(latest + 24), thumbnailLength);
+        return new Entry(uri, mBuffer.getLong(latest + 8), type,
+                mBuffer.getInt(latest + 20), thumbnail);
+    }
+
+    /** Removes the captures with the given uri, e.g. after it is deleted. */
+    public synchronized void remove(Uri uri) {
+        if (!open()) return;
+        byte[] uriBytes = uri.toString().getBytes();
+        for (int i = 0; i < SLOT_COUNT; ++i) {
+            int offset = slot(i);
+            if (mBuffer.getLong(offset) == 0
+                    || mBuffer.getInt(offset + 32) != uriBytes.length) {
+                continue;
+            }
+            if (Arrays.equals(
+                    uriBytes, get(offset + 40, uriBytes.length))) {
+                mBuffer.putLong(offset, 0);
+            }
+        }
+    }
+
+    // Writes the changes to the storage. The kernel writes them back anyway,
+    // this is only to bound what a power loss can cost.
+    public synchronized void flush() {
+        if (mBuffer != null) mBuffer.force();
+    }
+
+    private boolean isValid(int offset) {
+        int uriLength = mBuffer.getInt(offset + 32);
+        int thumbnailOffset = mBuffer.getInt(offset + 24);
+        int thumbnailLength = mBuffer.getInt(offset + 28);
+        if (uriLength <= 0 || uriLength > MAX_URI_LENGTH
+                || thumbnailLength < 0
+                || thumbnailLength > MAX_THUMBNAIL_SIZE
+                || thumbnailOffset < THUMBNAIL_AREA
+                || thumbnailOffset + thumbnailLength > FILE_SIZE) {
+            return false;
+        }
+        return mBuffer.getInt(offset + 36) == checksum(offset);
+    }
+
+    // The checksum of a slot covers the fields after the sequence number,
+    // the uri and the thumbnail.
+    private int checksum(int offset) {
+        Adler32 adler = new Adler32();
+        adler.update(get(offset + 8, 28));
+        adler.update(get(offset + 40, mBuffer.getInt(offset + 32)));
+        int thumbnailLength = mBuffer.getInt(offset + 28);
+        if (thumbnailLength > 0) {
+            adler.update(get(mBuffer.getInt(offset + 24), thumbnailLength));
+        }
+        return (int) adler.getValue();
+    }
+
+    private byte[] get(int offset, int length) {
+        byte[] data = new byte[length];
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset);
+        buffer.get(data);
+        return data;
+    }
+
+    private void put(int offset, byte[] data) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset);
+        buffer.put(data);
+    }
+}
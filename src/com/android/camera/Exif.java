@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import com.android.camera.exif.ExifParser;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Reads the EXIF header of a JPEG held in memory. The data is parsed in
+ * place by {@link ExifParser}, so neither the orientation nor the embedded
+ * thumbnail requires a copy of the JPEG or a round trip through a file.
+ */
+public class Exif {
+    private static final String TAG = "CameraExif";
+
+    private Exif() {
+    }
+
+    // Returns the degrees in clockwise. Values are 0, 90, 180, or 270.
+    public static int getOrientation(byte[] jpeg) {
+        if (jpeg == null) return 0;
+        ExifParser parser = new ExifParser();
+        return parse(parser, jpeg) ? parser.getDegrees() : 0;
+    }
+
+    /**
+     * Decodes the thumbnail embedded in the EXIF header of {@code jpeg}.
+     * Returns {@code null} if there is no thumbnail or it cannot be decoded.
+     * The returned bitmap is not rotated.
+     */
+    public static Bitmap getThumbnail(byte[] jpeg) {
+        if (jpeg == null) return null;
+        ExifParser parser = new ExifParser();
+        if (!parse(parser, jpeg) || parser.getThumbnailLength() <= 0) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeByteArray(jpeg,
+                    parser.getThumbnailOffset(), parser.getThumbnailLength());
+        } catch (OutOfMemoryError ex) {
+            Log.e(TAG, "Got oom exception ", ex);
+            return null;
+        } catch (RuntimeException ex) {
+            Log.w(TAG, "Cannot decode the EXIF thumbnail", ex);
+            return null;
+        }
+    }
+
+    // The JPEGs come straight from the camera driver; a malformed header
+    // must not take down the thread that saves them.
+    private static boolean parse(ExifParser parser, byte[] jpeg) {
+        try {
+            return parser.parse(jpeg);
+        } catch (RuntimeException ex) {
+            Log.w(TAG, "Invalid EXIF header", ex);
+            return false;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.camera;
 
+import com.android.camera.exif.ExifParser;
 import com.android.camera.gallery.BaseImageList;
 import com.android.camera.gallery.IImage;
 import com.android.camera.gallery.IImageList;
@@ -169,6 +170,8 @@ public class ImageManager {
         // otherwise we may not be able to generate thumbnail in time.
         OutputStream outputStream = null;
         String filePath = directory + "/" + filename;
+        ExifParser exif = null;
+        long saveStart = System.currentTimeMillis();
         try {
             File dir = new File(directory);
             if (!dir.exists()) dir.mkdirs();
@@ -179,7 +182,10 @@ public class ImageManager {
                 degree[0] = 0;
             } else {
                 outputStream.write(jpegData);
-                degree[0] = getExifOrientation(filePath);
+                // Read the header from memory rather than opening the file
+                // we just wrote again.
+                exif = new ExifParser();
+                degree[0] = exif.parse(jpegData) ? exif.getDegrees() : 0;
             }
         } catch (FileNotFoundException ex) {
             Log.w(TAG, ex);
@@ -191,8 +197,14 @@ public class ImageManager {
             Util.closeSilently(outputStream);
         }
 
-        // Read back the compressed file size.
-        long size = new File(directory, filename).length();
+        CameraMetrics.instance().record(CameraMetrics.STAGE_SAVE,
+                System.currentTimeMillis() - saveStart);
+
+        // The size of the JPEG is known; only a compressed bitmap has to be
+        // read back.
+        long size = (jpegData != null && source == null)
+                ? jpegData.length
+                : new File(directory, filename).length();
 
         ContentValues values = new ContentValues(9);
         values.put(Images.Media.TITLE, title);
@@ -210,9 +222,16 @@ public class ImageManager {
         if (location != null) {
             values.put(Images.Media.LATITUDE, location.getLatitude());
             values.put(Images.Media.LONGITUDE, location.getLongitude());
+        } else if (exif != null && exif.hasLatLong()) {
+            values.put(Images.Media.LATITUDE, exif.getLatitude());
+            values.put(Images.Media.LONGITUDE, exif.getLongitude());
         }
 
-        return cr.insert(STORAGE_URI, values);
+        long insertStart = System.currentTimeMillis();
+        Uri uri = cr.insert(STORAGE_URI, values);
+        CameraMetrics.instance().record(CameraMetrics.STAGE_DB_INSERT,
+                System.currentTimeMillis() - insertStart);
+        return uri;
     }
 
     public static int getExifOrientation(String filepath) {
@@ -295,6 +314,13 @@ public class ImageManager {
             return list;
         }
 
+        // The union reads the date of every row of its sublists to merge
+        // them, so read all the columns at once and serve the union from
+        // the snapshots rather than from the shared cursors.
+        for (BaseImageList sublist : l) {
+            sublist.loadSnapshot();
+        }
+
         ImageListUber uber = new ImageListUber(
                 l.toArray(new IImageList[l.size()]), sort);
         return uber;
@@ -402,6 +428,12 @@ public class ImageManager {
                "/DCIM/.thumbnails/image_last_thumb";
     }
 
+    // The prefix of the files of MiniThumbCache.
+    public static String getMiniThumbCachePath() {
+        return Environment.getExternalStorageDirectory().toString() +
+               "/DCIM/.thumbnails/camera_mini_thumbs";
+    }
+
     public static String getLastVideoThumbPath() {
         return Environment.getExternalStorageDirectory().toString() +
                "/DCIM/.thumbnails/video_last_thumb";
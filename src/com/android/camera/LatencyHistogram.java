@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with fixed buckets. Recording is lock-free so it can be
+ * done from the camera callbacks and the saver thread alike. Percentiles are
+ * reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+    // Upper bounds (inclusive) of the buckets in milliseconds. The last
+    // bucket holds everything larger.
+    private static final long[] BOUNDS = {
+            1, 2, 5, 10, 20, 50, 100, 150, 200, 300, 500, 750,
+            1000, 1500, 2000, 3000, 5000, 10000};
+
+    private final String mName;
+    private final AtomicLongArray mBuckets =
+            new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void record(long millis) {
+        if (millis < 0) return;
+        mBuckets.incrementAndGet(bucketOf(millis));
+        mCount.incrementAndGet();
+        mSum.addAndGet(millis);
+        long max = mMax.get();
+        while (millis > max && !mMax.compareAndSet(max, millis)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile
+     * (0 - 100), or 0 if nothing was recorded. Values in the overflow bucket
+     * are reported as the maximum seen.
+     */
+    public long getPercentile(int percentile) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+        long rank = (count * percentile + 99) / 100;
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; ++i) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) return Math.min(BOUNDS[i], mMax.get());
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0, n = mBuckets.length(); i < n; ++i) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    private static int bucketOf(long millis) {
+        int low = 0;
+        int high = BOUNDS.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BOUNDS[mid] < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
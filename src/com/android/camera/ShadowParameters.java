@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.camera;
+
+import android.hardware.Camera.Parameters;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds the parameters of the camera device on behalf of an activity.
+ *
+ * <p>{@code getParameters()} unflattens the whole parameter string from the
+ * driver and {@code setParameters()} flattens it and makes a driver round
+ * trip. Instead of reading the parameters back before every change, the
+ * activity keeps changing the {@link Parameters} returned by
+ * {@link #reload}, and the shadow remembers the values last committed to
+ * the device. {@link #commit} finds the keys that differ and calls
+ * {@code setParameters()} only if there are any; {@link #commitSoon}
+ * coalesces a burst of changes, like zoom steps, into one commit per
+ * preview frame.
+ *
+ * <p>The commits are counted and timed in {@link CameraMetrics}. All the
+ * methods must be called in the same thread, except that {@link #reload}
+ * and {@link #commit} may also be called during the startup before the
+ * activity is shown.
+ */
+public class ShadowParameters {
+    private static final String TAG = "ShadowParameters";
+
+    public static final String STAGE_COMMIT = "param_commit";
+    public static final String COUNTER_COMMITS = "param_commits";
+    public static final String COUNTER_SKIPPED = "param_commits_skipped";
+
+    // A preview frame at 30fps.
+    private static final long COMMIT_DELAY = 33;
+
+    private android.hardware.Camera mDevice;
+    private Parameters mParameters;
+    // The values as they were last committed to (or read from) the device.
+    private HashMap<String, String> mCommitted;
+    private boolean mCommitPending;
+
+    private final Handler mHandler = new Handler();
+    private final Runnable mCommitRunnable = new Runnable() {
+        public void run() {
+            mCommitPending = false;
+            try {
+                commit();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error setting parameters: " + e.getMessage());
+            }
+        }
+    };
+
+    /**
+     * Reads the parameters from the device. This is needed after the device
+     * is opened and when the driver may have changed some values itself.
+     * Pending changes are committed first.
+     */
+    public Parameters reload(android.hardware.Camera device) {
+        if (device == mDevice) commitIfPending();
+        mDevice = device;
+        mParameters = device.getParameters();
+        mCommitted = unflatten(mParameters.flatten());
+        return mParameters;
+    }
+
+    /** Commits the changes, then reads back the values the driver derives. */
+    public Parameters commitAndReload() {
+        commit();
+        return reload(mDevice);
+    }
+
+    /**
+     * Commits the changed keys to the device now. Returns false if nothing
+     * was changed. If the device rejects them, the parameters are read from
+     * the device again and the exception is rethrown.
+     */
+    public boolean commit() {
+        cancelPendingCommit();
+        if (mDevice == null) return false;
+        HashMap<String, String> current = unflatten(mParameters.flatten());
+        if (current.equals(mCommitted)) {
+            CameraMetrics.instance().increment(COUNTER_SKIPPED);
+            return false;
+        }
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "commit " + getDirtyKeys(mCommitted, current));
+        }
+        long start = SystemClock.uptimeMillis();
+        try {
+            mDevice.setParameters(mParameters);
+        } catch (RuntimeException e) {
+            reload(mDevice);
+            throw e;
+        } finally {
+            CameraMetrics metrics = CameraMetrics.instance();
+            metrics.record(STAGE_COMMIT, SystemClock.uptimeMillis() - start);
+            metrics.increment(COUNTER_COMMITS);
+        }
+        mCommitted = current;
+        return true;
+    }
+
+    /** Commits the changes after a preview frame, with any that follow. */
+    public void commitSoon() {
+        if (mCommitPending || mDevice == null) return;
+        mCommitPending = true;
+        mHandler.postDelayed(mCommitRunnable, COMMIT_DELAY);
+    }
+
+    private void commitIfPending() {
+        if (mCommitPending) commit();
+    }
+
+    private void cancelPendingCommit() {
+        if (!mCommitPending) return;
+        mCommitPending = false;
+        mHandler.removeCallbacks(mCommitRunnable);
+    }
+
+    /** Forgets the device when it is closed. Pending changes are dropped. */
+    public void detach() {
+        cancelPendingCommit();
+        mDevice = null;
+    }
+
+    // Returns the keys whose values differ between the two maps.
+    static ArrayList<String> getDirtyKeys(Map<String, String> committed,
+            Map<String, String> current) {
+        ArrayList<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, String> e : current.entrySet()) {
+            if (!TextUtils.equals(e.getValue(), committed.get(e.getKey()))) {
+                keys.add(e.getKey());
+            }
+        }
+        for (String key : committed.keySet()) {
+            if (!current.containsKey(key)) keys.add(key);
+        }
+        return keys;
+    }
+
+    // Splits "key=value;key=value" the same way Parameters.unflatten() does.
+    static HashMap<String, String> unflatten(String flattened) {
+        HashMap<String, String> map = new HashMap<String, String>();
+        int start = 0;
+        int length = flattened.length();
+        while (start < length) {
+            int end = flattened.indexOf(';', start);
+            if (end < 0) end = length;
+            int split = flattened.indexOf('=', start);
+            if (split >= 0 && split < end) {
+                map.put(flattened.substring(start, split),
+                        flattened.substring(split + 1, end));
+            }
+            start = end + 1;
+        }
+        return map;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the steps of an activity startup as a graph of tasks.
+ *
+ * <p>Each task names the tasks it depends on and the thread it must run in:
+ * the main thread or a background thread. A task starts as soon as its
+ * dependencies are done, so the background tasks overlap with the main
+ * thread work. The main thread tasks are run by the main thread
+ * itself while it waits in {@link #await}, in the order they were added, so
+ * the activity code keeps its usual synchronous shape.
+ *
+ * <p>The start and end of every task are recorded. When all the tasks are
+ * done, the timeline is logged and the durations are recorded in
+ * {@link CameraMetrics} as "startup.&lt;scheduler&gt;.&lt;task&gt;".
+ */
+public class StartupScheduler {
+    private static final String TAG = "StartupScheduler";
+
+    public static final int THREAD_MAIN = 0;
+    public static final int THREAD_BACKGROUND = 1;
+
+    private static final String[] THREAD_NAMES = {"main", "bg"};
+
+    private static final int BACKGROUND_THREAD_COUNT = 2;
+
+    // Shared by all the schedulers. The threads time out when idle.
+    private static final ThreadPoolExecutor sBackground =
+            new ThreadPoolExecutor(BACKGROUND_THREAD_COUNT,
+                    BACKGROUND_THREAD_COUNT, 5, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private int mCount;
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "Startup-" + mCount++);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+
+    static {
+        sBackground.allowCoreThreadTimeOut(true);
+    }
+
+    /** A step of the startup. */
+    public static class Task {
+        private final String mName;
+        private final int mThread;
+        private final Runnable mRunnable;
+        private final ArrayList<Task> mDependents = new ArrayList<Task>();
+        private int mPendingCount;
+        private boolean mDone;
+        private boolean mSkipped;
+        private long mStartTime;
+        private long mEndTime;
+
+        private Task(String name, int thread, Runnable runnable) {
+            mName = name;
+            mThread = thread;
+            mRunnable = runnable;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    private final String mName;
+    private final ArrayList<Task> mTasks = new ArrayList<Task>();
+    // The main thread tasks ready to run. Guarded by "this".
+    private final LinkedList<Task> mMainQueue = new LinkedList<Task>();
+    private int mDoneCount;
+    private boolean mStarted;
+    private boolean mReported;
+    private long mStartTime;
+    private Throwable mFailure;
+
+    public StartupScheduler(String name) {
+        mName = name;
+    }
+
+    /** Adds a task. All the tasks must be added before start(). */
+    public synchronized Task add(String name, int thread, Runnable runnable,
+            Task... dependencies) {
+        if (mStarted) throw new IllegalStateException("already started");
+        Task task = new Task(name, thread, runnable);
+        for (Task dependency : dependencies) {
+            if (dependency == null) continue;
+            dependency.mDependents.add(task);
+            ++task.mPendingCount;
+        }
+        mTasks.add(task);
+        return task;
+    }
+
+    /** Starts the tasks that don't depend on others. */
+    public void start() {
+        ArrayList<Task> ready = new ArrayList<Task>();
+        synchronized (this) {
+            mStarted = true;
+            mStartTime = SystemClock.elapsedRealtime();
+            for (Task task : mTasks) {
+                if (task.mPendingCount == 0) ready.add(task);
+            }
+        }
+        dispatch(ready);
+    }
+
+    /**
+     * Runs the main thread tasks until the given task is done. Must be
+     * called in the main thread. If a task failed, its exception is thrown
+     * here.
+     */
+    public void await(Task task) {
+        awaitCount(task, 0);
+    }
+
+    /** Runs the main thread tasks until all the tasks are done. */
+    public void awaitAll() {
+        awaitCount(null, mTasks.size());
+        report();
+    }
+
+    private void awaitCount(Task target, int count) {
+        while (true) {
+            Task next;
+            synchronized (this) {
+                if (mFailure != null) rethrow(mFailure);
+                if (target != null ? target.mDone : mDoneCount >= count) {
+                    return;
+                }
+                next = mMainQueue.poll();
+                if (next == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // ignore.
+                    }
+                    continue;
+                }
+            }
+            run(next);
+        }
+    }
+
+    private static void rethrow(Throwable t) {
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        throw new RuntimeException(t);
+    }
+
+    private void dispatch(ArrayList<Task> ready) {
+        for (final Task task : ready) {
+            Runnable runnable = new Runnable() {
+                public void run() {
+                    StartupScheduler.this.run(task);
+                }
+            };
+            synchronized (this) {
+                if (task.mThread == THREAD_MAIN) {
+                    mMainQueue.add(task);
+                    notifyAll();
+                    continue;
+                }
+            }
+            sBackground.execute(runnable);
+        }
+    }
+
+    private void run(Task task) {
+        long start = SystemClock.elapsedRealtime();
+        Throwable failure = null;
+        try {
+            task.mRunnable.run();
+        } catch (Throwable t) {
+            Log.e(TAG, mName + ": task " + task.mName + " failed", t);
+            failure = t;
+        }
+        long end = SystemClock.elapsedRealtime();
+
+        ArrayList<Task> ready = new ArrayList<Task>();
+        synchronized (this) {
+            task.mStartTime = start;
+            task.mEndTime = end;
+            if (failure != null && mFailure == null) mFailure = failure;
+            finish(task, failure != null, ready);
+            notifyAll();
+        }
+        dispatch(ready);
+    }
+
+    // Marks the task done and collects the dependents that become ready.
+    // The dependents of a failed task are skipped.
+    private void finish(Task task, boolean failed, ArrayList<Task> ready) {
+        task.mDone = true;
+        ++mDoneCount;
+        for (Task dependent : task.mDependents) {
+            if (failed) {
+                if (dependent.mDone) continue;
+                dependent.mSkipped = true;
+                finish(dependent, true, ready);
+            } else if (--dependent.mPendingCount == 0 && !dependent.mDone) {
+                ready.add(dependent);
+            }
+        }
+    }
+
+    /** Returns the timeline of the tasks, one line per task. */
+    public synchronized String getTimeline() {
+        StringBuilder builder = new StringBuilder(mName).append(":\n");
+        for (Task task : mTasks) {
+            builder.append(String.format("  %-16s %-4s ", task.mName,
+                    THREAD_NAMES[task.mThread]));
+            if (!task.mDone) {
+                builder.append("pending\n");
+            } else if (task.mSkipped) {
+                builder.append("skipped\n");
+            } else {
+                builder.append(String.format("%4d - %4dms\n",
+                        task.mStartTime - mStartTime,
+                        task.mEndTime - mStartTime));
+            }
+        }
+        return builder.toString();
+    }
+
+    private void report() {
+        synchronized (this) {
+            if (mReported) return;
+            mReported = true;
+        }
+        Log.v(TAG, getTimeline());
+        CameraMetrics metrics = CameraMetrics.instance();
+        long end = mStartTime;
+        for (Task task : mTasks) {
+            if (task.mSkipped) continue;
+            metrics.record("startup." + mName + "." + task.mName,
+                    task.mEndTime - task.mStartTime);
+            end = Math.max(end, task.mEndTime);
+        }
+        metrics.record("startup." + mName, end - mStartTime);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.camera;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Named trace points along the launch of the camera activities.
+ *
+ * <p>A trace begins in onCreate() (a cold or warm launch) or in onResume()
+ * when no trace is running (a hot resume), and every later point is the time
+ * in milliseconds since the beginning. Only the first occurrence of a point
+ * in a trace is kept, so the points can be marked from paths that run more
+ * than once. The trace ends in onPause(); the points stay readable until the
+ * next trace begins.
+ *
+ * <p>Each point is also recorded in {@link CameraMetrics} as
+ * "trace.&lt;point&gt;". Points may be marked from any thread.
+ */
+public class StartupTrace {
+    private static final String TAG = "StartupTrace";
+
+    public static final String ON_CREATE = "onCreate";
+    public static final String ON_RESUME = "onResume";
+    public static final String CAMERA_OPEN = "cameraOpen";
+    public static final String START_PREVIEW = "startPreview";
+    public static final String SURFACE_CHANGED = "surfaceChanged";
+    public static final String HUD_FIRST_FRAME = "hudFirstFrame";
+    public static final String SHUTTER_READY = "shutterReady";
+
+    private static final LinkedHashMap<String, Long> sPoints =
+            new LinkedHashMap<String, Long>();
+    private static long sStartTime;
+    private static boolean sRunning;
+    private static int sTraceCount;
+
+    private StartupTrace() {
+    }
+
+    /** Begins a new trace at the given point. */
+    public static synchronized void begin(String point) {
+        sStartTime = SystemClock.uptimeMillis();
+        sRunning = true;
+        ++sTraceCount;
+        sPoints.clear();
+        sPoints.put(point, 0L);
+        StartupTrace.class.notifyAll();
+    }
+
+    /**
+     * Marks onResume() in the running trace, or begins a trace at onResume()
+     * if the activity is resumed without being created.
+     */
+    public static synchronized void resume() {
+        if (sRunning) {
+            mark(ON_RESUME);
+        } else {
+            begin(ON_RESUME);
+        }
+    }
+
+    public static synchronized void mark(String point) {
+        if (!sRunning || sPoints.containsKey(point)) return;
+        long elapsed = SystemClock.uptimeMillis() - sStartTime;
+        sPoints.put(point, elapsed);
+        Log.v(TAG, point + ": " + elapsed + "ms");
+        CameraMetrics.instance().record("trace." + point, elapsed);
+        StartupTrace.class.notifyAll();
+    }
+
+    public static synchronized void end() {
+        sRunning = false;
+    }
+
+    /**
+     * Returns the number of traces begun in this process. A launch that sees
+     * zero before it begins is a cold start.
+     */
+    public static synchronized int getTraceCount() {
+        return sTraceCount;
+    }
+
+    /** Returns the points of the current (or last) trace in order. */
+    public static synchronized LinkedHashMap<String, Long> getPoints() {
+        return new LinkedHashMap<String, Long>(sPoints);
+    }
+
+    /**
+     * Waits until the point is marked in a trace begun after the given trace
+     * count. Returns false on timeout.
+     */
+    public static synchronized boolean await(String point, int traceCount,
+            long timeoutMs) throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        while (sTraceCount <= traceCount || !sPoints.containsKey(point)) {
+            long remaining = deadline - SystemClock.uptimeMillis();
+            if (remaining <= 0) return false;
+            StartupTrace.class.wait(remaining);
+        }
+        return true;
+    }
+}
@@ -16,28 +16,37 @@
 
 package com.android.camera;
 
+import com.android.camera.gallery.LruCache;
 
 import android.content.ContentResolver;
 import android.content.res.Resources;
+import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
+import android.os.Handler;
 import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
 import android.util.Log;
 import android.view.ViewGroup.LayoutParams;
 import android.widget.ImageView;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A controller shows thumbnail picture on a button. The thumbnail picture
@@ -55,6 +64,7 @@ public class ThumbnailController {
     private TransitionDrawable mThumbTransition;
     private boolean mShouldAnimateThumb;
     private final Resources mResources;
+    private final Handler mHandler = new Handler();
 
     // The "frame" is a drawable we want to put on top of the thumbnail.
     public ThumbnailController(Resources resources,
@@ -79,31 +89,120 @@ public class ThumbnailController {
         return mUri;
     }
 
-    private static final int BUFSIZE = 4096;
+    // Returns the scaled thumbnail shown on the button, or null.
+    public Bitmap getThumb() {
+        return mThumb;
+    }
 
-    // Stores the data from the specified file.
-    // Returns true for success.
-    public boolean storeData(String filePath) {
+    // The file starts with the magic, the version, the length of the uri,
+    // the width, the height, the config and the row bytes of the bitmap,
+    // followed by the uri in UTF-8 and the pixel rows. The pixels are
+    // copied in and out of the bitmap as they are, with no codec involved.
+    private static final int MAGIC = 0x7B0B1E55;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+    private static final int MAX_SIZE = 1024;
+
+    // Does the file and provider work in the background, one task at a time.
+    private static final ExecutorService sExecutor =
+            Executors.newSingleThreadExecutor();
+
+    // The files of the uris found valid, by uri. A uri stays valid as long as
+    // its file has the same size and modification time, which is checked
+    // without asking the media provider.
+    private static final LruCache<Uri, FileStat> sStatCache =
+            new LruCache<Uri, FileStat>(16);
+
+    private static class FileStat {
+        final String mPath;
+        final long mLength;
+        final long mLastModified;
+
+        FileStat(File file) {
+            mPath = file.getPath();
+            mLength = file.length();
+            mLastModified = file.lastModified();
+        }
+
+        boolean isCurrent() {
+            File file = new File(mPath);
+            return file.length() == mLength
+                    && file.lastModified() == mLastModified
+                    && mLength > 0;
+        }
+    }
+
+    // Stores the data to the specified file. The pixels are copied here and
+    // written in the background, so this returns quickly.
+    // Returns true if there is data to store.
+    public boolean storeData(final String filePath) {
         if (mUri == null) {
             return false;
         }
+        final Uri uri = mUri;
+        final Bitmap.Config config = mThumb.getConfig();
+        final int width = mThumb.getWidth();
+        final int height = mThumb.getHeight();
+        final int rowBytes = mThumb.getRowBytes();
+        final ByteBuffer pixels = ByteBuffer.allocate(rowBytes * height);
+        mThumb.copyPixelsToBuffer(pixels);
+        sExecutor.execute(new Runnable() {
+            public void run() {
+                writeData(filePath, uri, config, width, height, rowBytes,
+                        pixels);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Stores the uri and the bitmap to the specified file in the calling
+     * thread. Returns true for success.
+     */
+    public static boolean storeData(String filePath, Uri uri, Bitmap thumb) {
+        ByteBuffer pixels =
+                ByteBuffer.allocate(thumb.getRowBytes() * thumb.getHeight());
+        thumb.copyPixelsToBuffer(pixels);
+        return writeData(filePath, uri, thumb.getConfig(), thumb.getWidth(),
+                thumb.getHeight(), thumb.getRowBytes(), pixels);
+    }
+
+    // Writes a temporary file and renames it, so a reader never sees a
+    // partial file.
+    private static boolean writeData(String filePath, Uri uri,
+            Bitmap.Config config, int width, int height, int rowBytes,
+            ByteBuffer pixels) {
+        if (config == null) return false;
+        byte[] uriBytes;
+        try {
+            uriBytes = uri.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + uriBytes.length);
+        header.putInt(MAGIC).putInt(VERSION).putInt(uriBytes.length)
+                .putInt(width).putInt(height).putInt(config.ordinal())
+                .putInt(rowBytes).put(uriBytes);
+        header.flip();
+        pixels.rewind();
 
+        File file = new File(filePath);
+        File temp = new File(filePath + ".tmp");
         FileOutputStream f = null;
-        BufferedOutputStream b = null;
-        DataOutputStream d = null;
         try {
-            f = new FileOutputStream(filePath);
-            b = new BufferedOutputStream(f, BUFSIZE);
-            d = new DataOutputStream(b);
-            d.writeUTF(mUri.toString());
-            mThumb.compress(Bitmap.CompressFormat.PNG, 100, d);
-            d.close();
+            f = new FileOutputStream(temp);
+            FileChannel channel = f.getChannel();
+            while (header.hasRemaining()) channel.write(header);
+            while (pixels.hasRemaining()) channel.write(pixels);
+            f.close();
+            f = null;
+            if (!temp.renameTo(file)) throw new IOException("rename failed");
         } catch (IOException e) {
+            Log.w(TAG, "fail to store " + filePath, e);
+            temp.delete();
             return false;
         } finally {
             MenuHelper.closeSilently(f);
-            MenuHelper.closeSilently(b);
-            MenuHelper.closeSilently(d);
         }
         return true;
     }
@@ -111,25 +210,67 @@ public class ThumbnailController {
     // Loads the data from the specified file.
     // Returns true for success.
     public boolean loadData(String filePath) {
+        Uri[] uri = new Uri[1];
+        Bitmap thumb = loadData(filePath, uri);
+        if (thumb == null) return false;
+        setLoadedData(uri[0], thumb);
+        return true;
+    }
+
+    // Shows a bitmap returned by loadData(String, Uri[]) and gives it back
+    // to BitmapPool; setData() keeps a scaled copy.
+    public void setLoadedData(Uri uri, Bitmap thumb) {
+        setData(uri, thumb);
+        if (thumb != mThumb) BitmapPool.instance().release(thumb);
+    }
+
+    /**
+     * Loads the data from the specified file. The pixels are copied from
+     * the mapped file into a bitmap from BitmapPool. Returns the bitmap and
+     * sets uriOut[0], or returns null if the file is missing or invalid.
+     */
+    public static Bitmap loadData(String filePath, Uri[] uriOut) {
         FileInputStream f = null;
-        BufferedInputStream b = null;
-        DataInputStream d = null;
         try {
             f = new FileInputStream(filePath);
-            b = new BufferedInputStream(f, BUFSIZE);
-            d = new DataInputStream(b);
-            Uri uri = Uri.parse(d.readUTF());
-            Bitmap thumb = BitmapFactory.decodeStream(d);
-            setData(uri, thumb);
-            d.close();
+            FileChannel channel = f.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) return null;
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            int uriLength = buffer.getInt();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int config = buffer.getInt();
+            int rowBytes = buffer.getInt();
+            Bitmap.Config[] configs = Bitmap.Config.values();
+            if (uriLength <= 0 || width <= 0 || width > MAX_SIZE
+                    || height <= 0 || height > MAX_SIZE
+                    || config < 0 || config >= configs.length
+                    || size != HEADER_SIZE + uriLength
+                            + (long) rowBytes * height) {
+                return null;
+            }
+            byte[] uriBytes = new byte[uriLength];
+            buffer.get(uriBytes);
+
+            Bitmap thumb = BitmapPool.instance().get(
+                    width, height, configs[config]);
+            if (thumb.getRowBytes() != rowBytes) {
+                BitmapPool.instance().release(thumb);
+                return null;
+            }
+            thumb.copyPixelsFromBuffer(buffer);
+            uriOut[0] = Uri.parse(new String(uriBytes, "UTF-8"));
+            return thumb;
         } catch (IOException e) {
-            return false;
+            return null;
         } finally {
             MenuHelper.closeSilently(f);
-            MenuHelper.closeSilently(b);
-            MenuHelper.closeSilently(d);
         }
-        return true;
     }
 
     public void updateDisplayIfNeeded() {
@@ -167,15 +308,18 @@ public class ThumbnailController {
 
         final int miniThumbWidth = getThumbnailWidth();
         final int miniThumbHeight = getThumbnailHeight();
-        mThumb = ThumbnailUtils.extractThumbnail(
-                original, miniThumbWidth, miniThumbHeight);
+        mThumb = extractThumbnail(original, miniThumbWidth, miniThumbHeight);
         Drawable drawable;
+        Bitmap dropped = null;
         if (mThumbs == null) {
             mThumbs = new Drawable[2];
             mThumbs[1] = new BitmapDrawable(mResources, mThumb);
             drawable = mThumbs[1];
             mShouldAnimateThumb = false;
         } else {
+            if (mThumbs[0] != null) {
+                dropped = ((BitmapDrawable) mThumbs[0]).getBitmap();
+            }
             mThumbs[0] = mThumbs[1];
             mThumbs[1] = new BitmapDrawable(mResources, mThumb);
             mThumbTransition = new TransitionDrawable(mThumbs);
@@ -183,15 +327,89 @@ public class ThumbnailController {
             mShouldAnimateThumb = true;
         }
         mButton.setImageDrawable(drawable);
+        // The thumbnail before the previous one is no longer shown.
+        BitmapPool.instance().release(dropped);
+    }
+
+    // Scales and crops the center of the source to fill a bitmap of the given
+    // size, like ThumbnailUtils.extractThumbnail(), but the bitmap comes from
+    // BitmapPool.
+    private static Bitmap extractThumbnail(
+            Bitmap source, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return ThumbnailUtils.extractThumbnail(source, width, height);
+        }
+        float scale = Math.max((float) width / source.getWidth(),
+                (float) height / source.getHeight());
+        int cropWidth = Math.round(width / scale);
+        int cropHeight = Math.round(height / scale);
+        int left = (source.getWidth() - cropWidth) / 2;
+        int top = (source.getHeight() - cropHeight) / 2;
+        Bitmap thumb = BitmapPool.instance().get(
+                width, height, Bitmap.Config.ARGB_8888);
+        new Canvas(thumb).drawBitmap(source,
+                new Rect(left, top, left + cropWidth, top + cropHeight),
+                new Rect(0, 0, width, height),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        return thumb;
     }
 
     public boolean isUriValid() {
-        if (mUri == null) {
+        return isUriValid(mContentResolver, mUri);
+    }
+
+    /**
+     * Checks the uri in the background. If it is no longer valid and the
+     * controller still shows it, {@code onInvalid} is run in the main
+     * thread; otherwise nothing happens, so the thumbnail can be shown
+     * meanwhile.
+     */
+    public void checkUriAsync(final Runnable onInvalid) {
+        // A null uri is invalid too, but onInvalid is still posted rather
+        // than run by the caller.
+        final Uri uri = mUri;
+        sExecutor.execute(new Runnable() {
+            public void run() {
+                if (isUriValid(mContentResolver, uri)) return;
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        if (Util.equals(uri, mUri)) onInvalid.run();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Runs the task in the background thread that checks the uris, for
+     * example to query the media provider for the thumbnail to show. The
+     * task posts its result back to the main thread.
+     */
+    public static void execute(Runnable task) {
+        sExecutor.execute(task);
+    }
+
+    public static boolean isUriValid(ContentResolver resolver, Uri uri) {
+        if (uri == null) {
             return false;
         }
+        FileStat stat = sStatCache.get(uri);
+        if (stat != null) {
+            if (stat.isCurrent()) return true;
+            sStatCache.put(uri, null);
+        }
+
+        String path = queryDataPath(resolver, uri);
+        if (path != null) {
+            File file = new File(path);
+            if (!file.exists()) return false;
+            sStatCache.put(uri, new FileStat(file));
+            return true;
+        }
+
+        // Not a media provider uri we can stat; try to open it.
         try {
-            ParcelFileDescriptor pfd =
-                    mContentResolver.openFileDescriptor(mUri, "r");
+            ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r");
             if (pfd == null) {
                 Log.e(TAG, "Fail to open URI.");
                 return false;
@@ -202,4 +420,22 @@ public class ThumbnailController {
         }
         return true;
     }
+
+    // Returns the file path of a media provider uri, or null if the provider
+    // has none.
+    private static String queryDataPath(ContentResolver resolver, Uri uri) {
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(uri,
+                    new String[] {MediaStore.MediaColumns.DATA},
+                    null, null, null);
+            if (cursor == null || !cursor.moveToFirst()) return null;
+            return cursor.getString(0);
+        } catch (RuntimeException ex) {
+            // The uri may not have the column.
+            return null;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
 }
@@ -21,7 +21,10 @@ import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
 import android.hardware.Camera;
 import android.hardware.Camera.Parameters;
 import android.util.Log;
@@ -56,8 +59,8 @@ public class Util {
         return rotateAndMirror(b, degrees, false);
     }
 
-    // Rotates and/or mirrors the bitmap. If a new bitmap is created, the
-    // original bitmap is recycled.
+    // Rotates and/or mirrors the bitmap. If a new bitmap is created, it comes
+    // from BitmapPool, and the original bitmap is released to the pool.
     public static Bitmap rotateAndMirror(Bitmap b, int degrees, boolean mirror) {
         if ((degrees != 0 || mirror) && b != null) {
             Matrix m = new Matrix();
@@ -76,12 +79,19 @@ public class Util {
             }
 
             try {
-                Bitmap b2 = Bitmap.createBitmap(
-                        b, 0, 0, b.getWidth(), b.getHeight(), m, true);
-                if (b != b2) {
-                    b.recycle();
-                    b = b2;
-                }
+                // Move the transformed bitmap to the origin, like
+                // Bitmap.createBitmap() does.
+                RectF bounds = new RectF(0, 0, b.getWidth(), b.getHeight());
+                m.mapRect(bounds);
+                m.postTranslate(-bounds.left, -bounds.top);
+                Bitmap.Config config = b.getConfig();
+                Bitmap b2 = BitmapPool.instance().get(
+                        Math.round(bounds.width()), Math.round(bounds.height()),
+                        config == null ? Bitmap.Config.ARGB_8888 : config);
+                new Canvas(b2).drawBitmap(
+                        b, m, new Paint(Paint.FILTER_BITMAP_FLAG));
+                BitmapPool.instance().release(b);
+                b = b2;
             } catch (OutOfMemoryError ex) {
                 // We have no memory to rotate. Return the original bitmap.
             }
@@ -312,8 +322,10 @@ public class Util {
         return 0;
     }
 
+    // The flip mode is set in the given parameters, which the caller
+    // commits to the camera.
     public static void setCameraDisplayOrientation(Activity activity,
-            int cameraId, Camera camera) {
+            int cameraId, Camera camera, Parameters parameters) {
         // See android.hardware.Camera.setCameraDisplayOrientation for
         // documentation.
         Camera.CameraInfo info = new Camera.CameraInfo();
@@ -330,10 +342,8 @@ public class Util {
 
         // Ugly hack: Make sure the flip-mode is completely off
         // on nv-cameras. We may be enabling it for other apps
-        Parameters parameters = camera.getParameters();
         if (parameters.get("nv-flip-mode") != null) {
             parameters.set("nv-flip-mode", "off");
-            camera.setParameters(parameters);
         }
 
         camera.setDisplayOrientation(result);
@@ -18,6 +18,7 @@ package com.android.camera;
 
 import com.android.camera.gallery.IImage;
 import com.android.camera.gallery.IImageList;
+import com.android.camera.gallery.MiniThumbCache;
 import com.android.camera.ui.CamcorderHeadUpDisplay;
 import com.android.camera.ui.GLRootView;
 import com.android.camera.ui.HeadUpDisplay;
@@ -283,35 +284,36 @@ public class VideoCamera extends BaseCamera
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
+        StartupTrace.begin(StartupTrace.ON_CREATE);
 
-        Window win = getWindow();
-
-        // Overright the brightness settings if it is automatic
-        int mode = Settings.System.getInt(
-                getContentResolver(),
-                Settings.System.SCREEN_BRIGHTNESS_MODE,
-                Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
-        if (mode == Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC) {
-            WindowManager.LayoutParams winParams = win.getAttributes();
-            winParams.screenBrightness = DEFAULT_CAMERA_BRIGHTNESS;
-            win.setAttributes(winParams);
-        }
-
-        mPreferences = new ComboPreferences(this);
-        CameraSettings.upgradeGlobalPreferences(mPreferences.getGlobal());
-        mCameraId = CameraSettings.readPreferredCameraId(mPreferences);
-        mPreferences.setLocalId(this, mCameraId);
-        CameraSettings.upgradeLocalPreferences(mPreferences.getLocal());
-
-        mNumberOfCameras = CameraHolder.instance().getNumberOfCameras();
-
-        readVideoPreferences();
+        mContentResolver = getContentResolver();
+        mIsVideoCaptureIntent = isVideoCaptureIntent();
 
         /*
-         * To reduce startup time, we start the preview in another thread.
+         * To reduce startup time, the preferences are upgraded and the
+         * preview is started in the background while the views are inflated.
          * We make sure the preview is started at the end of onCreate.
          */
-        Thread startPreviewThread = new Thread(new Runnable() {
+        StartupScheduler startup =
+                new StartupScheduler("VideoCamera.onCreate");
+        StartupScheduler.Task preferences = startup.add("preferences",
+                StartupScheduler.THREAD_BACKGROUND, new Runnable() {
+            public void run() {
+                mPreferences = new ComboPreferences(VideoCamera.this);
+                CameraSettings.upgradeGlobalPreferences(
+                        mPreferences.getGlobal());
+                mCameraId = CameraSettings.readPreferredCameraId(mPreferences);
+                mPreferences.setLocalId(VideoCamera.this, mCameraId);
+                CameraSettings.upgradeLocalPreferences(
+                        mPreferences.getLocal());
+                mNumberOfCameras =
+                        CameraHolder.instance().getNumberOfCameras();
+                CameraCapabilities.preload(VideoCamera.this);
+                readVideoPreferences();
+            }
+        });
+        StartupScheduler.Task preview = startup.add("preview",
+                StartupScheduler.THREAD_BACKGROUND, new Runnable() {
             public void run() {
                 try {
                     mStartPreviewFail = false;
@@ -325,10 +327,77 @@ public class VideoCamera extends BaseCamera
                     mStartPreviewFail = true;
                 }
             }
+        }, preferences);
+        StartupScheduler.Task layout = startup.add("layout",
+                StartupScheduler.THREAD_MAIN, new Runnable() {
+            public void run() {
+                initializeLayout();
+            }
         });
-        startPreviewThread.start();
+        startup.add("previewFrame", StartupScheduler.THREAD_MAIN,
+                new Runnable() {
+            public void run() {
+                resizeForPreviewAspectRatio();
+            }
+        }, layout, preferences);
 
-        mContentResolver = getContentResolver();
+        if (!mIsVideoCaptureIntent) {
+            final Uri[] thumbUri = new Uri[1];
+            final Bitmap[] thumb = new Bitmap[1];
+            StartupScheduler.Task thumbFile = startup.add("thumbnailFile",
+                    StartupScheduler.THREAD_BACKGROUND, new Runnable() {
+                public void run() {
+                    thumb[0] = ThumbnailController.loadData(
+                            ImageManager.getLastVideoThumbPath(), thumbUri);
+                    // Map the capture index before updateLastVideo() needs
+                    // it in the main thread.
+                    CaptureIndex.instance(VideoCamera.this).preload();
+                }
+            });
+            startup.add("thumbnail", StartupScheduler.THREAD_MAIN,
+                    new Runnable() {
+                public void run() {
+                    if (thumb[0] != null) {
+                        mThumbController.setLoadedData(thumbUri[0], thumb[0]);
+                    }
+                }
+            }, layout, thumbFile);
+        }
+
+        // Initialize the HeadUpDiplay after startPreview(). We need mParameters
+        // for HeadUpDisplay and it is initialized in that function.
+        startup.add("headUpDisplay", StartupScheduler.THREAD_MAIN,
+                new Runnable() {
+            public void run() {
+                if (mStartPreviewFail) return;
+                initializeZoom();
+                mHeadUpDisplay = new CamcorderHeadUpDisplay(VideoCamera.this);
+                mHeadUpDisplay.setListener(new MyHeadUpDisplayListener());
+                initializeHeadUpDisplay();
+            }
+        }, layout, preview);
+        startup.start();
+
+        // Make sure preview is started.
+        startup.awaitAll();
+        if (mStartPreviewFail) {
+            showCameraErrorAndFinish();
+        }
+    }
+
+    private void initializeLayout() {
+        Window win = getWindow();
+
+        // Overright the brightness settings if it is automatic
+        int mode = Settings.System.getInt(
+                getContentResolver(),
+                Settings.System.SCREEN_BRIGHTNESS_MODE,
+                Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
+        if (mode == Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC) {
+            WindowManager.LayoutParams winParams = win.getAttributes();
+            winParams.screenBrightness = DEFAULT_CAMERA_BRIGHTNESS;
+            win.setAttributes(winParams);
+        }
 
         requestWindowFeature(Window.FEATURE_PROGRESS);
 
@@ -339,7 +408,6 @@ public class VideoCamera extends BaseCamera
 
         mPreviewFrameLayout = (PreviewFrameLayout)
                 findViewById(R.id.frame_layout);
-        resizeForPreviewAspectRatio();
 
         mVideoPreview = (SurfaceView) findViewById(R.id.camera_preview);
         mVideoFrame = (ImageView) findViewById(R.id.video_frame);
@@ -351,7 +419,6 @@ public class VideoCamera extends BaseCamera
         holder.addCallback(this);
         holder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
 
-        mIsVideoCaptureIntent = isVideoCaptureIntent();
         mQuickCapture = getIntent().getBooleanExtra(EXTRA_QUICK_CAPTURE, false);
         mRecordingTimeView = (TextView) findViewById(R.id.recording_time);
         mRecordingTimeRect = (RotateRecordingTime) findViewById(R.id.recording_time_rect);
@@ -366,7 +433,6 @@ public class VideoCamera extends BaseCamera
             mThumbController = new ThumbnailController(
                     getResources(), mLastPictureButton, mContentResolver);
             mLastPictureButton.setOnClickListener(this);
-            mThumbController.loadData(ImageManager.getLastVideoThumbPath());
             mSwitcher = ((Switcher) findViewById(R.id.camera_switch));
             mSwitcher.setOnSwitchListener(this);
             mSwitcher.addTouchView(findViewById(R.id.camera_switch_set));
@@ -388,25 +454,6 @@ public class VideoCamera extends BaseCamera
         mShutterButton.requestFocus();
 
         mOrientationListener = new MyOrientationEventListener(VideoCamera.this);
-
-        // Make sure preview is started.
-        try {
-            startPreviewThread.join();
-            if (mStartPreviewFail) {
-                showCameraErrorAndFinish();
-                return;
-            }
-        } catch (InterruptedException ex) {
-            // ignore
-        }
-
-        initializeZoom();
-
-        // Initialize the HeadUpDiplay after startPreview(). We need mParameters
-        // for HeadUpDisplay and it is initialized in that function.
-        mHeadUpDisplay = new CamcorderHeadUpDisplay(this);
-        mHeadUpDisplay.setListener(new MyHeadUpDisplayListener());
-        initializeHeadUpDisplay();
     }
 
     private void changeHeadUpDisplayState() {
@@ -681,6 +728,7 @@ public class VideoCamera extends BaseCamera
     @Override
     protected void onResume() {
         super.onResume();
+        StartupTrace.resume();
         mPausing = false;
 
         // Start orientation listener as soon as possible because it takes
@@ -715,6 +763,12 @@ public class VideoCamera extends BaseCamera
         changeHeadUpDisplayState();
 
         updateThumbnailButton();
+        // Open the camera of the switch button ahead, so switching is fast.
+        if (mNumberOfCameras > 1) {
+            CameraHolder.instance().preopen(
+                    (mCameraId + 1) % mNumberOfCameras);
+        }
+        StartupTrace.mark(StartupTrace.SHUTTER_READY);
     }
 
     private void setPreviewDisplay(SurfaceHolder holder) {
@@ -732,6 +786,7 @@ public class VideoCamera extends BaseCamera
             // If the activity is paused and resumed, camera device has been
             // released and we need to open the camera.
             mCameraDevice = CameraHolder.instance().open(mCameraId);
+            mParameters = mShadowParameters.reload(mCameraDevice);
         }
 
         if (mPreviewing == true) {
@@ -739,7 +794,8 @@ public class VideoCamera extends BaseCamera
             mPreviewing = false;
         }
         setPreviewDisplay(mSurfaceHolder);
-        Util.setCameraDisplayOrientation(this, mCameraId, mCameraDevice);
+        Util.setCameraDisplayOrientation(
+                this, mCameraId, mCameraDevice, mParameters);
         setCameraParameters();
 
         CameraSettings.setContinuousAf(mParameters, false);
@@ -751,6 +807,7 @@ public class VideoCamera extends BaseCamera
         try {
             mCameraDevice.startPreview();
             mPreviewing = true;
+            StartupTrace.mark(StartupTrace.START_PREVIEW);
         } catch (Throwable ex) {
             closeCamera();
             throw new RuntimeException("startPreview failed", ex);
@@ -764,6 +821,7 @@ public class VideoCamera extends BaseCamera
             return;
         }
         releaseMediaRecorder();
+        mShadowParameters.detach();
         mCameraDevice.lock();
         CameraHolder.instance().release();
         mCameraDevice = null;
@@ -773,6 +831,7 @@ public class VideoCamera extends BaseCamera
     @Override
     protected void onPause() {
         super.onPause();
+        StartupTrace.end();
         mPausing = true;
 
         changeHeadUpDisplayState();
@@ -794,6 +853,7 @@ public class VideoCamera extends BaseCamera
             stopVideoRecording();
         }
         closeCamera();
+        CameraHolder.instance().releaseStandby();
 
         if (mReceiver != null) {
             unregisterReceiver(mReceiver);
@@ -804,6 +864,15 @@ public class VideoCamera extends BaseCamera
         if (!mIsVideoCaptureIntent) {
             mThumbController.storeData(ImageManager.getLastVideoThumbPath());
         }
+        // A thumbnail still being decoded for the button is not shown.
+        BitmapManager.instance().cancelAll();
+        final CaptureIndex index = CaptureIndex.instance(VideoCamera.this);
+        sPauseExecutor.execute(new Runnable() {
+            public void run() {
+                MiniThumbCache.instance().flush();
+                index.flush();
+            }
+        });
 
         if (mStorageHint != null) {
             mStorageHint.cancel();
@@ -904,6 +973,7 @@ public class VideoCamera extends BaseCamera
     }
 
     public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
+        StartupTrace.mark(StartupTrace.SURFACE_CHANGED);
         // Make sure we have a surface in the holder before proceeding.
         if (holder.getSurface() == null) {
             Log.d(TAG, "holder.getSurface() == null");
@@ -1245,6 +1315,8 @@ public class VideoCamera extends BaseCamera
         } else {
             stopVideoRecording();
         }
+        // Keep the current camera open so switching back is fast.
+        CameraHolder.instance().standby();
         closeCamera();
 
         // Reload the preferences.
@@ -1320,6 +1392,8 @@ public class VideoCamera extends BaseCamera
         CameraSettings.setContinuousAf(mParameters, true);
         setCameraHardwareParameters();
 
+        // Leave the hardware to the recorder.
+        CameraHolder.instance().releaseStandby();
         initializeRecorder();
         if (mMediaRecorder == null) {
             Log.e(TAG, "Fail to initialize media recorder");
@@ -1493,6 +1567,12 @@ public class VideoCamera extends BaseCamera
                 mCurrentVideoFilename, Video.Thumbnails.MINI_KIND);
         mThumbController.setData(mCurrentVideoUri, videoFrame);
         mThumbController.updateDisplayIfNeeded();
+        if (mCurrentVideoUri != null) {
+            CaptureIndex.instance(VideoCamera.this).add(
+                    CaptureIndex.TYPE_VIDEO, mCurrentVideoUri,
+                    System.currentTimeMillis(), 0,
+                    mThumbController.getThumb());
+        }
     }
 
     private static ImageManager.DataLocation dataLocation() {
@@ -1500,31 +1580,98 @@ public class VideoCamera extends BaseCamera
     }
 
     private void updateThumbnailButton() {
-        // Update the last video thumbnail.
+        // Update the last video thumbnail. The thumbnail we have is shown
+        // while its uri is checked in the background.
         if (!mIsVideoCaptureIntent) {
-            if (!mThumbController.isUriValid()) {
-                updateLastVideo();
-            }
+            mThumbController.checkUriAsync(mUpdateLastVideo);
             mThumbController.updateDisplayIfNeeded();
         }
     }
 
+    private final Runnable mUpdateLastVideo = new Runnable() {
+        public void run() {
+            if (mPausing) return;
+            updateLastVideo();
+            mThumbController.updateDisplayIfNeeded();
+        }
+    };
+
     private void updateLastVideo() {
-        IImageList list = ImageManager.makeImageList(
+        // Try the capture index first, which needs no media provider query.
+        // Its latest capture is shown right away and its uri is checked in
+        // the background; if the capture is gone, it is dropped from the
+        // index and the next one is tried.
+        final CaptureIndex index = CaptureIndex.instance(VideoCamera.this);
+        CaptureIndex.Entry entry = index.getLatest(CaptureIndex.TYPE_VIDEO);
+        Bitmap thumb = entry == null ? null : entry.decodeThumbnail();
+        if (thumb != null) {
+            final Uri uri = entry.mUri;
+            mThumbController.setData(uri, thumb);
+            mThumbController.checkUriAsync(new Runnable() {
+                public void run() {
+                    index.remove(uri);
+                    mUpdateLastVideo.run();
+                }
+            });
+            return;
+        }
+
+        // Otherwise ask the media provider in the background. The result is
+        // shown unless another thumbnail was set meanwhile.
+        final Uri shownUri = mThumbController.getUri();
+        ThumbnailController.execute(new Runnable() {
+            public void run() {
+                IImageList list = ImageManager.makeImageList(
                         mContentResolver,
                         dataLocation(),
                         ImageManager.INCLUDE_VIDEOS,
                         ImageManager.SORT_ASCENDING,
                         ImageManager.CAMERA_IMAGE_BUCKET_ID);
-        int count = list.getCount();
-        if (count > 0) {
-            IImage image = list.getImageAt(count - 1);
-            Uri uri = image.fullSizeImageUri();
-            mThumbController.setData(uri, image.miniThumbBitmap());
-        } else {
-            mThumbController.setData(null, null);
-        }
-        list.close();
+                int count = list.getCount();
+                Uri uri = null;
+                Bitmap bitmap = null;
+                long dateTaken = 0;
+                if (count > 0) {
+                    IImage image = list.getImageAt(count - 1);
+                    uri = image.fullSizeImageUri();
+                    bitmap = image.miniThumbBitmap();
+                    dateTaken = image.getDateTaken();
+                }
+                list.close();
+
+                final Uri lastUri = uri;
+                final Bitmap lastBitmap = bitmap;
+                final long lastDateTaken = dateTaken;
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        if (mPausing || !Util.equals(
+                                shownUri, mThumbController.getUri())) {
+                            return;
+                        }
+                        mThumbController.setData(lastUri, lastBitmap);
+                        mThumbController.updateDisplayIfNeeded();
+                        seedCaptureIndex(lastUri, lastDateTaken);
+                    }
+                });
+            }
+        });
+    }
+
+    // Adds the thumbnail shown to the capture index, so the next time it is
+    // found without a media provider query.
+    private void seedCaptureIndex(final Uri uri, final long dateTaken) {
+        Bitmap shown = mThumbController.getThumb();
+        if (uri == null || shown == null) return;
+        // The controller hands its thumbnails back to BitmapPool, so the
+        // index gets a copy to compress in the background.
+        final Bitmap thumb = shown.copy(shown.getConfig(), false);
+        if (thumb == null) return;
+        ThumbnailController.execute(new Runnable() {
+            public void run() {
+                CaptureIndex.instance(VideoCamera.this).add(
+                        CaptureIndex.TYPE_VIDEO, uri, dateTaken, 0, thumb);
+            }
+        });
     }
 
     private void updateRecordingTime() {
@@ -1588,9 +1735,6 @@ public class VideoCamera extends BaseCamera
     }
 
     private void setCameraParameters() {
-        if (mMediaRecorder == null) {
-            mParameters = mCameraDevice.getParameters();
-        }
         mParameters.setPreviewSize(mProfile.videoFrameWidth, mProfile.videoFrameHeight);
         mParameters.setPreviewFrameRate(mProfile.videoFrameRate);
 
@@ -1622,12 +1766,11 @@ public class VideoCamera extends BaseCamera
     }
 
     private void setCameraHardwareParameters() {
-        CameraSettings.dumpParameters(mParameters);
         if (mMediaRecorder != null) {
             Log.d(TAG, "*** SET PARAMS VIA MEDIARECORDER!");
   //          mMediaRecorder.setCameraParameters(mParameters.flatten());
         } else {
-            mCameraDevice.setParameters(mParameters);
+            mShadowParameters.commit();
         }
     }
 
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.exif;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the EXIF header of a JPEG held in memory.
+ *
+ * <p>The parser walks the TIFF IFDs in place (IFD0, the EXIF and GPS
+ * sub-IFDs and IFD1) and records the orientation, the date, the GPS position
+ * and the position of the embedded thumbnail. Nothing is copied out of the
+ * JPEG, and a parser can be reused for any number of JPEGs by calling
+ * {@link #parse} again. Only java.nio is used so the class can be tested on
+ * a plain JVM.
+ */
+public class ExifParser {
+
+    // JEITA CP-3451 Exif Version 2.2 tags.
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_GPS_IFD = 0x8825;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+    private static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    private static final int TAG_GPS_LATITUDE = 0x0002;
+    private static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    private static final int TAG_GPS_LONGITUDE = 0x0004;
+
+    // The length of "YYYY:MM:DD HH:MM:SS".
+    private static final int DATE_TIME_LENGTH = 19;
+
+    // A malformed file could make the IFDs point at each other; we never
+    // visit more IFDs than this.
+    private static final int MAX_IFDS = 8;
+
+    private static final int IFD_0 = 0;
+    private static final int IFD_1 = 1;
+    private static final int IFD_EXIF = 2;
+    private static final int IFD_GPS = 3;
+
+    private ByteBuffer mBuffer;
+    private boolean mLittleEndian;
+    private int mTiffStart;
+    private int mTiffEnd;
+
+    private int mOrientation;
+    private int mDateTimeOffset;
+    private int mDateTimeOriginalOffset;
+    private int mLatitudeOffset;
+    private int mLongitudeOffset;
+    private char mLatitudeRef;
+    private char mLongitudeRef;
+    private int mThumbnailOffset;
+    private int mThumbnailLength;
+
+    // Pending sub-IFDs: offsets (relative to the TIFF header) and kinds.
+    private final int[] mIfdOffsets = new int[MAX_IFDS];
+    private final int[] mIfdKinds = new int[MAX_IFDS];
+    private int mIfdCount;
+
+    public boolean parse(byte[] jpeg) {
+        return parse(ByteBuffer.wrap(jpeg));
+    }
+
+    /**
+     * Parses the JPEG between the position and the limit of {@code buffer}.
+     * The position of the buffer is not changed, and the buffer must not be
+     * modified while the results of this parse are in use.
+     *
+     * @return true if an EXIF header was found
+     */
+    public boolean parse(ByteBuffer buffer) {
+        reset();
+        mBuffer = buffer;
+        if (!findExifHeader(buffer.position(), buffer.limit())) return false;
+
+        int tag = unsigned(mTiffStart, 4, false);
+        if (tag != 0x49492A00 && tag != 0x4D4D002A) return false;
+        mLittleEndian = (tag == 0x49492A00);
+
+        addIfd(unsigned(mTiffStart + 4, 4, mLittleEndian), IFD_0);
+        for (int i = 0; i < mIfdCount; ++i) {
+            readIfd(mIfdOffsets[i], mIfdKinds[i]);
+        }
+        return true;
+    }
+
+    /** Returns the orientation in clockwise degrees: 0, 90, 180 or 270. */
+    public int getDegrees() {
+        switch (mOrientation) {
+            case 3: return 180;
+            case 6: return 90;
+            case 8: return 270;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Returns the date the picture was taken as "YYYY:MM:DD HH:MM:SS", or
+     * {@code null} if the header has no date.
+     */
+    public String getDateTime() {
+        int offset = mDateTimeOriginalOffset != 0
+                ? mDateTimeOriginalOffset
+                : mDateTimeOffset;
+        if (offset == 0) return null;
+        char[] chars = new char[DATE_TIME_LENGTH];
+        for (int i = 0; i < DATE_TIME_LENGTH; ++i) {
+            chars[i] = (char) (mBuffer.get(offset + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    public boolean hasLatLong() {
+        return mLatitudeOffset != 0 && mLongitudeOffset != 0;
+    }
+
+    /** Returns the latitude in degrees; south is negative. */
+    public double getLatitude() {
+        if (mLatitudeOffset == 0) return 0;
+        double value = readDegrees(mLatitudeOffset);
+        return mLatitudeRef == 'S' ? -value : value;
+    }
+
+    /** Returns the longitude in degrees; west is negative. */
+    public double getLongitude() {
+        if (mLongitudeOffset == 0) return 0;
+        double value = readDegrees(mLongitudeOffset);
+        return mLongitudeRef == 'W' ? -value : value;
+    }
+
+    /**
+     * Returns the absolute index of the embedded thumbnail in the buffer, or
+     * 0 if there is none.
+     */
+    public int getThumbnailOffset() {
+        return mThumbnailOffset;
+    }
+
+    public int getThumbnailLength() {
+        return mThumbnailLength;
+    }
+
+    private void reset() {
+        mBuffer = null;
+        mTiffStart = 0;
+        mTiffEnd = 0;
+        mOrientation = 0;
+        mDateTimeOffset = 0;
+        mDateTimeOriginalOffset = 0;
+        mLatitudeOffset = 0;
+        mLongitudeOffset = 0;
+        mLatitudeRef = 0;
+        mLongitudeRef = 0;
+        mThumbnailOffset = 0;
+        mThumbnailLength = 0;
+        mIfdCount = 0;
+    }
+
+    // Finds the APP1 "Exif\0\0" segment and sets mTiffStart and mTiffEnd.
+    // ISO/IEC 10918-1:1993(E)
+    private boolean findExifHeader(int offset, int end) {
+        while (offset + 3 < end && (mBuffer.get(offset++) & 0xFF) == 0xFF) {
+            int marker = mBuffer.get(offset) & 0xFF;
+
+            // Check if the marker is a padding.
+            if (marker == 0xFF) continue;
+            offset++;
+
+            // Check if the marker is SOI or TEM.
+            if (marker == 0xD8 || marker == 0x01) continue;
+
+            // Check if the marker is EOI or SOS.
+            if (marker == 0xD9 || marker == 0xDA) return false;
+
+            // Get the length and check if it is reasonable.
+            int length = unsigned(offset, 2, false);
+            if (length < 2 || offset + length > end) return false;
+
+            if (marker == 0xE1 && length > 16
+                    && unsigned(offset + 2, 4, false) == 0x45786966
+                    && unsigned(offset + 6, 2, false) == 0) {
+                mTiffStart = offset + 8;
+                mTiffEnd = offset + length;
+                return true;
+            }
+
+            // Skip other markers.
+            offset += length;
+        }
+        return false;
+    }
+
+    private void addIfd(int offset, int kind) {
+        if (offset < 8 || mIfdCount == MAX_IFDS) return;
+        for (int i = 0; i < mIfdCount; ++i) {
+            if (mIfdOffsets[i] == offset) return;
+        }
+        mIfdOffsets[mIfdCount] = offset;
+        mIfdKinds[mIfdCount] = kind;
+        ++mIfdCount;
+    }
+
+    private void readIfd(int ifdOffset, int kind) {
+        // The offset is read from the file; compare it before adding it so
+        // that a huge value cannot overflow.
+        if (ifdOffset > mTiffEnd - mTiffStart - 2) return;
+        int entry = mTiffStart + ifdOffset;
+        int count = unsigned(entry, 2, mLittleEndian);
+        entry += 2;
+
+        int thumbnailOffset = 0;
+        int thumbnailLength = 0;
+        for (; count > 0 && entry + 12 <= mTiffEnd; --count, entry += 12) {
+            int tag = unsigned(entry, 2, mLittleEndian);
+            int value = entry + 8;
+            switch (kind) {
+                case IFD_0:
+                    if (tag == TAG_ORIENTATION) {
+                        // We do not really care about type and count.
+                        mOrientation = unsigned(value, 2, mLittleEndian);
+                    } else if (tag == TAG_DATE_TIME) {
+                        mDateTimeOffset = dataOffset(value, DATE_TIME_LENGTH);
+                    } else if (tag == TAG_EXIF_IFD) {
+                        addIfd(unsigned(value, 4, mLittleEndian), IFD_EXIF);
+                    } else if (tag == TAG_GPS_IFD) {
+                        addIfd(unsigned(value, 4, mLittleEndian), IFD_GPS);
+                    }
+                    break;
+                case IFD_EXIF:
+                    if (tag == TAG_DATE_TIME_ORIGINAL) {
+                        mDateTimeOriginalOffset =
+                                dataOffset(value, DATE_TIME_LENGTH);
+                    }
+                    break;
+                case IFD_GPS:
+                    if (tag == TAG_GPS_LATITUDE_REF) {
+                        mLatitudeRef = (char) (mBuffer.get(value) & 0xFF);
+                    } else if (tag == TAG_GPS_LATITUDE) {
+                        // Three RATIONALs: degrees, minutes and seconds.
+                        mLatitudeOffset = dataOffset(value, 24);
+                    } else if (tag == TAG_GPS_LONGITUDE_REF) {
+                        mLongitudeRef = (char) (mBuffer.get(value) & 0xFF);
+                    } else if (tag == TAG_GPS_LONGITUDE) {
+                        mLongitudeOffset = dataOffset(value, 24);
+                    }
+                    break;
+                case IFD_1:
+                    if (tag == TAG_JPEG_INTERCHANGE_FORMAT) {
+                        thumbnailOffset = unsigned(value, 4, mLittleEndian);
+                    } else if (tag == TAG_JPEG_INTERCHANGE_FORMAT_LENGTH) {
+                        thumbnailLength = unsigned(value, 4, mLittleEndian);
+                    }
+                    break;
+            }
+        }
+
+        // The thumbnail is part of the APP1 segment, so it must end within
+        // the TIFF data and not merely within the buffer.
+        if (kind == IFD_1 && thumbnailOffset > 0 && thumbnailLength > 0
+                && (long) thumbnailOffset + thumbnailLength
+                        <= mTiffEnd - mTiffStart) {
+            mThumbnailOffset = mTiffStart + thumbnailOffset;
+            mThumbnailLength = thumbnailLength;
+        }
+
+        // Only IFD0 links to another IFD (IFD1, which has the thumbnail).
+        if (kind == IFD_0 && count == 0 && entry + 4 <= mTiffEnd) {
+            addIfd(unsigned(entry, 4, mLittleEndian), IFD_1);
+        }
+    }
+
+    // Returns the absolute index of a value of the given size. Values larger
+    // than four bytes are stored elsewhere and the entry holds their offset.
+    // Returns 0 if the value lies outside of the EXIF header.
+    private int dataOffset(int value, int size) {
+        if (size <= 4) return value;
+        int relative = unsigned(value, 4, mLittleEndian);
+        if (relative < 0 || relative > mTiffEnd - mTiffStart - size) return 0;
+        return mTiffStart + relative;
+    }
+
+    private double readDegrees(int offset) {
+        double degrees = readRational(offset);
+        double minutes = readRational(offset + 8);
+        double seconds = readRational(offset + 16);
+        return degrees + minutes / 60 + seconds / 3600;
+    }
+
+    private double readRational(int offset) {
+        long numerator = unsigned(offset, 4, mLittleEndian) & 0xFFFFFFFFL;
+        long denominator =
+                unsigned(offset + 4, 4, mLittleEndian) & 0xFFFFFFFFL;
+        return denominator == 0 ? 0 : (double) numerator / denominator;
+    }
+
+    private int unsigned(int offset, int length, boolean littleEndian) {
+        int step = 1;
+        if (littleEndian) {
+            offset += length - 1;
+            step = -1;
+        }
+
+        int value = 0;
+        while (length-- > 0) {
+            value = (value << 8) | (mBuffer.get(offset) & 0xFF);
+            offset += step;
+        }
+        return value;
+    }
+}
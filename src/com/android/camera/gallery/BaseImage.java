@@ -38,14 +38,16 @@ public abstract class BaseImage implements IImage {
     protected Uri mUri;
     protected long mId;
     private final long mDateTaken;
+    private final long mDateModified;
 
     protected BaseImage(ContentResolver cr,
             long id, Uri uri, long miniThumbMagic,
-            long dateTaken) {
+            long dateTaken, long dateModified) {
         mContentResolver = cr;
         mId = id;
         mUri = uri;
         mDateTaken = dateTaken;
+        mDateModified = dateModified;
     }
 
     @Override
@@ -71,7 +73,26 @@ public abstract class BaseImage implements IImage {
         return 0;
     }
 
+    protected boolean isVideo() {
+        return false;
+    }
+
     public Bitmap miniThumbBitmap() {
+        MiniThumbCache cache = MiniThumbCache.instance();
+        long key = MiniThumbCache.getKey(mId, isVideo());
+        // The thumbnail is cached after it is rotated, so the rotation is a
+        // part of the version.
+        long version = mDateModified * 4 + getDegreesRotated() / 90;
+        Bitmap b = cache.get(key, version);
+        if (b == null) {
+            b = loadMiniThumbBitmap();
+            if (b != null) cache.put(key, version, b);
+        }
+        return b;
+    }
+
+    // Gets the micro thumbnail from MediaStore.
+    protected Bitmap loadMiniThumbBitmap() {
         Bitmap b = null;
         try {
             long id = mId;
@@ -20,16 +20,26 @@ import com.android.camera.ImageManager;
 
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.util.Log;
 
 /**
  * A collection of <code>BaseImage</code>s.
+ *
+ * <p>The list follows the changes of its content incrementally. On a change
+ * notification, the rows newer than the newest row known are queried and
+ * kept apart as "added" rows, oldest first; they are newest in the sort
+ * order, so they go in front of the cursor rows (or after them for an
+ * ascending list). The cursor positions don't move, so the cached images
+ * stay valid. Only if a new row doesn't sort after all the others is the
+ * whole cursor queried again, and the generation is incremented.
  */
 public abstract class BaseImageList implements IImageList {
     private static final String TAG = "BaseImageList";
     private static final int CACHE_CAPACITY = 512;
+    // Keyed by the cursor position.
     private final LruCache<Integer, BaseImage> mCache =
             new LruCache<Integer, BaseImage>(CACHE_CAPACITY);
 
@@ -41,6 +51,42 @@ public abstract class BaseImageList implements IImageList {
     protected String mBucketId;
     protected boolean mCursorDeactivated = false;
 
+    // The rows read in bulk by loadSnapshot(), or null in the cursor mode.
+    private volatile ColumnSnapshot mSnapshot;
+
+    // The rows inserted after the cursor was queried, oldest first.
+    private volatile ColumnSnapshot mAdded;
+    private volatile boolean mChanged;
+    private int mGeneration;
+
+    /**
+     * Notified when the content of the list changes. The list is brought up
+     * to date by the next getCount().
+     */
+    public interface OnChangeListener {
+        public void onChange(BaseImageList list);
+    }
+
+    private volatile OnChangeListener mListener;
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onContentChanged();
+        }
+    };
+
+    // Called by the content observer; package-private so that the tests
+    // don't depend on the delivery of notifications.
+    void onContentChanged() {
+        mChanged = true;
+        OnChangeListener listener = mListener;
+        if (listener != null) listener.onChange(this);
+    }
+
+    // The row index of a position that is not in the list.
+    private static final int NO_ROW = Integer.MIN_VALUE;
+
     public BaseImageList(ContentResolver resolver, Uri uri, int sort,
             String bucketId) {
         mSort = sort;
@@ -51,6 +97,8 @@ public abstract class BaseImageList implements IImageList {
 
         if (mCursor == null) {
             Log.w(TAG, "createCursor returns null.");
+        } else {
+            resolver.registerContentObserver(uri, true, mObserver);
         }
 
         // TODO: We need to clear the cache because we may "reopen" the image
@@ -66,7 +114,13 @@ public abstract class BaseImageList implements IImageList {
             // IllegalStateException may be thrown if the cursor is stale.
             Log.e(TAG, "Caught exception while deactivating cursor.", e);
         }
+        if (mCursor != null) {
+            mContentResolver.unregisterContentObserver(mObserver);
+        }
         mContentResolver = null;
+        mSnapshot = null;
+        mAdded = null;
+        mListener = null;
         if (mCursor != null) {
             mCursor.close();
             mCursor = null;
@@ -88,7 +142,30 @@ public abstract class BaseImageList implements IImageList {
         }
     }
 
+    public void setOnChangeListener(OnChangeListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Returns the number of times the list was queried again as a whole.
+     * The positions of the rows are only comparable within a generation.
+     */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the count of the images. If the content has changed, the list
+     * is brought up to date first.
+     */
     public int getCount() {
+        if (mChanged) refresh();
+        return getBaseCount() + getAddedCount();
+    }
+
+    private int getBaseCount() {
+        ColumnSnapshot snapshot = mSnapshot;
+        if (snapshot != null) return snapshot.getCount();
         Cursor cursor = getCursor();
         if (cursor == null) return 0;
         synchronized (this) {
@@ -96,6 +173,76 @@ public abstract class BaseImageList implements IImageList {
         }
     }
 
+    private int getAddedCount() {
+        ColumnSnapshot added = mAdded;
+        return added == null ? 0 : added.getCount();
+    }
+
+    // Returns the cursor position of the row at position i, -1 - a for the
+    // a-th added row, or NO_ROW if i is out of range.
+    private int toRow(int i) {
+        int base = getBaseCount();
+        int added = getAddedCount();
+        if (i < 0 || i >= base + added) return NO_ROW;
+        if (mSort == ImageManager.SORT_ASCENDING) {
+            return i < base ? i : -1 - (i - base);
+        }
+        return i < added ? -1 - (added - 1 - i) : i - added;
+    }
+
+    // Queries the rows newer than the newest one known and splices them in.
+    private void refresh() {
+        synchronized (this) {
+            if (!mChanged || mCursor == null) return;
+            mChanged = false;
+
+            int count = getBaseCount() + getAddedCount();
+            int newest = mSort == ImageManager.SORT_ASCENDING ? count - 1 : 0;
+            long newestId = count == 0 ? -1 : getImageId(newest);
+            long newestDate = 0;
+            if (count > 0) {
+                long[] date = new long[1];
+                getDatesTaken(newest, date);
+                newestDate = date[0];
+            }
+
+            Cursor cursor = createCursorAfter(newestId);
+            if (cursor == null) return;
+            try {
+                int n = cursor.getCount();
+                // Updates and deletions are not followed.
+                if (n == 0) return;
+                ColumnSnapshot rows = new ColumnSnapshot(n);
+                for (int i = 0; i < n; ++i) {
+                    if (!cursor.moveToPosition(i)) return;
+                    loadRowFromCursor(cursor, rows, i);
+                    long date = rows.getDateTaken(i);
+                    if (date < newestDate || (date == newestDate
+                            && rows.getId(i) <= newestId)) {
+                        // It belongs somewhere in the middle.
+                        requery();
+                        return;
+                    }
+                    newestDate = date;
+                    newestId = rows.getId(i);
+                }
+                mAdded = mAdded == null ? rows : mAdded.append(rows);
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    // Queries everything again. Must be called with "this" locked.
+    private void requery() {
+        Log.v(TAG, "requery " + mBaseUri);
+        getCursor().requery();
+        mAdded = null;
+        mCache.clear();
+        ++mGeneration;
+        if (mSnapshot != null) mSnapshot = readSnapshot(mCursor);
+    }
+
     public boolean isEmpty() {
         return getCount() == 0;
     }
@@ -111,41 +258,195 @@ public abstract class BaseImageList implements IImageList {
         }
     }
 
+    /**
+     * Reads all the rows from the cursor at once. From then on the list is
+     * served from the snapshot: the cursor is no longer moved or locked,
+     * and getImageAt() returns light images that are created from the
+     * columns and not cached. Callers that only need the dates or the ids
+     * should use getDatesTaken() or getImageId(), which create no image at
+     * all. Returns false if the cursor is not available.
+     */
+    public boolean loadSnapshot() {
+        Cursor cursor = getCursor();
+        if (cursor == null) return false;
+        synchronized (this) {
+            ColumnSnapshot snapshot = readSnapshot(cursor);
+            if (snapshot == null) return false;
+            mSnapshot = snapshot;
+            mCache.clear();
+        }
+        return true;
+    }
+
+    private ColumnSnapshot readSnapshot(Cursor cursor) {
+        ColumnSnapshot snapshot = new ColumnSnapshot(cursor.getCount());
+        for (int i = 0, n = snapshot.getCount(); i < n; ++i) {
+            if (!cursor.moveToPosition(i)) return null;
+            loadRowFromCursor(cursor, snapshot, i);
+        }
+        return snapshot;
+    }
+
+    public boolean isSnapshot() {
+        return mSnapshot != null;
+    }
+
     public IImage getImageAt(int i) {
-        BaseImage result = mCache.get(i);
+        int row = toRow(i);
+        if (row == NO_ROW) return null;
+        if (row < 0) return loadImageFromSnapshot(mAdded, -1 - row);
+        ColumnSnapshot snapshot = mSnapshot;
+        if (snapshot != null) return loadImageFromSnapshot(snapshot, row);
+        BaseImage result = mCache.get(row);
         if (result == null) {
             Cursor cursor = getCursor();
             if (cursor == null) return null;
             synchronized (this) {
-                result = cursor.moveToPosition(i)
+                result = cursor.moveToPosition(row)
                         ? loadImageFromCursor(cursor)
                         : null;
-                mCache.put(i, result);
+                mCache.put(row, result);
             }
         }
         return result;
     }
 
+    /**
+     * Reads the dates taken of the images in [from, from + dates.length) into
+     * {@code dates} without creating the images. Returns the number of dates
+     * read, which is less than requested if the list is shorter.
+     */
+    public int getDatesTaken(int from, long[] dates) {
+        ColumnSnapshot snapshot = mSnapshot;
+        Cursor cursor = snapshot == null ? getCursor() : null;
+        if (snapshot == null && cursor == null) return 0;
+        synchronized (this) {
+            ColumnSnapshot added = mAdded;
+            int n = 0;
+            for (; n < dates.length; ++n) {
+                int row = toRow(from + n);
+                if (row == NO_ROW) break;
+                if (row < 0) {
+                    dates[n] = added.getDateTaken(-1 - row);
+                } else if (snapshot != null) {
+                    dates[n] = snapshot.getDateTaken(row);
+                } else {
+                    if (!cursor.moveToPosition(row)) break;
+                    dates[n] = loadDateTakenFromCursor(cursor);
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Returns the id of the image at position i, or -1 if there is no such
+     * position.
+     */
+    public long getImageId(int i) {
+        int row = toRow(i);
+        ColumnSnapshot rows = getRows(row);
+        if (rows != null) return rows.getId(toIndex(row));
+        // In the cursor mode only the one column is read.
+        Cursor cursor = getCursor(row);
+        if (cursor == null) return -1;
+        synchronized (this) {
+            return cursor.moveToPosition(row) ? loadIdFromCursor(cursor) : -1;
+        }
+    }
+
+    public String getMimeType(int i) {
+        int row = toRow(i);
+        ColumnSnapshot rows = getRows(row);
+        if (rows != null) return rows.getMimeType(toIndex(row));
+        Cursor cursor = getCursor(row);
+        if (cursor == null) return null;
+        synchronized (this) {
+            return cursor.moveToPosition(row)
+                    ? loadMimeTypeFromCursor(cursor)
+                    : null;
+        }
+    }
+
+    public String getDataPath(int i) {
+        int row = toRow(i);
+        ColumnSnapshot rows = getRows(row);
+        if (rows != null) return rows.getDataPath(toIndex(row));
+        Cursor cursor = getCursor(row);
+        if (cursor == null) return null;
+        synchronized (this) {
+            return cursor.moveToPosition(row)
+                    ? loadDataPathFromCursor(cursor)
+                    : null;
+        }
+    }
+
+    // Returns the columns holding the given row: the added rows or the
+    // snapshot. Returns null in the cursor mode.
+    private ColumnSnapshot getRows(int row) {
+        if (row == NO_ROW) return null;
+        return row < 0 ? mAdded : mSnapshot;
+    }
+
+    // Returns the cursor to read the given row from, or null if the row is
+    // not in the cursor.
+    private Cursor getCursor(int row) {
+        return row == NO_ROW || row < 0 ? null : getCursor();
+    }
+
+    private static int toIndex(int row) {
+        return row < 0 ? -1 - row : row;
+    }
+
     protected abstract Cursor createCursor();
 
+    /**
+     * Creates a cursor over the rows with an id larger than {@code id}, in
+     * ascending order.
+     */
+    protected abstract Cursor createCursorAfter(long id);
+
     protected abstract BaseImage loadImageFromCursor(Cursor cursor);
 
+    protected abstract long loadDateTakenFromCursor(Cursor cursor);
+
+    protected abstract long loadIdFromCursor(Cursor cursor);
+
+    protected abstract String loadMimeTypeFromCursor(Cursor cursor);
+
+    protected abstract String loadDataPathFromCursor(Cursor cursor);
+
+    protected abstract void loadRowFromCursor(
+            Cursor cursor, ColumnSnapshot snapshot, int row);
+
+    protected abstract BaseImage loadImageFromSnapshot(
+            ColumnSnapshot snapshot, int row);
+
     protected void invalidateCursor() {
         if (mCursor == null) return;
         mCursor.deactivate();
         mCursorDeactivated = true;
     }
 
+    // Appends the condition on the id to a where clause.
+    protected static String whereIdAfter(String where, long id) {
+        String condition = "_id > " + id;
+        return where == null
+                ? condition
+                : "(" + where + ") AND " + condition;
+    }
+
     // This provides a default sorting order string for subclasses.
     // The list is first sorted by date, then by id. The order can be ascending
     // or descending, depending on the mSort variable.
     // The date is obtained from the "datetaken" column. But if it is null,
     // the "date_modified" column is used instead.
     protected String sortOrder() {
-        String ascending =
-                (mSort == ImageManager.SORT_ASCENDING)
-                ? " ASC"
-                : " DESC";
+        return sortOrder(mSort == ImageManager.SORT_ASCENDING);
+    }
+
+    protected String sortOrder(boolean isAscending) {
+        String ascending = isAscending ? " ASC" : " DESC";
 
         // Use DATE_TAKEN if it's non-null, otherwise use DATE_MODIFIED.
         // DATE_TAKEN is in milliseconds, but DATE_MODIFIED is in seconds.
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.camera.gallery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A read-only copy of the rows of an image list, stored column by column in
+ * primitive arrays. Reading a row neither moves a cursor nor takes a lock,
+ * and no object is kept per row.
+ *
+ * <p>Strings are pooled: the mime types and the directories of the data
+ * paths repeat across rows and are stored once, and the file names are
+ * packed into a single char array.
+ */
+class ColumnSnapshot {
+    private final int mCount;
+    private final long[] mIds;
+    private final long[] mDatesTaken;
+    private final long[] mDatesModified;
+    private final long[] mMiniThumbMagics;
+    private final int[] mOrientations;
+
+    // Indexes into mStrings, or -1 for null. A directory of NO_PATH marks a
+    // null data path.
+    private static final int NO_PATH = -2;
+    private final int[] mMimeTypes;
+    private final int[] mDirectories;
+
+    // The file name of row i is mNames[mNameOffsets[i] .. mNameOffsets[i+1]).
+    private final int[] mNameOffsets;
+    private char[] mNames;
+    private int mNamesLength;
+
+    private final ArrayList<String> mStrings = new ArrayList<String>();
+    private final HashMap<String, Integer> mStringIds =
+            new HashMap<String, Integer>();
+
+    ColumnSnapshot(int count) {
+        mCount = count;
+        mIds = new long[count];
+        mDatesTaken = new long[count];
+        mDatesModified = new long[count];
+        mMiniThumbMagics = new long[count];
+        mOrientations = new int[count];
+        mMimeTypes = new int[count];
+        mDirectories = new int[count];
+        mNameOffsets = new int[count + 1];
+        // Guess 24 chars per file name, e.g. "IMG_20101010_101010.jpg".
+        mNames = new char[count * 24];
+    }
+
+    // Rows must be set in order, starting from 0.
+    void setRow(int row, long id, long dateTaken, long dateModified,
+            long miniThumbMagic, int orientation, String mimeType,
+            String dataPath) {
+        mIds[row] = id;
+        mDatesTaken[row] = dateTaken;
+        mDatesModified[row] = dateModified;
+        mMiniThumbMagics[row] = miniThumbMagic;
+        mOrientations[row] = orientation;
+        mMimeTypes[row] = pool(mimeType);
+
+        mNameOffsets[row] = mNamesLength;
+        if (dataPath == null) {
+            mDirectories[row] = NO_PATH;
+            mNameOffsets[row + 1] = mNamesLength;
+            return;
+        }
+        int slash = dataPath.lastIndexOf('/');
+        mDirectories[row] = slash < 0 ? -1 : pool(dataPath.substring(0, slash));
+        int length = dataPath.length() - slash - 1;
+        if (mNamesLength + length > mNames.length) {
+            char[] names = new char[Math.max(
+                    mNamesLength + length, mNames.length * 2)];
+            System.arraycopy(mNames, 0, names, 0, mNamesLength);
+            mNames = names;
+        }
+        dataPath.getChars(slash + 1, dataPath.length(), mNames, mNamesLength);
+        mNamesLength += length;
+        mNameOffsets[row + 1] = mNamesLength;
+    }
+
+    private int pool(String value) {
+        if (value == null) return -1;
+        Integer id = mStringIds.get(value);
+        if (id == null) {
+            id = mStrings.size();
+            mStrings.add(value);
+            mStringIds.put(value, id);
+        }
+        return id;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    long getId(int row) {
+        return mIds[row];
+    }
+
+    long getDateTaken(int row) {
+        return mDatesTaken[row];
+    }
+
+    long getDateModified(int row) {
+        return mDatesModified[row];
+    }
+
+    long getMiniThumbMagic(int row) {
+        return mMiniThumbMagics[row];
+    }
+
+    int getOrientation(int row) {
+        return mOrientations[row];
+    }
+
+    String getMimeType(int row) {
+        int id = mMimeTypes[row];
+        return id < 0 ? null : mStrings.get(id);
+    }
+
+    String getDataPath(int row) {
+        int directory = mDirectories[row];
+        if (directory == NO_PATH) return null;
+        int start = mNameOffsets[row];
+        String name = new String(mNames, start, mNameOffsets[row + 1] - start);
+        return directory < 0 ? name : mStrings.get(directory) + "/" + name;
+    }
+
+    // Returns a new snapshot holding the rows of this one followed by the
+    // rows of the other.
+    ColumnSnapshot append(ColumnSnapshot other) {
+        ColumnSnapshot result = new ColumnSnapshot(mCount + other.mCount);
+        for (int i = 0; i < mCount; ++i) result.copyRow(i, this, i);
+        for (int i = 0; i < other.mCount; ++i) {
+            result.copyRow(mCount + i, other, i);
+        }
+        return result;
+    }
+
+    private void copyRow(int row, ColumnSnapshot from, int fromRow) {
+        setRow(row, from.mIds[fromRow], from.mDatesTaken[fromRow],
+                from.mDatesModified[fromRow], from.mMiniThumbMagics[fromRow],
+                from.mOrientations[fromRow], from.getMimeType(fromRow),
+                from.getDataPath(fromRow));
+    }
+
+    // Copies the dates taken of rows [from, from + dates.length) and returns
+    // the number of dates copied.
+    int getDatesTaken(int from, long[] dates) {
+        int n = Math.max(0, Math.min(dates.length, mCount - from));
+        if (n > 0) System.arraycopy(mDatesTaken, from, dates, 0, n);
+        return n;
+    }
+}
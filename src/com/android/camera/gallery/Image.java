@@ -27,10 +27,10 @@ public class Image extends BaseImage implements IImage {
 
     public Image(ContentResolver cr,
             long id, Uri uri, long miniThumbMagic,
-            long dateTaken,
+            long dateTaken, long dateModified,
             int rotation) {
         super(cr, id, uri, miniThumbMagic,
-                dateTaken);
+                dateTaken, dateModified);
         mRotation = rotation;
     }
 
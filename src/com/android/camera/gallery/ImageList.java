@@ -70,30 +70,85 @@ public class ImageList extends BaseImageList implements IImageList {
         return c;
     }
 
+    @Override
+    protected Cursor createCursorAfter(long id) {
+        return Media.query(
+                mContentResolver, mBaseUri, IMAGE_PROJECTION,
+                whereIdAfter(whereClause(), id), whereClauseArgs(),
+                sortOrder(true));
+    }
+
     static final String[] IMAGE_PROJECTION = new String[] {
             Media._ID,
             Media.DATE_TAKEN,
             Media.MINI_THUMB_MAGIC,
             Media.ORIENTATION,
-            Media.DATE_MODIFIED};
+            Media.DATE_MODIFIED,
+            Media.MIME_TYPE,
+            Media.DATA};
 
     private static final int INDEX_ID = 0;
     private static final int INDEX_DATE_TAKEN = 1;
     private static final int INDEX_MINI_THUMB_MAGIC = 2;
     private static final int INDEX_ORIENTATION = 3;
     private static final int INDEX_DATE_MODIFIED = 4;
+    private static final int INDEX_MIME_TYPE = 5;
+    private static final int INDEX_DATA = 6;
 
     @Override
     protected BaseImage loadImageFromCursor(Cursor cursor) {
         long id = cursor.getLong(INDEX_ID);
-        long dateTaken = cursor.getLong(INDEX_DATE_TAKEN);
-        if (dateTaken == 0) {
-            dateTaken = cursor.getLong(INDEX_DATE_MODIFIED) * 1000;
-        }
+        long dateTaken = loadDateTakenFromCursor(cursor);
         long miniThumbMagic = cursor.getLong(INDEX_MINI_THUMB_MAGIC);
+        long dateModified = cursor.getLong(INDEX_DATE_MODIFIED);
         int orientation = cursor.getInt(INDEX_ORIENTATION);
         return new Image(mContentResolver, id,
-                contentUri(id), miniThumbMagic, dateTaken,
+                contentUri(id), miniThumbMagic, dateTaken, dateModified,
                 orientation);
     }
+
+    @Override
+    protected long loadDateTakenFromCursor(Cursor cursor) {
+        long dateTaken = cursor.getLong(INDEX_DATE_TAKEN);
+        if (dateTaken == 0) {
+            dateTaken = cursor.getLong(INDEX_DATE_MODIFIED) * 1000;
+        }
+        return dateTaken;
+    }
+
+    @Override
+    protected long loadIdFromCursor(Cursor cursor) {
+        return cursor.getLong(INDEX_ID);
+    }
+
+    @Override
+    protected String loadMimeTypeFromCursor(Cursor cursor) {
+        return cursor.getString(INDEX_MIME_TYPE);
+    }
+
+    @Override
+    protected String loadDataPathFromCursor(Cursor cursor) {
+        return cursor.getString(INDEX_DATA);
+    }
+
+    @Override
+    protected void loadRowFromCursor(
+            Cursor cursor, ColumnSnapshot snapshot, int row) {
+        snapshot.setRow(row, cursor.getLong(INDEX_ID),
+                loadDateTakenFromCursor(cursor),
+                cursor.getLong(INDEX_DATE_MODIFIED),
+                cursor.getLong(INDEX_MINI_THUMB_MAGIC),
+                cursor.getInt(INDEX_ORIENTATION),
+                cursor.getString(INDEX_MIME_TYPE),
+                cursor.getString(INDEX_DATA));
+    }
+
+    @Override
+    protected BaseImage loadImageFromSnapshot(
+            ColumnSnapshot snapshot, int row) {
+        long id = snapshot.getId(row);
+        return new Image(mContentResolver, id, contentUri(id),
+                snapshot.getMiniThumbMagic(row), snapshot.getDateTaken(row),
+                snapshot.getDateModified(row), snapshot.getOrientation(row));
+    }
 }
@@ -19,172 +19,193 @@ package com.android.camera.gallery;
 import com.android.camera.ImageManager;
 
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.PriorityQueue;
 
 /**
  * A union of different <code>IImageList</code>. This class can merge several
  * <code>IImageList</code> into one list and sort them according to the
  * timestamp (The sorting must be same as all the given lists).
+ *
+ * <p>The merged index is kept oldest first, whatever the sort order, so the
+ * entries that the sublists gain at their newest end are merged at the end
+ * of the index without moving the others.
  */
 public class ImageListUber implements IImageList {
     @SuppressWarnings("unused")
     private static final String TAG = "ImageListUber";
 
     private final IImageList [] mSubList;
-    private final PriorityQueue<MergeSlot> mQueue;
+    private final boolean mAscending;
 
-    // This is an array of Longs wherein each Long consists of two components:
-    // "a number" and "an index of sublist".
-    //   * The lower 32bit indicates the number of consecutive entries that
-    //     belong to a given sublist.
-    //
+    // The merged index, oldest first. Each entry locates one image:
     //   * The higher 32bit component indicates which sublist we're referring
     //     to.
-    private long[] mSkipList;
-    private int mSkipListSize;
-    private final int [] mSkipCounts;
-    private int mLastListIndex;
+    //   * The lower 32bit is the age rank of the entry in that sublist: 0 is
+    //     its oldest entry.
+    private long[] mIndex = new long[0];
+
+    // The number of entries in mIndex, which is the count of the union.
+    private int mCount;
+
+    // How many entries of each sublist have been merged into mIndex, and the
+    // generations of the sublists at that time.
+    private final int [] mMergedCounts;
+    private final int [] mGenerations;
+    private boolean mMerged;
+
+    // Set when a sublist reports a change of its content.
+    private volatile boolean mChanged;
+
+    private final BaseImageList.OnChangeListener mChangeListener =
+            new BaseImageList.OnChangeListener() {
+        public void onChange(BaseImageList list) {
+            mChanged = true;
+        }
+    };
 
     public ImageListUber(IImageList [] sublist, int sort) {
         mSubList = sublist.clone();
-        mQueue = new PriorityQueue<MergeSlot>(4,
-                sort == ImageManager.SORT_ASCENDING
-                ? new AscendingComparator()
-                : new DescendingComparator());
-        mSkipList = new long[16];
-        mSkipListSize = 0;
-        mSkipCounts = new int[mSubList.length];
-        mLastListIndex = -1;
-        mQueue.clear();
-        for (int i = 0, n = mSubList.length; i < n; ++i) {
-            IImageList list = mSubList[i];
-            MergeSlot slot = new MergeSlot(list, i);
-            if (slot.next()) mQueue.add(slot);
+        mAscending = sort == ImageManager.SORT_ASCENDING;
+        mMergedCounts = new int[mSubList.length];
+        mGenerations = new int[mSubList.length];
+        for (IImageList list : mSubList) {
+            if (list instanceof BaseImageList) {
+                ((BaseImageList) list).setOnChangeListener(mChangeListener);
+            }
         }
     }
 
-    public int getCount() {
-        int count = 0;
-        for (IImageList subList : mSubList) {
-            count += subList.getCount();
-        }
-        return count;
+    public synchronized int getCount() {
+        // Cheap when nothing was added: it only asks the sublists for their
+        // counts.
+        merge();
+        return mCount;
     }
 
-    // mSkipCounts is used to tally the counts as we traverse
-    // the mSkipList.  It's a member variable only so that
-    // we don't have to allocate each time through.  Otherwise
-    // it could just as easily be a local.
-    public IImage getImageAt(int index) {
-        if (index < 0 || index > getCount()) {
+    public synchronized IImage getImageAt(int index) {
+        if (!mMerged || mChanged || index >= mCount) merge();
+        if (index < 0 || index > mCount) {
             throw new IndexOutOfBoundsException(
-                    "index " + index + " out of range max is " + getCount());
+                    "index " + index + " out of range max is " + mCount);
         }
+        if (index == mCount) return null;
+        long entry = mIndex[mAscending ? index : mCount - 1 - index];
+        int which = (int) (entry >>> 32);
+        int rank = (int) entry;
+        IImageList list = mSubList[which];
+        // The ranks don't move when a sublist grows, but the positions of a
+        // descending one do.
+        return list.getImageAt(mAscending ? rank : list.getCount() - 1 - rank);
+    }
 
-        int skipCounts[] = mSkipCounts;
-        // zero out the mSkipCounts since that's only used for the
-        // duration of the function call.
-        Arrays.fill(skipCounts, 0);
-
-        // a counter of how many images we've skipped in
-        // trying to get to index.  alternatively we could
-        // have decremented index but, alas, I liked this
-        // way more.
-        int skipCount = 0;
-
-        // scan the existing mSkipList to see if we've computed
-        // enough to just return the answer
-        for (int i = 0, n = mSkipListSize; i < n; ++i) {
-            long v = mSkipList[i];
-
-            int offset = (int) (v & 0xFFFFFFFF);
-            int which  = (int) (v >> 32);
-            if (skipCount + offset > index) {
-                int subindex = mSkipCounts[which] + (index - skipCount);
-                return mSubList[which].getImageAt(subindex);
+    // Merges the entries added to the sublists since the last call into
+    // mIndex. The sublists are expected to only grow at their newest end, so
+    // the merged entries stay valid and the cost is in the number of new
+    // entries; if one of them shrinks or is queried again as a whole, the
+    // index is rebuilt from scratch.
+    private void merge() {
+        mMerged = true;
+        mChanged = false;
+        int listCount = mSubList.length;
+        int[] counts = new int[listCount];
+        int added = 0;
+        for (int i = 0; i < listCount; ++i) {
+            // This brings a BaseImageList up to date.
+            counts[i] = mSubList[i].getCount();
+            int generation = getGeneration(mSubList[i]);
+            if (counts[i] < mMergedCounts[i]
+                    || generation != mGenerations[i]) {
+                mCount = 0;
+                for (int j = 0; j < listCount; ++j) {
+                    mMergedCounts[j] = 0;
+                    mGenerations[j] = getGeneration(mSubList[j]);
+                }
+                merge();
+                return;
             }
-            skipCount += offset;
-            mSkipCounts[which] += offset;
+            added += counts[i] - mMergedCounts[i];
         }
-
-        for (; true; ++skipCount) {
-            MergeSlot slot = nextMergeSlot();
-            if (slot == null) return null;
-            if (skipCount == index) {
-                IImage result = slot.mImage;
-                if (slot.next()) mQueue.add(slot);
-                return result;
+        if (added == 0) return;
+
+        // Read the dates of the new entries as primitive columns, so that no
+        // image is created during the merge. They are put oldest first.
+        long[][] dates = new long[listCount][];
+        for (int i = 0; i < listCount; ++i) {
+            int n = counts[i] - mMergedCounts[i];
+            dates[i] = new long[n];
+            int read = readDatesTaken(mSubList[i],
+                    mAscending ? mMergedCounts[i] : 0, dates[i]);
+            if (read < n) {
+                // The sublist changed under us; merge what is sure and
+                // look again next time.
+                mChanged = true;
+                if (!mAscending) read = 0;
+                dates[i] = Arrays.copyOf(dates[i], read);
+                added -= n - read;
+                counts[i] = mMergedCounts[i] + read;
+            } else if (!mAscending) {
+                reverse(dates[i]);
             }
-            if (slot.next()) mQueue.add(slot);
         }
-    }
 
-    private MergeSlot nextMergeSlot() {
-        MergeSlot slot = mQueue.poll();
-        if (slot == null) return null;
-        if (slot.mListIndex == mLastListIndex) {
-            int lastIndex = mSkipListSize - 1;
-            ++mSkipList[lastIndex];
-        } else {
-            mLastListIndex = slot.mListIndex;
-            if (mSkipList.length == mSkipListSize) {
-                long [] temp = new long[mSkipListSize * 2];
-                System.arraycopy(mSkipList, 0, temp, 0, mSkipListSize);
-                mSkipList = temp;
-            }
-            mSkipList[mSkipListSize++] = (((long) mLastListIndex) << 32) | 1;
+        if (mIndex.length < mCount + added) {
+            long[] index =
+                    new long[Math.max(mCount + added, mIndex.length * 2)];
+            System.arraycopy(mIndex, 0, index, 0, mCount);
+            mIndex = index;
         }
-        return slot;
-    }
-
-    private static class DescendingComparator implements Comparator<MergeSlot> {
 
-        public int compare(MergeSlot m1, MergeSlot m2) {
-            if (m1.mDateTaken != m2.mDateTaken) {
-                return m1.mDateTaken < m2.mDateTaken ? 1 : -1;
+        // A k-way merge. There are only a few sublists (images and videos),
+        // so a linear scan over their heads beats a heap.
+        int[] heads = new int[listCount];
+        long[] index = mIndex;
+        int count = mCount;
+        for (int end = mCount + added; count < end; ++count) {
+            int which = -1;
+            long best = 0;
+            for (int i = 0; i < listCount; ++i) {
+                if (heads[i] == dates[i].length) continue;
+                long date = dates[i][heads[i]];
+                // In the sort order, ties go to the sublist with the lower
+                // index; the index is oldest first, so they go last here.
+                if (which == -1 || date < best
+                        || (date == best && !mAscending)) {
+                    which = i;
+                    best = date;
+                }
             }
-            return m1.mListIndex - m2.mListIndex;
+            index[count] = (((long) which) << 32)
+                    | (mMergedCounts[which] + heads[which]);
+            ++heads[which];
         }
+        mCount = count;
+        for (int i = 0; i < listCount; ++i) mMergedCounts[i] = counts[i];
     }
 
-    private static class AscendingComparator implements Comparator<MergeSlot> {
+    private static int getGeneration(IImageList list) {
+        return list instanceof BaseImageList
+                ? ((BaseImageList) list).getGeneration()
+                : 0;
+    }
 
-        public int compare(MergeSlot m1, MergeSlot m2) {
-            if (m1.mDateTaken != m2.mDateTaken) {
-                return m1.mDateTaken < m2.mDateTaken ? -1 : 1;
-            }
-            return m1.mListIndex - m2.mListIndex;
+    private static void reverse(long[] values) {
+        for (int i = 0, j = values.length - 1; i < j; ++i, --j) {
+            long t = values[i];
+            values[i] = values[j];
+            values[j] = t;
         }
     }
 
-    /**
-     * A merging slot is used to trace the current position of a sublist. For
-     * each given sub list, there will be one corresponding merge slot. We
-     * use merge-sort-like algorithm to build the merged list. At begining,
-     * we put all the slots in a sorted heap (by timestamp). Each time, we
-     * pop the slot with earliest timestamp out, get the image, and then move
-     * the index forward, and put it back to the heap.
-     */
-    private static class MergeSlot {
-        private int mOffset = -1;
-        private final IImageList mList;
-
-        int mListIndex;
-        long mDateTaken;
-        IImage mImage;
-
-        public MergeSlot(IImageList list, int index) {
-            mList = list;
-            mListIndex = index;
+    private static int readDatesTaken(
+            IImageList list, int from, long[] dates) {
+        if (list instanceof BaseImageList) {
+            return ((BaseImageList) list).getDatesTaken(from, dates);
         }
-
-        public boolean next() {
-            if (mOffset >= mList.getCount() - 1) return false;
-            mImage = mList.getImageAt(++mOffset);
-            mDateTaken = mImage.getDateTaken();
-            return true;
+        for (int i = 0, n = dates.length; i < n; ++i) {
+            IImage image = list.getImageAt(from + i);
+            if (image == null) return i;
+            dates[i] = image.getDateTaken();
         }
+        return dates.length;
     }
 
     public void close() {
@@ -16,31 +16,79 @@
 
 package com.android.camera.gallery;
 
+import android.graphics.Bitmap;
+
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An LRU cache which stores recently inserted entries and all entries ever
  * inserted which still has a strong reference elsewhere.
+ *
+ * <p>The size of the cache is the total weight of its entries. By default
+ * every entry weighs 1, so the capacity is a number of entries; with a
+ * {@link Weigher} such as {@link BitmapWeigher} it can be a number of bytes.
+ * Entries evicted to stay within the capacity are remembered weakly until
+ * they are garbage collected.
+ *
+ * <p>To reduce the contention, a large cache is split into segments by the
+ * hash of the key, each with its own lock and a share of the capacity. The
+ * eviction order is then least recently used per segment.
  */
 public class LruCache<K, V> {
 
-    private final HashMap<K, V> mLruMap;
-    private final HashMap<K, Entry<K, V>> mWeakMap =
-            new HashMap<K, Entry<K, V>>();
-    private ReferenceQueue<V> mQueue = new ReferenceQueue<V>();
-
-    @SuppressWarnings("serial")
-    public LruCache(final int capacity) {
-        mLruMap = new LinkedHashMap<K, V>(16, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-                return size() > capacity;
+    /** Computes the size of an entry in the unit of the capacity. */
+    public interface Weigher<K, V> {
+        public int weigh(K key, V value);
+    }
+
+    /** Weighs bitmaps by the bytes of their pixels. */
+    public static class BitmapWeigher<K> implements Weigher<K, Bitmap> {
+        public int weigh(K key, Bitmap value) {
+            return value.getRowBytes() * value.getHeight();
+        }
+    }
+
+    // A segment is only worth its lock when it holds this many entries.
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+    private static final int MAX_SEGMENT_COUNT = 8;
+
+    private final Segment<K, V>[] mSegments;
+    private final Weigher<K, V> mWeigher;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    public LruCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates a cache holding up to {@code capacity} in total weight. A
+     * null weigher weighs each entry as 1.
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(long capacity, Weigher<K, V> weigher) {
+        mWeigher = weigher;
+        // Only count-limited caches are segmented by their capacity; a
+        // weighted cache doesn't know how many entries it will hold.
+        int segmentCount = 1;
+        if (weigher == null) {
+            while (segmentCount < MAX_SEGMENT_COUNT
+                    && capacity / (segmentCount * 2) >= MIN_SEGMENT_CAPACITY) {
+                segmentCount *= 2;
             }
-        };
+        }
+        mSegments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        for (int i = 0; i < segmentCount; ++i) {
+            mSegments[i] = new Segment<K, V>(this, capacity / segmentCount);
+        }
     }
 
     private static class Entry<K, V> extends WeakReference<V> {
@@ -52,34 +100,158 @@ public class LruCache<K, V> {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void cleanUpWeakMap() {
-        Entry<K, V> entry = (Entry<K, V>) mQueue.poll();
-        while (entry != null) {
-            mWeakMap.remove(entry.mKey);
-            entry = (Entry<K, V>) mQueue.poll();
+    private static class Segment<K, V> {
+        private final LruCache<K, V> mCache;
+        private final long mCapacity;
+        private long mSize;
+
+        // The values held strongly, and their weights.
+        private final LinkedHashMap<K, V> mLruMap =
+                new LinkedHashMap<K, V>(16, 0.75f, true);
+        private final HashMap<K, Integer> mWeights = new HashMap<K, Integer>();
+
+        // The evicted values which may still be in use elsewhere.
+        private final HashMap<K, Entry<K, V>> mWeakMap =
+                new HashMap<K, Entry<K, V>>();
+        private ReferenceQueue<V> mQueue = new ReferenceQueue<V>();
+
+        Segment(LruCache<K, V> cache, long capacity) {
+            mCache = cache;
+            mCapacity = capacity;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void cleanUpWeakMap() {
+            Entry<K, V> entry = (Entry<K, V>) mQueue.poll();
+            while (entry != null) {
+                // The key may have been reused by a newer entry.
+                if (mWeakMap.get(entry.mKey) == entry) {
+                    mWeakMap.remove(entry.mKey);
+                }
+                entry = (Entry<K, V>) mQueue.poll();
+            }
+        }
+
+        synchronized V put(K key, V value) {
+            cleanUpWeakMap();
+            V old = remove(key);
+            if (value == null) return old;
+            int weight = mCache.weigh(key, value);
+            mLruMap.put(key, value);
+            mWeights.put(key, weight);
+            mSize += weight;
+            trimToCapacity();
+            return old;
+        }
+
+        synchronized V get(K key) {
+            cleanUpWeakMap();
+            V value = mLruMap.get(key);
+            if (value != null) return value;
+            Entry<K, V> entry = mWeakMap.get(key);
+            value = entry == null ? null : entry.get();
+            if (value != null) {
+                // It is in use again: bring it back to the LRU list.
+                mWeakMap.remove(key);
+                int weight = mCache.weigh(key, value);
+                mLruMap.put(key, value);
+                mWeights.put(key, weight);
+                mSize += weight;
+                trimToCapacity();
+            }
+            return value;
+        }
+
+        // Removes the key from both maps and returns the old value, if any.
+        private V remove(K key) {
+            V value = mLruMap.remove(key);
+            if (value != null) {
+                mSize -= mWeights.remove(key);
+                return value;
+            }
+            Entry<K, V> entry = mWeakMap.remove(key);
+            return entry == null ? null : entry.get();
+        }
+
+        private void trimToCapacity() {
+            Iterator<Map.Entry<K, V>> iter = mLruMap.entrySet().iterator();
+            while (mSize > mCapacity && iter.hasNext()) {
+                Map.Entry<K, V> eldest = iter.next();
+                K key = eldest.getKey();
+                iter.remove();
+                mSize -= mWeights.remove(key);
+                mWeakMap.put(key,
+                        new Entry<K, V>(key, eldest.getValue(), mQueue));
+                mCache.mEvictionCount.incrementAndGet();
+            }
+        }
+
+        synchronized long size() {
+            return mSize;
+        }
+
+        synchronized void clear() {
+            mLruMap.clear();
+            mWeights.clear();
+            mWeakMap.clear();
+            mQueue = new ReferenceQueue<V>();
+            mSize = 0;
+        }
+    }
+
+    private int weigh(K key, V value) {
+        return mWeigher == null ? 1 : mWeigher.weigh(key, value);
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        if (mSegments.length == 1) return mSegments[0];
+        // Spread the bits, so the keys which are small integers (positions
+        // in a list) are evenly distributed.
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return mSegments[h & (mSegments.length - 1)];
+    }
+
+    public V put(K key, V value) {
+        return segmentFor(key).put(key, value);
+    }
+
+    public V get(K key) {
+        V value = segmentFor(key).get(key);
+        if (value != null) {
+            mHitCount.incrementAndGet();
+        } else {
+            mMissCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : mSegments) {
+            segment.clear();
+        }
+    }
+
+    /** Returns the total weight of the entries held strongly. */
+    public long size() {
+        long size = 0;
+        for (Segment<K, V> segment : mSegments) {
+            size += segment.size();
         }
+        return size;
     }
 
-    public synchronized V put(K key, V value) {
-        cleanUpWeakMap();
-        mLruMap.put(key, value);
-        Entry<K, V> entry = mWeakMap.put(
-                key, new Entry<K, V>(key, value, mQueue));
-        return entry == null ? null : entry.get();
+    public long getHitCount() {
+        return mHitCount.get();
     }
 
-    public synchronized V get(K key) {
-        cleanUpWeakMap();
-        V value = mLruMap.get(key);
-        if (value != null) return value;
-        Entry<K, V> entry = mWeakMap.get(key);
-        return entry == null ? null : entry.get();
+    public long getMissCount() {
+        return mMissCount.get();
     }
 
-    public synchronized void clear() {
-        mLruMap.clear();
-        mWeakMap.clear();
-        mQueue = new ReferenceQueue<V>();
+    /** Returns how many entries were evicted to stay within the capacity. */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
     }
 }
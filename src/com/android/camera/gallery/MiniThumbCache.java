@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.camera.gallery;
+
+import com.android.camera.ImageManager;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A two-tier cache of the micro thumbnails of the images and videos, so
+ * they can be shown without asking MediaStore (which may have to extract a
+ * video frame).
+ *
+ * <p>The first tier is a byte-bounded {@link LruCache} of bitmaps. The
+ * second tier is a {@link ThumbnailBlobFile} of JPEG-encoded thumbnails on
+ * the external storage. An entry is keyed by the media id and whether it is
+ * a video, and is only valid for the version it was stored with, so a
+ * modified image gets a new thumbnail.
+ *
+ * <p>The returned bitmaps are shared and must not be recycled.
+ */
+public class MiniThumbCache {
+    private static final int MEMORY_CAPACITY = 1024 * 1024;
+    private static final long DISK_CAPACITY = 4 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 90;
+
+    private static MiniThumbCache sInstance;
+
+    private final LruCache<Long, Thumb> mMemory;
+    private final ThumbnailBlobFile mDisk;
+
+    private static class Thumb {
+        final long mVersion;
+        final Bitmap mBitmap;
+
+        Thumb(long version, Bitmap bitmap) {
+            mVersion = version;
+            mBitmap = bitmap;
+        }
+    }
+
+    private static class ThumbWeigher
+            implements LruCache.Weigher<Long, Thumb> {
+        public int weigh(Long key, Thumb value) {
+            Bitmap b = value.mBitmap;
+            return b.getRowBytes() * b.getHeight();
+        }
+    }
+
+    public static synchronized MiniThumbCache instance() {
+        if (sInstance == null) {
+            sInstance = new MiniThumbCache(
+                    ImageManager.getMiniThumbCachePath());
+        }
+        return sInstance;
+    }
+
+    private MiniThumbCache(String path) {
+        mMemory = new LruCache<Long, Thumb>(
+                MEMORY_CAPACITY, new ThumbWeigher());
+        mDisk = new ThumbnailBlobFile(path, DISK_CAPACITY);
+    }
+
+    public static long getKey(long id, boolean isVideo) {
+        return (id << 1) | (isVideo ? 1 : 0);
+    }
+
+    /**
+     * Returns the thumbnail stored for the key at the given version, or null
+     * if there is none.
+     */
+    public Bitmap get(long key, long version) {
+        Thumb thumb = mMemory.get(key);
+        if (thumb != null && thumb.mVersion == version
+                && !thumb.mBitmap.isRecycled()) {
+            return thumb.mBitmap;
+        }
+        byte[] data = mDisk.get(key, version);
+        if (data == null) return null;
+        Bitmap bitmap = null;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+        } catch (OutOfMemoryError ex) {
+            // Treat it as a miss.
+        }
+        if (bitmap != null) mMemory.put(key, new Thumb(version, bitmap));
+        return bitmap;
+    }
+
+    public void put(long key, long version, Bitmap bitmap) {
+        mMemory.put(key, new Thumb(version, bitmap));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+            mDisk.put(key, version, out.toByteArray());
+        }
+    }
+
+    /** Saves the disk index, for example when the activity pauses. */
+    public void flush() {
+        mDisk.close();
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.camera.gallery;
+
+import com.android.camera.Util;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.zip.Adler32;
+
+/**
+ * A disk store of small blobs (encoded thumbnails) keyed by a long, kept in
+ * a single append-only file.
+ *
+ * <p>Each record in the blob file carries its key, a version, the length
+ * and a checksum of the data. The location of the records is kept in
+ * memory and saved to an index file now and then. The index remembers how
+ * much of the blob file it covers, so after a crash only the records
+ * appended since it was saved are scanned again. A record that is torn or
+ * fails its checksum is dropped: at the end of the file it is truncated,
+ * and elsewhere it is just forgotten.
+ *
+ * <p>When the file would grow beyond its capacity, it is compacted: the
+ * most recently used records are copied to a new file until it is half
+ * full, and the rest are evicted.
+ */
+class ThumbnailBlobFile {
+    private static final String TAG = "ThumbnailBlobFile";
+
+    private static final int BLOB_MAGIC = 0xB10BF11E;
+    private static final int INDEX_MAGIC = 0xB10B1D3E;
+    private static final int RECORD_MAGIC = 0x7EC0;
+    private static final int VERSION = 1;
+
+    private static final int FILE_HEADER_SIZE = 8;
+    // magic, key, version, length, checksum
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 4 + 4;
+
+    // Save the index after this many records are appended.
+    private static final int INDEX_SAVE_INTERVAL = 16;
+
+    private final File mBlobFile;
+    private final File mIndexFile;
+    private final long mCapacity;
+    private final int mMaxBlobSize;
+
+    private RandomAccessFile mBlob;
+    private long mLength;
+    private final HashMap<Long, Record> mRecords = new HashMap<Long, Record>();
+    private long mUseCount;
+    private int mUnsavedCount;
+    // Set when a get() changed the order of use since the index was saved.
+    private boolean mUsedSinceSave;
+
+    private static class Record {
+        final long mKey;
+        final long mVersion;
+        final long mOffset;
+        final int mLength;
+        long mLastUsed;
+
+        Record(long key, long version, long offset, int length) {
+            mKey = key;
+            mVersion = version;
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+
+    // Orders the records from the least to the most recently used.
+    private static final Comparator<Record> LAST_USED_ORDER =
+            new Comparator<Record>() {
+        public int compare(Record a, Record b) {
+            return a.mLastUsed < b.mLastUsed
+                    ? -1
+                    : a.mLastUsed == b.mLastUsed ? 0 : 1;
+        }
+    };
+
+    /**
+     * Opens the store at {@code path}, which is the prefix of the blob and
+     * index files. The blob file is kept within {@code capacity} bytes.
+     */
+    public ThumbnailBlobFile(String path, long capacity) {
+        mBlobFile = new File(path + ".blob");
+        mIndexFile = new File(path + ".idx");
+        mCapacity = capacity;
+        mMaxBlobSize = (int) Math.min(capacity / 4, Integer.MAX_VALUE);
+    }
+
+    private boolean open() {
+        if (mBlob != null) return true;
+        try {
+            File dir = mBlobFile.getParentFile();
+            if (dir != null && !dir.exists()) dir.mkdirs();
+            mBlob = new RandomAccessFile(mBlobFile, "rw");
+            if (mBlob.length() < FILE_HEADER_SIZE
+                    || mBlob.readInt() != BLOB_MAGIC
+                    || mBlob.readInt() != VERSION) {
+                resetBlob();
+                return true;
+            }
+            long covered = loadIndex();
+            scan(covered);
+            return true;
+        } catch (IOException ex) {
+            Log.w(TAG, "cannot open " + mBlobFile, ex);
+            close();
+            return false;
+        }
+    }
+
+    private void resetBlob() throws IOException {
+        mRecords.clear();
+        mBlob.setLength(0);
+        mBlob.seek(0);
+        mBlob.writeInt(BLOB_MAGIC);
+        mBlob.writeInt(VERSION);
+        mLength = FILE_HEADER_SIZE;
+        mIndexFile.delete();
+    }
+
+    // Loads the saved index and returns the length of the blob file it
+    // covers, or the size of the file header if there is no usable index.
+    private long loadIndex() {
+        mRecords.clear();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(mIndexFile)));
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+                return FILE_HEADER_SIZE;
+            }
+            long covered = in.readLong();
+            int count = in.readInt();
+            if (covered > mBlob.length()) return FILE_HEADER_SIZE;
+            for (int i = 0; i < count; ++i) {
+                Record r = new Record(in.readLong(), in.readLong(),
+                        in.readLong(), in.readInt());
+                if (r.mOffset + RECORD_HEADER_SIZE + r.mLength > covered) {
+                    throw new IOException("bad record " + r.mKey);
+                }
+                // The index lists the records from the least to the most
+                // recently used.
+                r.mLastUsed = ++mUseCount;
+                mRecords.put(r.mKey, r);
+            }
+            return covered;
+        } catch (IOException ex) {
+            // Missing or broken: rebuild it from the blob file.
+            mRecords.clear();
+            return FILE_HEADER_SIZE;
+        } finally {
+            Util.closeSilently(in);
+        }
+    }
+
+    // Reads the record headers from the given offset to the end of the blob
+    // file. The file is truncated at the first record that is incomplete.
+    private void scan(long offset) throws IOException {
+        long fileLength = mBlob.length();
+        byte[] data = null;
+        while (offset + RECORD_HEADER_SIZE <= fileLength) {
+            mBlob.seek(offset);
+            if (mBlob.readInt() != RECORD_MAGIC) break;
+            long key = mBlob.readLong();
+            long version = mBlob.readLong();
+            int length = mBlob.readInt();
+            int checksum = mBlob.readInt();
+            if (length < 0 || length > mMaxBlobSize
+                    || offset + RECORD_HEADER_SIZE + length > fileLength) {
+                break;
+            }
+            if (data == null || data.length < length) data = new byte[length];
+            mBlob.readFully(data, 0, length);
+            if (checksum(data, length) == checksum) {
+                Record r = new Record(key, version, offset, length);
+                r.mLastUsed = ++mUseCount;
+                mRecords.put(key, r);
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        if (offset < fileLength) {
+            Log.w(TAG, "truncate " + mBlobFile + " at " + offset);
+            mBlob.setLength(offset);
+        }
+        mLength = offset;
+    }
+
+    /**
+     * Returns the data stored for the key at the given version, or null if
+     * there is none or it is corrupted.
+     */
+    public synchronized byte[] get(long key, long version) {
+        if (!open()) return null;
+        Record r = mRecords.get(key);
+        if (r == null || r.mVersion != version) return null;
+        try {
+            mBlob.seek(r.mOffset);
+            if (mBlob.readInt() == RECORD_MAGIC && mBlob.readLong() == key
+                    && mBlob.readLong() == version
+                    && mBlob.readInt() == r.mLength) {
+                int checksum = mBlob.readInt();
+                byte[] data = new byte[r.mLength];
+                mBlob.readFully(data);
+                if (checksum(data, data.length) == checksum) {
+                    r.mLastUsed = ++mUseCount;
+                    mUsedSinceSave = true;
+                    return data;
+                }
+            }
+        } catch (IOException ex) {
+            Log.w(TAG, "cannot read record " + key, ex);
+        }
+        Log.w(TAG, "drop corrupted record " + key);
+        mRecords.remove(key);
+        return null;
+    }
+
+    /** Appends the data for the key, replacing any older version. */
+    public synchronized void put(long key, long version, byte[] data) {
+        if (data.length > mMaxBlobSize || !open()) return;
+        try {
+            long size = RECORD_HEADER_SIZE + data.length;
+            if (mLength + size > mCapacity) compact();
+            mBlob.seek(mLength);
+            mBlob.writeInt(RECORD_MAGIC);
+            mBlob.writeLong(key);
+            mBlob.writeLong(version);
+            mBlob.writeInt(data.length);
+            mBlob.writeInt(checksum(data, data.length));
+            mBlob.write(data);
+            Record r = new Record(key, version, mLength, data.length);
+            r.mLastUsed = ++mUseCount;
+            mRecords.put(key, r);
+            mLength += size;
+            if (++mUnsavedCount >= INDEX_SAVE_INTERVAL) saveIndex();
+        } catch (IOException ex) {
+            Log.w(TAG, "cannot write record " + key, ex);
+            close();
+        }
+    }
+
+    // Copies the most recently used records into a new blob file, until it
+    // is half full.
+    private void compact() throws IOException {
+        ArrayList<Record> records = new ArrayList<Record>(mRecords.values());
+        Collections.sort(records, Collections.reverseOrder(LAST_USED_ORDER));
+
+        File tempFile = new File(mBlobFile.getPath() + ".tmp");
+        RandomAccessFile temp = new RandomAccessFile(tempFile, "rw");
+        HashMap<Long, Record> kept = new HashMap<Long, Record>();
+        long length = FILE_HEADER_SIZE;
+        try {
+            temp.setLength(0);
+            temp.writeInt(BLOB_MAGIC);
+            temp.writeInt(VERSION);
+            byte[] buffer = new byte[RECORD_HEADER_SIZE];
+            for (Record r : records) {
+                int size = RECORD_HEADER_SIZE + r.mLength;
+                if (length + size > mCapacity / 2) break;
+                if (buffer.length < size) buffer = new byte[size];
+                mBlob.seek(r.mOffset);
+                mBlob.readFully(buffer, 0, size);
+                temp.write(buffer, 0, size);
+                Record moved =
+                        new Record(r.mKey, r.mVersion, length, r.mLength);
+                moved.mLastUsed = r.mLastUsed;
+                kept.put(r.mKey, moved);
+                length += size;
+            }
+        } finally {
+            temp.close();
+        }
+
+        // The old index refers to the old file. Without it, a crash before
+        // the new index is saved only costs a full scan.
+        mIndexFile.delete();
+        mBlob.close();
+        mBlob = null;
+        if (!tempFile.renameTo(mBlobFile)) {
+            tempFile.delete();
+            throw new IOException("cannot rename " + tempFile);
+        }
+        Log.v(TAG, "compacted " + mRecords.size() + " records to "
+                + kept.size());
+        mBlob = new RandomAccessFile(mBlobFile, "rw");
+        mRecords.clear();
+        mRecords.putAll(kept);
+        mLength = length;
+        saveIndex();
+    }
+
+    // Saves the records from the least to the most recently used, so the
+    // order of use survives a restart.
+    private void saveIndex() {
+        mUnsavedCount = 0;
+        mUsedSinceSave = false;
+        ArrayList<Record> records = new ArrayList<Record>(mRecords.values());
+        Collections.sort(records, LAST_USED_ORDER);
+        File temp = new File(mIndexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mLength);
+            out.writeInt(records.size());
+            for (Record r : records) {
+                out.writeLong(r.mKey);
+                out.writeLong(r.mVersion);
+                out.writeLong(r.mOffset);
+                out.writeInt(r.mLength);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(mIndexFile)) temp.delete();
+        } catch (IOException ex) {
+            Log.w(TAG, "cannot save index", ex);
+            temp.delete();
+        } finally {
+            Util.closeSilently(out);
+        }
+    }
+
+    /** Saves the index and closes the files. They are reopened on demand. */
+    public synchronized void close() {
+        if (mBlob == null) return;
+        if (mUnsavedCount > 0 || mUsedSinceSave) saveIndex();
+        Util.closeSilently(mBlob);
+        mBlob = null;
+    }
+
+    private static int checksum(byte[] data, int length) {
+        Adler32 adler = new Adler32();
+        adler.update(data, 0, length);
+        return (int) adler.getValue();
+    }
+}
@@ -34,24 +34,71 @@ public class VideoList extends BaseImageList {
             Media._ID,
             Media.DATE_TAKEN,
             Media.MINI_THUMB_MAGIC,
-            Media.DATE_MODIFIED};
+            Media.DATE_MODIFIED,
+            Media.MIME_TYPE,
+            Media.DATA};
 
     private static final int INDEX_ID = 0;
     private static final int INDEX_DATE_TAKEN = 1;
     private static final int INDEX_MIMI_THUMB_MAGIC = 2;
     private static final int INDEX_DATE_MODIFIED = 3;
+    private static final int INDEX_MIME_TYPE = 4;
+    private static final int INDEX_DATA = 5;
 
     @Override
     protected BaseImage loadImageFromCursor(Cursor cursor) {
         long id = cursor.getLong(INDEX_ID);
+        long dateTaken = loadDateTakenFromCursor(cursor);
+        long dateModified = cursor.getLong(INDEX_DATE_MODIFIED);
+        long miniThumbMagic = cursor.getLong(INDEX_MIMI_THUMB_MAGIC);
+        return new VideoObject(mContentResolver,
+                id, contentUri(id),
+                miniThumbMagic, dateTaken, dateModified);
+    }
+
+    @Override
+    protected long loadDateTakenFromCursor(Cursor cursor) {
         long dateTaken = cursor.getLong(INDEX_DATE_TAKEN);
         if (dateTaken == 0) {
             dateTaken = cursor.getLong(INDEX_DATE_MODIFIED) * 1000;
         }
-        long miniThumbMagic = cursor.getLong(INDEX_MIMI_THUMB_MAGIC);
+        return dateTaken;
+    }
+
+    @Override
+    protected long loadIdFromCursor(Cursor cursor) {
+        return cursor.getLong(INDEX_ID);
+    }
+
+    @Override
+    protected String loadMimeTypeFromCursor(Cursor cursor) {
+        return cursor.getString(INDEX_MIME_TYPE);
+    }
+
+    @Override
+    protected String loadDataPathFromCursor(Cursor cursor) {
+        return cursor.getString(INDEX_DATA);
+    }
+
+    @Override
+    protected void loadRowFromCursor(
+            Cursor cursor, ColumnSnapshot snapshot, int row) {
+        snapshot.setRow(row, cursor.getLong(INDEX_ID),
+                loadDateTakenFromCursor(cursor),
+                cursor.getLong(INDEX_DATE_MODIFIED),
+                cursor.getLong(INDEX_MIMI_THUMB_MAGIC), 0,
+                cursor.getString(INDEX_MIME_TYPE),
+                cursor.getString(INDEX_DATA));
+    }
+
+    @Override
+    protected BaseImage loadImageFromSnapshot(
+            ColumnSnapshot snapshot, int row) {
+        long id = snapshot.getId(row);
         return new VideoObject(mContentResolver,
                 id, contentUri(id),
-                miniThumbMagic, dateTaken);
+                snapshot.getMiniThumbMagic(row), snapshot.getDateTaken(row),
+                snapshot.getDateModified(row));
     }
 
     public VideoList(ContentResolver resolver, Uri uri, int sort,
@@ -76,4 +123,12 @@ public class VideoList extends BaseImageList {
                 whereClause(), whereClauseArgs(), sortOrder());
         return c;
     }
+
+    @Override
+    protected Cursor createCursorAfter(long id) {
+        return Images.Media.query(
+                mContentResolver, mBaseUri, VIDEO_PROJECTION,
+                whereIdAfter(whereClause(), id), whereClauseArgs(),
+                sortOrder(true));
+    }
 }
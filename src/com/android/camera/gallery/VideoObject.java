@@ -39,9 +39,9 @@ public class VideoObject extends BaseImage implements IImage {
      */
     protected VideoObject(ContentResolver cr,
             long id, Uri uri, long miniThumbMagic,
-            long dateTaken) {
+            long dateTaken, long dateModified) {
         super(cr, id, uri, miniThumbMagic,
-                dateTaken);
+                dateTaken, dateModified);
     }
 
     @Override
@@ -57,7 +57,12 @@ public class VideoObject extends BaseImage implements IImage {
     }
 
     @Override
-    public Bitmap miniThumbBitmap() {
+    protected boolean isVideo() {
+        return true;
+    }
+
+    @Override
+    protected Bitmap loadMiniThumbBitmap() {
         try {
             long id = mId;
             return BitmapManager.instance().getThumbnail(mContentResolver,
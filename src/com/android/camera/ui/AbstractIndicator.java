@@ -28,7 +28,7 @@ abstract class AbstractIndicator extends GLView {
     private static final int DEFAULT_PADDING = 3;
     private int mOrientation = 0;
 
-    abstract protected BitmapTexture getIcon();
+    abstract protected Texture getIcon();
 
     public AbstractIndicator(Context context) {
         int padding = GLRootView.dpToPixel(context, DEFAULT_PADDING);
@@ -37,7 +37,7 @@ abstract class AbstractIndicator extends GLView {
 
     @Override
     protected void onMeasure(int widthSpec, int heightSpec) {
-        BitmapTexture icon = getIcon();
+        Texture icon = getIcon();
         new MeasureHelper(this)
                .setPreferredContentSize(icon.getWidth(), icon.getHeight())
                .measure(widthSpec, heightSpec);
@@ -45,7 +45,7 @@ abstract class AbstractIndicator extends GLView {
 
     @Override
     protected void render(GLRootView root, GL11 gl) {
-        BitmapTexture icon = getIcon();
+        Texture icon = getIcon();
         if (icon != null) {
             Rect p = mPaddings;
             int width = getWidth() - p.left - p.right;
@@ -65,6 +65,18 @@ abstract class AbstractIndicator extends GLView {
         }
     }
 
+    @Override
+    protected void getDrawingBounds(Rect out) {
+        super.getDrawingBounds(out);
+        if (mOrientation == 90 || mOrientation == 270) {
+            // The rotated icon may stick out of the bounds. Use the square
+            // around the center.
+            int half = Math.max(out.width(), out.height()) / 2 + 1;
+            out.set(out.centerX() - half, out.centerY() - half,
+                    out.centerX() + half, out.centerY() + half);
+        }
+    }
+
     public void setOrientation(int orientation) {
         if (orientation % 90 != 0) throw new IllegalArgumentException();
         orientation = orientation % 360;
@@ -21,6 +21,11 @@ abstract class BasicTexture implements Texture {
     protected int mTextureWidth;
     protected int mTextureHeight;
 
+    // The position of the content in the GL texture. It is not (0, 0) only
+    // if the content is packed into a page of the TextureAtlas.
+    protected int mOffsetX;
+    protected int mOffsetY;
+
     protected BasicTexture(GL11 gl, int id, int state) {
         mGL = gl;
         mId = id;
@@ -73,5 +78,21 @@ abstract class BasicTexture implements Texture {
         root.drawTexture(this, x, y, w, h);
     }
 
+    /**
+     * Returns the texture to bind for drawing this one. It is either this
+     * texture or the TextureAtlas page that holds the content.
+     */
+    protected BasicTexture getContainer() {
+        return this;
+    }
+
+    /**
+     * Returns true if the first row of the texture is the bottom of the
+     * image, as it is for textures copied from the frame buffer.
+     */
+    protected boolean isFlippedVertically() {
+        return false;
+    }
+
     abstract protected boolean bind(GLRootView root, GL11 gl);
 }
@@ -13,10 +13,46 @@ abstract class BitmapTexture extends BasicTexture {
     @SuppressWarnings("unused")
     private static final String TAG = "Texture";
 
+    // The atlas page holding the bitmap, and the generation of the page
+    // when it was added. The bitmap is gone if the page has been cleared.
+    TextureAtlas.Page mAtlasPage;
+    int mAtlasGeneration;
+
     protected BitmapTexture() {
         super(null, 0, STATE_UNLOADED);
     }
 
+    /**
+     * Returns true if the bitmap may be packed into the TextureAtlas instead
+     * of having a texture of its own.
+     */
+    protected boolean isAtlasCandidate() {
+        return true;
+    }
+
+    @Override
+    protected BasicTexture getContainer() {
+        TextureAtlas.Page page = mAtlasPage;
+        if (page != null && page.holds(this, mGL)) {
+            page.touch();
+            return page;
+        }
+        return this;
+    }
+
+    @Override
+    public void deleteFromGL() {
+        if (mAtlasPage != null) {
+            // The texture is shared with the other sprites on the page; the
+            // space is reclaimed when the page is cleared.
+            mAtlasPage = null;
+            mOffsetX = mOffsetY = 0;
+            mState = STATE_UNLOADED;
+            return;
+        }
+        super.deleteFromGL();
+    }
+
     @Override
     public int getWidth() {
         if (mWidth == UNSPECIFIED) getBitmap();
@@ -95,8 +131,22 @@ abstract class BitmapTexture extends BasicTexture {
 
     @Override
     protected boolean bind(GLRootView root, GL11 gl) {
+        if (mAtlasPage != null) {
+            if (mAtlasPage.holds(this, gl)) {
+                gl.glBindTexture(GL11.GL_TEXTURE_2D, mAtlasPage.getId());
+                return true;
+            }
+            // The page has been cleared or the GL context has changed.
+            mAtlasPage = null;
+            mOffsetX = mOffsetY = 0;
+            mState = BitmapTexture.STATE_UNLOADED;
+        }
         if (mState == BitmapTexture.STATE_UNLOADED || mGL != gl) {
             mState = BitmapTexture.STATE_UNLOADED;
+            if (isAtlasCandidate()
+                    && root.getTextureAtlas().add(gl, this)) {
+                return true;
+            }
             try {
                 uploadToGL(gl);
             } catch (GLOutOfMemoryException e) {
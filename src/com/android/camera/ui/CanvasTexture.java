@@ -16,6 +16,8 @@
 
 package com.android.camera.ui;
 
+import com.android.camera.BitmapPool;
+
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Bitmap.Config;
@@ -30,7 +32,8 @@ abstract class CanvasTexture extends BitmapTexture {
 
     @Override
     protected Bitmap getBitmap() {
-        Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight, Config.ARGB_8888);
+        Bitmap bitmap = BitmapPool.instance().get(
+                mWidth, mHeight, Config.ARGB_8888);
         mCanvas = new Canvas(bitmap);
         onDraw(mCanvas, bitmap);
         return bitmap;
@@ -38,7 +41,7 @@ abstract class CanvasTexture extends BitmapTexture {
 
     @Override
     protected void freeBitmap(Bitmap bitmap) {
-        bitmap.recycle();
+        BitmapPool.instance().release(bitmap);
     }
 
     abstract protected void onDraw(Canvas canvas, Bitmap backing);
@@ -24,6 +24,15 @@ class ColorTexture implements Texture {
         mColor = color;
     }
 
+    // A color has no size of its own.
+    public int getWidth() {
+        return 0;
+    }
+
+    public int getHeight() {
+        return 0;
+    }
+
     public void draw(GLRootView root, int x, int y) {
     }
 
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.ui;
+
+// The quads drawn by a GLView subtree, recorded by GLRootView so that they
+// can be drawn again without walking the subtree. The vertices are kept in
+// the coordinates of the view which owns the list, in the same layout as
+// the batch of GLRootView: four (x, y, u, v) vertices per quad.
+//
+// A list becomes invalid when a view in the subtree is invalidated, and
+// when a texture it uses is reloaded or moved in the TextureAtlas.
+class DisplayList {
+    private static final int INITIAL_CAPACITY = 16;
+
+    static final int FLOATS_PER_QUAD = 16;
+
+    int mCount;
+    BasicTexture mTextures[] = new BasicTexture[INITIAL_CAPACITY];
+    BasicTexture mContainers[] = new BasicTexture[INITIAL_CAPACITY];
+    int mOffsets[] = new int[INITIAL_CAPACITY * 2];
+    int mColors[] = new int[INITIAL_CAPACITY];
+    float mAlphas[] = new float[INITIAL_CAPACITY];
+    float mVertices[] = new float[INITIAL_CAPACITY * FLOATS_PER_QUAD];
+
+    private boolean mValid;
+    private boolean mSupported = true;
+    private int mGeneration;
+
+    public void reset(int generation) {
+        for (int i = 0; i < mCount; ++i) {
+            mTextures[i] = null;
+            mContainers[i] = null;
+        }
+        mCount = 0;
+        mGeneration = generation;
+        mValid = true;
+    }
+
+    public void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Marks the subtree as not recordable, e.g. because it clips or changes
+     * the GL state directly. It is always rendered normally afterwards.
+     */
+    public void setUnsupported() {
+        mSupported = false;
+        mValid = false;
+    }
+
+    public boolean isSupported() {
+        return mSupported;
+    }
+
+    /**
+     * Returns true if the recorded quads can still be drawn in the GL
+     * context of the given generation.
+     */
+    public boolean isValid(int generation) {
+        if (!mValid || mGeneration != generation) return false;
+        for (int i = 0, n = mCount; i < n; ++i) {
+            BasicTexture texture = mTextures[i];
+            if (texture == null) continue;
+            if (texture.mState != BasicTexture.STATE_LOADED
+                    || texture.getContainer() != mContainers[i]
+                    || texture.mOffsetX != mOffsets[i * 2]
+                    || texture.mOffsetY != mOffsets[i * 2 + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a quad drawn with the texture (or the color if texture is null)
+     * and the alpha relative to the owner's. Returns the index in mVertices
+     * to write the vertices to.
+     */
+    public int addQuad(BasicTexture texture, int color, float alpha) {
+        int index = mCount;
+        if (index == mColors.length) grow();
+        mTextures[index] = texture;
+        if (texture != null) {
+            mContainers[index] = texture.getContainer();
+            mOffsets[index * 2] = texture.mOffsetX;
+            mOffsets[index * 2 + 1] = texture.mOffsetY;
+        }
+        mColors[index] = color;
+        mAlphas[index] = alpha;
+        mCount = index + 1;
+        return index * FLOATS_PER_QUAD;
+    }
+
+    private void grow() {
+        int capacity = mColors.length * 2;
+        BasicTexture textures[] = new BasicTexture[capacity];
+        System.arraycopy(mTextures, 0, textures, 0, mCount);
+        mTextures = textures;
+        BasicTexture containers[] = new BasicTexture[capacity];
+        System.arraycopy(mContainers, 0, containers, 0, mCount);
+        mContainers = containers;
+        int offsets[] = new int[capacity * 2];
+        System.arraycopy(mOffsets, 0, offsets, 0, mCount * 2);
+        mOffsets = offsets;
+        int colors[] = new int[capacity];
+        System.arraycopy(mColors, 0, colors, 0, mCount);
+        mColors = colors;
+        float alphas[] = new float[capacity];
+        System.arraycopy(mAlphas, 0, alphas, 0, mCount);
+        mAlphas = alphas;
+        float vertices[] = new float[capacity * FLOATS_PER_QUAD];
+        System.arraycopy(mVertices, 0, vertices, 0, mCount * FLOATS_PER_QUAD);
+        mVertices = vertices;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.camera.ui;
 
+import com.android.camera.StartupTrace;
 import com.android.camera.Util;
 import com.android.camera.R;
 
@@ -24,6 +25,7 @@ import android.content.Context;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLU;
 import android.os.SystemClock;
@@ -36,10 +38,14 @@ import android.view.animation.Transformation;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Stack;
 
+import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
 import javax.microedition.khronos.opengles.GL10;
 import javax.microedition.khronos.opengles.GL11;
 import javax.microedition.khronos.opengles.GL11Ext;
@@ -58,13 +64,24 @@ public class GLRootView extends GLSurfaceView
 
     private final boolean ENABLE_FPS_TEST = false;
     private int mFrameCount = 0;
+    private int mDrawCallCount = 0;
     private long mFrameCountingStart = 0;
 
-    // We need 16 vertices for a normal nine-patch image (the 4x4 vertices)
-    private static final int VERTEX_BUFFER_SIZE = 16 * 2;
+    // Set when the first frame on the current surface is drawn.
+    private boolean mFirstFrameDrawn;
 
-    // We need 22 indices for a normal nine-patch image
-    private static final int INDEX_BUFFER_SIZE = 22;
+    // The maximum number of quads drawn by one glDrawElements() call. Each
+    // quad has 4 vertices of (x, y, u, v) and 6 indices (two triangles).
+    private static final int BATCH_QUAD_COUNT = 64;
+    private static final int FLOATS_PER_VERTEX = 4;
+    private static final int FLOATS_PER_QUAD = 4 * FLOATS_PER_VERTEX;
+    private static final int INDICES_PER_QUAD = 6;
+    private static final int VERTEX_STRIDE =
+            FLOATS_PER_VERTEX * Float.SIZE / Byte.SIZE;
+
+    // From EGL 1.2, which is not in EGL10.
+    private static final int EGL_SWAP_BEHAVIOR = 0x3093;
+    private static final int EGL_BUFFER_PRESERVED = 0x3094;
 
     private static final int FLAG_INITIALIZED = 1;
     private static final int FLAG_NEED_LAYOUT = 2;
@@ -74,6 +91,7 @@ public class GLRootView extends GLSurfaceView
     private static float sPixelDensity = -1f;
 
     private GL11 mGL;
+    private TextureAtlas mTextureAtlas;
     private GLView mContentView;
     private DisplayMetrics mDisplayMetrics;
 
@@ -88,24 +106,59 @@ public class GLRootView extends GLSurfaceView
 
     private float mLastAlpha = mTransformation.getAlpha();
 
-    private final float mMatrixValues[] = new float[16];
-
-    private final float mUvBuffer[] = new float[VERTEX_BUFFER_SIZE];
-    private final float mXyBuffer[] = new float[VERTEX_BUFFER_SIZE];
-    private final byte mIndexBuffer[] = new byte[INDEX_BUFFER_SIZE];
+    private final float mMatrixValues[] = new float[9];
+    private final float mPointBuffer[] = new float[4];
 
     private int mNinePatchX[] = new int[4];
     private int mNinePatchY[] = new int[4];
     private float mNinePatchU[] = new float[4];
     private float mNinePatchV[] = new float[4];
 
-    private ByteBuffer mXyPointer;
-    private ByteBuffer mUvPointer;
-    private ByteBuffer mIndexPointer;
+    // The quads of the current batch. They are already transformed to the
+    // window coordinates, so the whole batch is drawn with the identity
+    // model-view matrix. All quads in a batch share the bound texture (or
+    // the color if mBatchTexture is null) and the alpha value. The bound
+    // texture may be a page of the TextureAtlas shared by many textures.
+    private final float mBatchVertices[] =
+            new float[BATCH_QUAD_COUNT * FLOATS_PER_QUAD];
+    private int mBatchQuadCount;
+    private BasicTexture mBatchTexture;
+    private int mBatchColor;
+    private float mBatchAlpha;
+
+    // mUvPointer is a view of mVertexPointer starting at the first (u, v).
+    private FloatBuffer mVertexPointer;
+    private FloatBuffer mUvPointer;
+    private ShortBuffer mIndexPointer;
+
+    // The texture of the quads being added, as given by the caller. It is
+    // mBatchTexture unless the texture is in an atlas page.
+    private BasicTexture mQuadTexture;
+
+    // The display list being recorded (see GLView.setCachingEnabled()), and
+    // the inverse of the matrix and the alpha of its owner. The generation
+    // changes with the GL context, which invalidates all the display lists.
+    private DisplayList mRecording;
+    private final Matrix mRecordingMatrix = new Matrix();
+    private final float mInverseValues[] = new float[9];
+    private float mRecordingAlpha;
+    private int mGeneration;
 
     private int mFlags = FLAG_NEED_LAYOUT;
     private long mAnimationTime;
 
+    // The area to redraw in the next frame, in the coordinates of the content
+    // pane. If mDirtyAll is set, the whole surface is redrawn.
+    private final Rect mDirtyRect = new Rect();
+    private boolean mDirtyAll = true;
+    private final Rect mTempRect = new Rect();
+
+    // Only a part of the surface can be redrawn if the content of the color
+    // buffer is preserved after swapping. mFrameClip is the area being
+    // redrawn in the current frame, in the window coordinates of GL.
+    private boolean mSwapPreserved;
+    private final Rect mFrameClip = new Rect();
+
     private CameraEGLConfigChooser mEglConfigChooser = new CameraEGLConfigChooser();
 
     public GLRootView(Context context) {
@@ -193,10 +246,25 @@ public class GLRootView extends GLSurfaceView
 
         setRenderer(this);
 
-        int size = VERTEX_BUFFER_SIZE * Float.SIZE / Byte.SIZE;
-        mXyPointer = allocateDirectNativeOrderBuffer(size);
-        mUvPointer = allocateDirectNativeOrderBuffer(size);
-        mIndexPointer = allocateDirectNativeOrderBuffer(INDEX_BUFFER_SIZE);
+        int size = mBatchVertices.length * Float.SIZE / Byte.SIZE;
+        mVertexPointer = allocateDirectNativeOrderBuffer(size).asFloatBuffer();
+        mUvPointer = ((FloatBuffer) mVertexPointer.duplicate().position(2))
+                .slice();
+
+        // The indices never change: quad i uses the vertices 4i to 4i + 3.
+        short index[] = new short[BATCH_QUAD_COUNT * INDICES_PER_QUAD];
+        for (int i = 0, j = 0; i < BATCH_QUAD_COUNT; ++i) {
+            short base = (short) (i * 4);
+            index[j++] = base;
+            index[j++] = (short) (base + 1);
+            index[j++] = (short) (base + 2);
+            index[j++] = (short) (base + 2);
+            index[j++] = (short) (base + 1);
+            index[j++] = (short) (base + 3);
+        }
+        mIndexPointer = allocateDirectNativeOrderBuffer(
+                index.length * Short.SIZE / Byte.SIZE).asShortBuffer();
+        mIndexPointer.put(index).position(0);
     }
 
     public void setContentPane(GLView content) {
@@ -212,10 +280,39 @@ public class GLRootView extends GLSurfaceView
         return mContentView;
     }
 
+    TextureAtlas getTextureAtlas() {
+        return mTextureAtlas;
+    }
+
     void handleLowMemory() {
         //TODO: delete texture from GL
     }
 
+    /**
+     * Redraws the whole surface in the next frame.
+     */
+    @Override
+    public void requestRender() {
+        synchronized (this) {
+            mDirtyAll = true;
+        }
+        super.requestRender();
+    }
+
+    /**
+     * Redraws the area of the given view in the next frame.
+     */
+    synchronized void invalidate(GLView view) {
+        if (!mDirtyAll) {
+            if (view.getDrawingBoundsInRoot(mTempRect)) {
+                mDirtyRect.union(mTempRect);
+            } else {
+                mDirtyAll = true;
+            }
+        }
+        super.requestRender();
+    }
+
     public synchronized void requestLayoutContentPane() {
         if (mContentView == null || (mFlags & FLAG_NEED_LAYOUT) != 0) return;
 
@@ -255,6 +352,12 @@ public class GLRootView extends GLSurfaceView
         }
         mGL = gl;
 
+        // The textures of the old context are gone; the textures in the old
+        // atlas will be added to the new one when they are drawn.
+        mTextureAtlas = new TextureAtlas();
+        ++mGeneration;
+        mFirstFrameDrawn = false;
+
         if (!ENABLE_FPS_TEST) {
             setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
         } else {
@@ -280,9 +383,12 @@ public class GLRootView extends GLSurfaceView
         gl.glClearColor(0f, 0f, 0f, 0f);
         gl.glClearStencil(0);
 
-        gl.glVertexPointer(2, GL11.GL_FLOAT, 0, mXyPointer);
-        gl.glTexCoordPointer(2, GL11.GL_FLOAT, 0, mUvPointer);
+        gl.glVertexPointer(2, GL11.GL_FLOAT, VERTEX_STRIDE, mVertexPointer);
+        gl.glTexCoordPointer(2, GL11.GL_FLOAT, VERTEX_STRIDE, mUvPointer);
 
+        mBatchQuadCount = 0;
+        mBatchTexture = null;
+        mLastAlpha = -1.0f;
     }
 
     /**
@@ -297,10 +403,25 @@ public class GLRootView extends GLSurfaceView
         mGL = gl;
         gl.glViewport(0, 0, width, height);
 
+        // EGL10 cannot ask for a preserved swap, so a partial redraw is used
+        // only where the surface already preserves its buffer by default.
+        EGL10 egl = (EGL10) EGLContext.getEGL();
+        int value[] = new int[1];
+        mSwapPreserved = egl.eglQuerySurface(egl.eglGetCurrentDisplay(),
+                egl.eglGetCurrentSurface(EGL10.EGL_DRAW),
+                EGL_SWAP_BEHAVIOR, value)
+                && value[0] == EGL_BUFFER_PRESERVED;
+        Log.v(TAG, "swap preserved: " + mSwapPreserved);
+        synchronized (this) {
+            mDirtyAll = true;
+        }
+
         gl.glMatrixMode(GL11.GL_PROJECTION);
         gl.glLoadIdentity();
 
         GLU.gluOrtho2D(gl, 0, width, 0, height);
+        gl.glMatrixMode(GL11.GL_MODELVIEW);
+        gl.glLoadIdentity();
         Matrix matrix = mTransformation.getMatrix();
         matrix.reset();
         matrix.preTranslate(0, getHeight());
@@ -322,33 +443,183 @@ public class GLRootView extends GLSurfaceView
         }
     }
 
-    public void drawRect(int x, int y, int width, int height) {
-        float matrix[] = mMatrixValues;
-        mTransformation.getMatrix().getValues(matrix);
-        drawRect(x, y, width, height, matrix);
+    /**
+     * Draws the pending quads with a single glDrawElements() call. It must be
+     * called before any GL state the batch depends on (texture binding,
+     * color, blending, stencil or scissor) is changed and before the frame
+     * buffer is read back.
+     */
+    public void flush() {
+        // The GL state is changed behind our back; it can't be recorded.
+        disallowRecording();
+        drawBatch();
     }
 
-    private static void putRectangle(float x, float y,
-            float width, float height, float[] buffer, ByteBuffer pointer) {
-        buffer[0] = x;
-        buffer[1] = y;
-        buffer[2] = x + width;
-        buffer[3] = y;
-        buffer[4] = x;
-        buffer[5] = y + height;
-        buffer[6] = x + width;
-        buffer[7] = y + height;
-        pointer.asFloatBuffer().put(buffer, 0, 8).position(0);
-    }
+    private void drawBatch() {
+        int count = mBatchQuadCount;
+        if (count == 0) return;
+        mBatchQuadCount = 0;
 
-    private void drawRect(
-            int x, int y, int width, int height, float matrix[]) {
         GL11 gl = mGL;
-        gl.glPushMatrix();
-        gl.glMultMatrixf(toGLMatrix(matrix), 0);
-        putRectangle(x, y, width, height, mXyBuffer, mXyPointer);
-        gl.glDrawArrays(GL11.GL_TRIANGLE_STRIP, 0, 4);
-        gl.glPopMatrix();
+        if (mBatchTexture == null) {
+            if (mTexture2DEnabled) {
+                gl.glDisable(GL11.GL_TEXTURE_2D);
+                mTexture2DEnabled = false;
+            }
+            // Set mLastAlpha to an invalid value, so that it will reset again
+            // in setAlphaValue(float) later.
+            mLastAlpha = -1.0f;
+            int color = mBatchColor;
+            float alpha = mBatchAlpha / 256.0f;
+            gl.glColor4f(Color.red(color) * alpha, Color.green(color) * alpha,
+                    Color.blue(color) * alpha, Color.alpha(color) * alpha);
+        } else {
+            if (!mTexture2DEnabled) {
+                gl.glEnable(GL11.GL_TEXTURE_2D);
+                mTexture2DEnabled = true;
+            }
+            setAlphaValue(mBatchAlpha);
+        }
+
+        mVertexPointer.put(mBatchVertices, 0, count * FLOATS_PER_QUAD)
+                .position(0);
+        gl.glDrawElements(GL11.GL_TRIANGLES, count * INDICES_PER_QUAD,
+                GL11.GL_UNSIGNED_SHORT, mIndexPointer);
+        ++mDrawCallCount;
+    }
+
+    // Starts a new batch unless the current one can take a quad drawn with
+    // the given texture (or color if texture is null) and alpha.
+    private void prepareBatch(BasicTexture texture, int color, float alpha) {
+        mQuadTexture = texture;
+        BasicTexture container = null;
+        boolean loaded = true;
+        if (texture != null) {
+            container = texture.getContainer();
+            loaded = texture.mState == BasicTexture.STATE_LOADED;
+        }
+        if (loaded && mBatchQuadCount > 0 && mBatchTexture == container
+                && mBatchAlpha == alpha
+                && (texture != null || mBatchColor == color)
+                && mBatchQuadCount < BATCH_QUAD_COUNT) {
+            return;
+        }
+        drawBatch();
+        if (texture != null && (!loaded || container != mBatchTexture)) {
+            // Binding may upload the texture, possibly into an atlas page.
+            if (!texture.bind(this, mGL)) {
+                throw new RuntimeException("cannot bind" + texture.toString());
+            }
+            container = texture.getContainer();
+        }
+        mBatchTexture = container;
+        mBatchColor = color;
+        mBatchAlpha = alpha;
+    }
+
+    // Adds the rectangle (x, y, width, height) mapped to the texture area
+    // (u0, v0, u1, v1) to the current batch. The matrix values must be
+    // loaded in mMatrixValues.
+    private void addQuad(float x, float y, float width, float height,
+            float u0, float v0, float u1, float v1) {
+        float v[] = mBatchVertices;
+        float m[] = mMatrixValues;
+        int start = mBatchQuadCount * FLOATS_PER_QUAD;
+        int i = putVertex(m, v, start, x, y, u0, v0);
+        i = putVertex(m, v, i, x + width, y, u1, v0);
+        i = putVertex(m, v, i, x, y + height, u0, v1);
+        putVertex(m, v, i, x + width, y + height, u1, v1);
+        ++mBatchQuadCount;
+        if (mRecording != null) recordQuad(start);
+    }
+
+    // Maps (x, y) with the matrix m and puts the vertex into the buffer.
+    private static int putVertex(float m[],
+            float buffer[], int i, float x, float y, float u, float v) {
+        float w = m[Matrix.MPERSP_0] * x + m[Matrix.MPERSP_1] * y
+                + m[Matrix.MPERSP_2];
+        buffer[i++] = (m[Matrix.MSCALE_X] * x + m[Matrix.MSKEW_X] * y
+                + m[Matrix.MTRANS_X]) / w;
+        buffer[i++] = (m[Matrix.MSKEW_Y] * x + m[Matrix.MSCALE_Y] * y
+                + m[Matrix.MTRANS_Y]) / w;
+        buffer[i++] = u;
+        buffer[i++] = v;
+        return i;
+    }
+
+    // Copies the quad at the given index of the batch to the display list
+    // being recorded, mapped back to the coordinates of its owner.
+    private void recordQuad(int start) {
+        DisplayList list = mRecording;
+        int i = list.addQuad(mQuadTexture, mBatchColor,
+                mBatchAlpha / mRecordingAlpha);
+        float src[] = mBatchVertices;
+        float dst[] = list.mVertices;
+        float m[] = mInverseValues;
+        for (int end = start + FLOATS_PER_QUAD; start < end;
+                start += FLOATS_PER_VERTEX) {
+            i = putVertex(m, dst, i, src[start], src[start + 1],
+                    src[start + 2], src[start + 3]);
+        }
+    }
+
+    boolean isRecording() {
+        return mRecording != null;
+    }
+
+    /**
+     * Starts recording the quads drawn into the display list, until
+     * endRecording() is called. The current transformation is the one of
+     * the owner of the list.
+     */
+    void beginRecording(DisplayList list) {
+        list.reset(mGeneration);
+        mRecordingAlpha = mTransformation.getAlpha();
+        if (mRecordingAlpha <= 0f
+                || !mTransformation.getMatrix().invert(mRecordingMatrix)) {
+            // Can't map the quads back. Try again in the next frame.
+            list.invalidate();
+            return;
+        }
+        mRecordingMatrix.getValues(mInverseValues);
+        mRecording = list;
+    }
+
+    void endRecording() {
+        mRecording = null;
+    }
+
+    private void disallowRecording() {
+        if (mRecording != null) {
+            mRecording.setUnsupported();
+            mRecording = null;
+        }
+    }
+
+    /**
+     * Draws the quads in the display list with the current transformation.
+     * Returns false, without drawing anything, if the list is out of date.
+     */
+    boolean replay(DisplayList list) {
+        if (!list.isValid(mGeneration)) return false;
+
+        float alpha = mTransformation.getAlpha();
+        float m[] = mMatrixValues;
+        mTransformation.getMatrix().getValues(m);
+        float src[] = list.mVertices;
+        for (int q = 0, n = list.mCount; q < n; ++q) {
+            prepareBatch(list.mTextures[q], list.mColors[q],
+                    alpha * list.mAlphas[q]);
+            float dst[] = mBatchVertices;
+            int i = mBatchQuadCount * FLOATS_PER_QUAD;
+            for (int j = q * FLOATS_PER_QUAD, end = j + FLOATS_PER_QUAD;
+                    j < end; j += FLOATS_PER_VERTEX) {
+                i = putVertex(m, dst, i,
+                        src[j], src[j + 1], src[j + 2], src[j + 3]);
+            }
+            ++mBatchQuadCount;
+        }
+        return true;
     }
 
     public void drawNinePatch(
@@ -362,9 +633,7 @@ public class GLRootView extends GLSurfaceView
         if (chunk.mDivX.length != 2 || chunk.mDivY.length != 2) {
             throw new RuntimeException("unsupported nine patch");
         }
-        if (!tex.bind(this, mGL)) {
-            throw new RuntimeException("cannot bind" + tex.toString());
-        }
+        prepareBatch(tex, 0, mTransformation.getAlpha());
         if (width <= 0 || height <= 0) return ;
 
         int divX[] = mNinePatchX;
@@ -375,15 +644,19 @@ public class GLRootView extends GLSurfaceView
         int nx = stretch(divX, divU, chunk.mDivX, tex.getWidth(), width);
         int ny = stretch(divY, divV, chunk.mDivY, tex.getHeight(), height);
 
-        setAlphaValue(mTransformation.getAlpha());
-        Matrix matrix = mTransformation.getMatrix();
-        matrix.getValues(mMatrixValues);
-        GL11 gl = mGL;
-        gl.glPushMatrix();
-        gl.glMultMatrixf(toGLMatrix(mMatrixValues), 0);
-        gl.glTranslatef(x, y, 0);
-        drawMesh(divX, divY, divU, divV, nx, ny);
-        gl.glPopMatrix();
+        // Each of the (at most 9) patches is a quad of its own, so they all
+        // go into the current batch.
+        if ((nx - 1) * (ny - 1) > BATCH_QUAD_COUNT - mBatchQuadCount) {
+            drawBatch();
+        }
+        mTransformation.getMatrix().getValues(mMatrixValues);
+        for (int j = 1; j < ny; ++j) {
+            for (int i = 1; i < nx; ++i) {
+                addQuad(x + divX[i - 1], y + divY[j - 1],
+                        divX[i] - divX[i - 1], divY[j] - divY[j - 1],
+                        divU[i - 1], divV[j - 1], divU[i], divV[j]);
+            }
+        }
     }
 
     /**
@@ -465,77 +738,15 @@ public class GLRootView extends GLSurfaceView
         return last + 1;
     }
 
-    private void drawMesh(
-            int x[], int y[], float u[], float v[], int nx, int ny) {
-        /*
-         * Given a 3x3 nine-patch image, the vertex order is defined as the
-         * following graph:
-         *
-         * (0) (1) (2) (3)
-         *  |  /|  /|  /|
-         *  | / | / | / |
-         * (4) (5) (6) (7)
-         *  | \ | \ | \ |
-         *  |  \|  \|  \|
-         * (8) (9) (A) (B)
-         *  |  /|  /|  /|
-         *  | / | / | / |
-         * (C) (D) (E) (F)
-         *
-         * And we draw the triangle strip in the following index order:
-         *
-         * index: 04152637B6A5948C9DAEBF
-         */
-        int pntCount = 0;
-        float xy[] = mXyBuffer;
-        float uv[] = mUvBuffer;
-        for (int j = 0; j < ny; ++j) {
-            for (int i = 0; i < nx; ++i) {
-                int xIndex = (pntCount++) << 1;
-                int yIndex = xIndex + 1;
-                xy[xIndex] = x[i];
-                xy[yIndex] = y[j];
-                uv[xIndex] = u[i];
-                uv[yIndex] = v[j];
-            }
-        }
-        mUvPointer.asFloatBuffer().put(uv, 0, pntCount << 1).position(0);
-        mXyPointer.asFloatBuffer().put(xy, 0, pntCount << 1).position(0);
-
-        int idxCount = 1;
-        byte index[] = mIndexBuffer;
-        for (int i = 0, bound = nx * (ny - 1); true;) {
-            // normal direction
-            --idxCount;
-            for (int j = 0; j < nx; ++j, ++i) {
-                index[idxCount++] = (byte) i;
-                index[idxCount++] = (byte) (i + nx);
-            }
-            if (i >= bound) break;
-
-            // reverse direction
-            int sum = i + i + nx - 1;
-            --idxCount;
-            for (int j = 0; j < nx; ++j, ++i) {
-                index[idxCount++] = (byte) (sum - i);
-                index[idxCount++] = (byte) (sum - i + nx);
-            }
-            if (i >= bound) break;
-        }
-        mIndexPointer.put(index, 0, idxCount).position(0);
-
-        mGL.glDrawElements(GL11.GL_TRIANGLE_STRIP,
-                idxCount, GL11.GL_UNSIGNED_BYTE, mIndexPointer);
-    }
-
     private float[] mapPoints(Matrix matrix, int x1, int y1, int x2, int y2) {
-        float[] point = mXyBuffer;
+        float[] point = mPointBuffer;
         point[0] = x1; point[1] = y1; point[2] = x2; point[3] = y2;
         matrix.mapPoints(point, 0, point, 0, 4);
         return point;
     }
 
     public void clipRect(int x, int y, int width, int height) {
+        flush();
         float point[] = mapPoints(
                 mTransformation.getMatrix(), x, y + height, x + width, y);
 
@@ -555,35 +766,42 @@ public class GLRootView extends GLSurfaceView
             y = (int) point[1];
             height = (int) point[3] - y;
         }
-        mGL.glScissor(x, y, width, height);
+
+        // Never draw outside of the area being redrawn in this frame.
+        Rect clip = mTempRect;
+        clip.set(x, y, x + width, y + height);
+        if (!clip.intersect(mFrameClip)) clip.setEmpty();
+        mGL.glScissor(clip.left, clip.top, clip.width(), clip.height());
     }
 
     public void clearClip() {
-        mGL.glScissor(0, 0, getWidth(), getHeight());
+        flush();
+        Rect clip = mFrameClip;
+        mGL.glScissor(clip.left, clip.top, clip.width(), clip.height());
     }
 
-    private static float[] toGLMatrix(float v[]) {
-        v[15] = v[8]; v[13] = v[5]; v[5] = v[4]; v[4] = v[1];
-        v[12] = v[2]; v[1] = v[3]; v[3] = v[6];
-        v[2] = v[6] = v[8] = v[9] = 0;
-        v[10] = 1;
-        return v;
+    // Sets mFrameClip to the dirty area, or the whole surface if it cannot
+    // be redrawn partially, and resets the dirty area.
+    private void updateFrameClip() {
+        int width = getWidth();
+        int height = getHeight();
+        Rect dirty = mDirtyRect;
+        if (!mSwapPreserved || mDirtyAll || dirty.isEmpty()
+                || !dirty.intersect(0, 0, width, height)) {
+            mFrameClip.set(0, 0, width, height);
+        } else {
+            // Flip the rectangle to the window coordinates of GL.
+            mFrameClip.set(dirty.left, height - dirty.bottom,
+                    dirty.right, height - dirty.top);
+        }
+        mDirtyAll = false;
+        dirty.setEmpty();
     }
 
     public void drawColor(int x, int y, int width, int height, int color) {
-        float alpha = mTransformation.getAlpha();
-        GL11 gl = mGL;
-        if (mTexture2DEnabled) {
-            // Set mLastAlpha to an invalid value, so that it will reset again
-            // in setAlphaValue(float) later.
-            mLastAlpha = -1.0f;
-            gl.glDisable(GL11.GL_TEXTURE_2D);
-            mTexture2DEnabled = false;
-        }
-        alpha /= 256.0f;
-        gl.glColor4f(Color.red(color) * alpha, Color.green(color) * alpha,
-                Color.blue(color) * alpha, Color.alpha(color) * alpha);
-        drawRect(x, y, width, height);
+        prepareBatch(null, color, mTransformation.getAlpha());
+        mTransformation.getMatrix().getValues(mMatrixValues);
+        addQuad(x, y, width, height, 0, 0, 0, 0);
     }
 
     public void drawTexture(
@@ -593,40 +811,22 @@ public class GLRootView extends GLSurfaceView
 
     public void drawTexture(BasicTexture texture,
             int x, int y, int width, int height, float alpha) {
-
-        if (!mTexture2DEnabled) {
-            mGL.glEnable(GL11.GL_TEXTURE_2D);
-            mTexture2DEnabled = true;
-        }
-
-        if (!texture.bind(this, mGL)) {
-            throw new RuntimeException("cannot bind" + texture.toString());
-        }
+        prepareBatch(texture, 0, alpha);
         if (width <= 0 || height <= 0) return ;
 
-        Matrix matrix = mTransformation.getMatrix();
-        matrix.getValues(mMatrixValues);
-
-        // Test whether it has been rotated or flipped, if so, glDrawTexiOES
-        // won't work
-        if (isMatrixRotatedOrFlipped(mMatrixValues)) {
-            putRectangle(0, 0,
-                    (texture.mWidth - 0.5f) / texture.mTextureWidth,
-                    (texture.mHeight - 0.5f) / texture.mTextureHeight,
-                    mUvBuffer, mUvPointer);
-            setAlphaValue(alpha);
-            drawRect(x, y, width, height, mMatrixValues);
+        // Unlike glDrawTexiOES, the quads work with any matrix, so rotated
+        // and flipped textures are batched as well.
+        mTransformation.getMatrix().getValues(mMatrixValues);
+        float u0 = (float) texture.mOffsetX / texture.mTextureWidth;
+        float v0 = (float) texture.mOffsetY / texture.mTextureHeight;
+        float u1 = (texture.mOffsetX + texture.mWidth - 0.5f)
+                / texture.mTextureWidth;
+        float v1 = (texture.mOffsetY + texture.mHeight - 0.5f)
+                / texture.mTextureHeight;
+        if (texture.isFlippedVertically()) {
+            addQuad(x, y, width, height, u0, v1, u1, v0);
         } else {
-            // draw the rect from bottom-left to top-right
-            float points[] = mapPoints(matrix, x, y + height, x + width, y);
-            x = (int) points[0];
-            y = (int) points[1];
-            width = (int) points[2] - x;
-            height = (int) points[3] - y;
-            if (width > 0 && height > 0) {
-                setAlphaValue(alpha);
-                ((GL11Ext) mGL).glDrawTexiOES(x, y, 0, width, height);
-            }
+            addQuad(x, y, width, height, u0, v0, u1, v1);
         }
     }
 
@@ -642,14 +842,20 @@ public class GLRootView extends GLSurfaceView
                 mFrameCountingStart = now;
             } else if ((now - mFrameCountingStart) > 1000000000) {
                 Log.v(TAG, "fps: " + (double) mFrameCount
-                        * 1000000000 / (now - mFrameCountingStart));
+                        * 1000000000 / (now - mFrameCountingStart)
+                        + ", draw calls per frame: "
+                        + (double) mDrawCallCount / mFrameCount);
                 mFrameCountingStart = now;
                 mFrameCount = 0;
+                mDrawCallCount = 0;
             }
             ++mFrameCount;
         }
 
         if ((mFlags & FLAG_NEED_LAYOUT) != 0) layoutContentPane();
+
+        // Invalidations made while rendering go to the next frame.
+        updateFrameClip();
         clearClip();
         gl.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_STENCIL_BUFFER_BIT);
         gl.glEnable(GL11.GL_BLEND);
@@ -663,11 +869,17 @@ public class GLRootView extends GLSurfaceView
         if (mContentView != null) {
             mContentView.render(GLRootView.this, (GL11) gl);
         }
+        drawBatch();
         long now = SystemClock.uptimeMillis();
         for (Animation animation : mAnimations) {
             animation.setStartTime(now);
         }
         mAnimations.clear();
+
+        if (!mFirstFrameDrawn) {
+            mFirstFrameDrawn = true;
+            StartupTrace.mark(StartupTrace.HUD_FIRST_FRAME);
+        }
     }
 
     @Override
@@ -690,6 +902,12 @@ public class GLRootView extends GLSurfaceView
     public void copyTexture2D(
             RawTexture texture, int x, int y, int width, int height)
             throws GLOutOfMemoryException {
+        // Make sure the pending quads are in the frame buffer before it is
+        // copied. The texture binding is changed below, so a new batch is
+        // started after this.
+        flush();
+        mBatchTexture = null;
+
         Matrix matrix = mTransformation.getMatrix();
         matrix.getValues(mMatrixValues);
 
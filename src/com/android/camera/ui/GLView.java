@@ -48,6 +48,7 @@ public class GLView {
 
     private OnTouchListener mOnTouchListener;
     private Animation mAnimation;
+    private DisplayList mDisplayList;
 
     protected int mViewFlags = 0;
 
@@ -84,7 +85,13 @@ public class GLView {
             mViewFlags |= FLAG_INVISIBLE;
         }
         onVisibilityChanged(visibility);
-        invalidate();
+        invalidateDisplayList();
+
+        // Redraw the area even if the view has just been hidden.
+        GLRootView root = getGLRootView();
+        if (root != null && (mParent == null || mParent.isShown())) {
+            root.invalidate(this);
+        }
     }
 
     public int getVisibility() {
@@ -96,6 +103,10 @@ public class GLView {
     }
 
     private boolean setBounds(int left, int top, int right, int bottom) {
+        if (left != mBounds.left || top != mBounds.top
+                || right != mBounds.right || bottom != mBounds.bottom) {
+            invalidateDisplayList();
+        }
         boolean sizeChanged = (right - left) != (mBounds.right - mBounds.left)
                 || (bottom - top) != (mBounds.bottom - mBounds.top);
         mBounds.set(left, top, right, bottom);
@@ -124,6 +135,7 @@ public class GLView {
 
     public void clearComponents() {
         mComponents = null;
+        invalidate();
     }
 
     public int getComponentCount() {
@@ -143,11 +155,14 @@ public class GLView {
         }
         mComponents.add(component);
         component.onAddToParent(this);
+        invalidateDisplayList();
     }
 
     public boolean removeComponent(GLView component) {
         if (mComponents == null) return false;
         if (mComponents.remove(component)) {
+            // The area is cleared in the next frame.
+            component.invalidate();
             component.onRemoveFromParent(this);
             return true;
         }
@@ -174,9 +189,81 @@ public class GLView {
         mOnTouchListener = listener;
     }
 
+    /**
+     * Redraws this view in the next frame. Nothing is done if the view cannot
+     * be seen.
+     */
     public void invalidate() {
+        invalidateDisplayList();
         GLRootView root = getGLRootView();
-        if (root != null) root.requestRender();
+        if (root != null && isShown()) root.invalidate(this);
+    }
+
+    /**
+     * Records the drawing of this view and its descendants once and draws
+     * the recording until one of them is invalidated. It saves walking the
+     * subtree in every frame, so it suits subtrees which rarely change.
+     * Subtrees which clip or change the GL state themselves are rendered
+     * normally.
+     */
+    public void setCachingEnabled(boolean enabled) {
+        mDisplayList = enabled ? new DisplayList() : null;
+    }
+
+    // Drops the recordings of this view and its ancestors.
+    private void invalidateDisplayList() {
+        for (GLView view = this; view != null; view = view.mParent) {
+            if (view.mDisplayList != null) view.mDisplayList.invalidate();
+        }
+    }
+
+    // Returns true if this view and all its ancestors are visible or being
+    // animated.
+    private boolean isShown() {
+        for (GLView view = this; view != null; view = view.mParent) {
+            if (view.getVisibility() != VISIBLE
+                    && view.mAnimation == null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the area this view draws into, in its own coordinates. It is the
+     * bounds of the view unless the view draws outside of them.
+     */
+    protected void getDrawingBounds(Rect out) {
+        out.set(0, 0, getWidth(), getHeight());
+    }
+
+    /**
+     * Maps the rectangle from the coordinates of the child to this view's.
+     * The child's position has already been applied. Views which transform
+     * their children when rendering must override this.
+     */
+    protected void mapChildRect(GLView child, Rect rect) {
+    }
+
+    /**
+     * Gets the area this view draws into, in the coordinates of the root
+     * view. Returns false if the area is unknown, e.g. because the view or
+     * one of its ancestors is being animated.
+     */
+    boolean getDrawingBoundsInRoot(Rect out) {
+        getDrawingBounds(out);
+        GLView view = this;
+        while (true) {
+            if (view.mAnimation != null) return false;
+            GLView parent = view.mParent;
+            Rect bounds = view.mBounds;
+            if (parent == null) {
+                out.offset(bounds.left, bounds.top);
+                return true;
+            }
+            out.offset(bounds.left - parent.mScrollX,
+                    bounds.top - parent.mScrollY);
+            parent.mapChildRect(view, out);
+            view = parent;
+        }
     }
 
     public void setEnabled(boolean enabled) {
@@ -184,6 +271,7 @@ public class GLView {
     }
 
     public void requestLayout() {
+        invalidateDisplayList();
         mViewFlags |= FLAG_LAYOUT_REQUESTED;
         if (mParent != null) {
             mParent.requestLayout();
@@ -222,16 +310,34 @@ public class GLView {
             if (!anim.getTransformation(now, temp)) {
                 component.mAnimation = null;
             }
-            invalidate();
+            // The animation may move the component anywhere, so the whole
+            // surface is redrawn. It can't be recorded either.
+            invalidateDisplayList();
+            root.requestRender();
             root.pushTransform();
             transform.compose(temp);
             root.freeTransformation(temp);
         }
-        component.render(root, gl);
+        if (component.mDisplayList != null) {
+            component.renderCached(root, gl);
+        } else {
+            component.render(root, gl);
+        }
         if (anim != null) root.popTransform();
         matrix.preTranslate(-xoffset, -yoffset);
     }
 
+    private void renderCached(GLRootView root, GL11 gl) {
+        DisplayList list = mDisplayList;
+        if (!list.isSupported() || root.isRecording()) {
+            render(root, gl);
+        } else if (!root.replay(list)) {
+            root.beginRecording(list);
+            render(root, gl);
+            root.endRecording();
+        }
+    }
+
     protected boolean onTouch(MotionEvent event) {
         if (mEnabled && mOnTouchListener != null) {
             return mOnTouchListener.onTouch(this, event);
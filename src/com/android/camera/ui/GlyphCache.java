@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.FontMetricsInt;
+import android.util.SparseArray;
+
+import java.util.HashMap;
+
+// Rasterizes each glyph once for a text size and color. The glyphs are small
+// BitmapTextures, so they are packed into the TextureAtlas and the glyphs of
+// a string are drawn in a single batch. Changing the text of a label then
+// costs no bitmap allocation and no upload unless a new character shows up.
+//
+// The layout is simple: the glyphs are placed one after another by their
+// advance widths. That is enough for the numbers and short labels of the
+// head-up display, but there is no kerning or complex script shaping.
+class GlyphCache {
+    // The same padding as StringTexture, so that a string drawn from the
+    // glyphs lines up with the StringTexture of the same text.
+    private static final int DEFAULT_PADDING = 1;
+
+    private static final HashMap<Long, GlyphCache> sCaches =
+            new HashMap<Long, GlyphCache>();
+
+    private final Paint mPaint;
+    private final FontMetricsInt mMetrics;
+    private final int mHeight;
+    private final SparseArray<Glyph> mGlyphs = new SparseArray<Glyph>();
+    private final char mChar[] = new char[1];
+    private final float mWidths[] = new float[1];
+
+    private class Glyph extends CanvasTexture {
+        final char mCharacter;
+        final float mAdvance;
+
+        Glyph(char character, float advance) {
+            super((int) Math.ceil(advance) + DEFAULT_PADDING * 2, mHeight);
+            mCharacter = character;
+            mAdvance = advance;
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas, Bitmap backing) {
+            canvas.translate(DEFAULT_PADDING,
+                    DEFAULT_PADDING - mMetrics.ascent);
+            synchronized (GlyphCache.this) {
+                mChar[0] = mCharacter;
+                canvas.drawText(mChar, 0, 1, 0, 0, mPaint);
+            }
+        }
+    }
+
+    private GlyphCache(float textSize, int color) {
+        Paint paint = new Paint();
+        paint.setTextSize(textSize);
+        paint.setAntiAlias(true);
+        paint.setColor(color);
+        mPaint = paint;
+        mMetrics = paint.getFontMetricsInt();
+        mHeight = mMetrics.bottom - mMetrics.top + DEFAULT_PADDING * 2;
+    }
+
+    public static synchronized GlyphCache get(float textSize, int color) {
+        Long key = ((long) Float.floatToIntBits(textSize) << 32)
+                | (color & 0xFFFFFFFFL);
+        GlyphCache cache = sCaches.get(key);
+        if (cache == null) {
+            cache = new GlyphCache(textSize, color);
+            sCaches.put(key, cache);
+        }
+        return cache;
+    }
+
+    private synchronized Glyph getGlyph(char c) {
+        Glyph glyph = mGlyphs.get(c);
+        if (glyph == null) {
+            mChar[0] = c;
+            mPaint.getTextWidths(mChar, 0, 1, mWidths);
+            glyph = new Glyph(c, mWidths[0]);
+            mGlyphs.put(c, glyph);
+        }
+        return glyph;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int measureWidth(String text) {
+        float width = 0;
+        for (int i = 0, n = text.length(); i < n; ++i) {
+            width += getGlyph(text.charAt(i)).mAdvance;
+        }
+        return (int) (.5f + width) + DEFAULT_PADDING * 2;
+    }
+
+    public void drawText(GLRootView root, String text, int x, int y) {
+        float pen = x;
+        for (int i = 0, n = text.length(); i < n; ++i) {
+            char c = text.charAt(i);
+            Glyph glyph = getGlyph(c);
+            if (!Character.isWhitespace(c)) {
+                glyph.draw(root, (int) (pen + .5f), y);
+            }
+            pen += glyph.mAdvance;
+        }
+    }
+}
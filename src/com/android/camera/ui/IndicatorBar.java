@@ -60,6 +60,9 @@ class IndicatorBar extends GLView {
         GLView background = new Background();
         background.setVisibility(GLView.INVISIBLE);
         addComponent(background);
+
+        // The indicators rarely change; draw them from a recording.
+        setCachingEnabled(true);
     }
 
     public void overrideSettings(String key, String value) {
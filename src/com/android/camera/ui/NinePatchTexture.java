@@ -45,6 +45,13 @@ class NinePatchTexture extends ResourceTexture {
         return bitmap;
     }
 
+    // The stretching in GLRootView.drawNinePatch() assumes the content
+    // starts at the origin of its own texture.
+    @Override
+    protected boolean isAtlasCandidate() {
+        return false;
+    }
+
     public Rect getPaddings() {
         // get the paddings from nine patch
         if (mChunk == null) getBitmap();
@@ -123,9 +123,11 @@ class PopupWindow extends GLView {
         aYoffset = Math.min(aYoffset, height - p.bottom - aHeight);
 
         if (mAnchor != null) {
+            root.flush();
             gl.glStencilOp(GL11.GL_KEEP, GL11.GL_KEEP, GL11.GL_REPLACE);
             gl.glStencilFunc(GL11.GL_ALWAYS, 1, 1);
             mAnchor.draw(root, aXoffset, aYoffset);
+            root.flush();
             gl.glStencilFunc(GL11.GL_NOTEQUAL, 1, 1);
             gl.glStencilOp(GL11.GL_KEEP, GL11.GL_KEEP, GL11.GL_KEEP);
         }
@@ -170,8 +172,12 @@ class PopupWindow extends GLView {
                     width - aWidth + mAnchorOffset, height);
         }
 
+        // The quads are drawn lazily by GLRootView, so flush them before and
+        // after changing the blending function.
+        root.flush();
         gl.glBlendFunc(GL11.GL_ONE, GL11.GL_ZERO);
         backup.drawBack(root, aXoffset, aYoffset, aWidth, aHeight);
+        root.flush();
         if (getGLRootView().getContext().getResources().getBoolean(R.bool.softwareGLOnly)) {
             gl.glBlendFunc(GL11.GL_ONE, GL11.GL_ONE);
         } else {
@@ -48,6 +48,11 @@ class RawTexture extends BasicTexture {
         return false;
     }
 
+    @Override
+    protected boolean isFlippedVertically() {
+        return true;
+    }
+
     public void drawBack(GLRootView root, int x, int y, int w, int h) {
         root.drawTexture(this, x, y, w, h, 1f);
     }
@@ -17,6 +17,7 @@
 package com.android.camera.ui;
 
 import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.view.MotionEvent;
 
 import javax.microedition.khronos.opengles.GL11;
@@ -93,6 +94,26 @@ class RotatePane extends GLView {
         view.popTransform();
     }
 
+    @Override
+    protected void mapChildRect(GLView child, Rect rect) {
+        int width = getWidth();
+        int height = getHeight();
+        switch (mOrientation) {
+            case DOWN:
+                rect.set(width - rect.right, height - rect.bottom,
+                        width - rect.left, height - rect.top);
+                break;
+            case LEFT:
+                rect.set(rect.top, height - rect.right,
+                        rect.bottom, height - rect.left);
+                break;
+            case RIGHT:
+                rect.set(width - rect.bottom, rect.left,
+                        width - rect.top, rect.right);
+                break;
+        }
+    }
+
     @Override
     protected boolean dispatchTouchEvent(MotionEvent event) {
         float x = event.getX();
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.ui;
+
+// A label drawn with the glyphs of a GlyphCache. Unlike StringTexture, the
+// text can be changed without allocating or uploading a new bitmap.
+class TextTexture implements Texture {
+    private final GlyphCache mGlyphs;
+    private String mText = "";
+    private int mWidth;
+
+    public TextTexture(GlyphCache glyphs) {
+        mGlyphs = glyphs;
+        mWidth = glyphs.measureWidth(mText);
+    }
+
+    public TextTexture(String text, float textSize, int color) {
+        this(GlyphCache.get(textSize, color));
+        setText(text);
+    }
+
+    public void setText(String text) {
+        if (text.equals(mText)) return;
+        mText = text;
+        mWidth = mGlyphs.measureWidth(text);
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mGlyphs.getHeight();
+    }
+
+    public void draw(GLRootView root, int x, int y) {
+        mGlyphs.drawText(root, mText, x, y);
+    }
+
+    // The text is not stretched; it is drawn at its own size.
+    public void draw(GLRootView root, int x, int y, int w, int h) {
+        mGlyphs.drawText(root, mText, x, y);
+    }
+}
@@ -17,6 +17,8 @@
 package com.android.camera.ui;
 
 interface Texture {
+    public int getWidth();
+    public int getHeight();
     public void draw(GLRootView root, int x, int y);
     public void draw(GLRootView root, int x, int y, int w, int h);
 }
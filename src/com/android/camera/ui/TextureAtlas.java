@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.ui;
+
+import android.graphics.Bitmap;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import javax.microedition.khronos.opengles.GL11;
+
+// Packs small bitmaps (icons and labels) into a few shared textures, so that
+// they don't each waste a power-of-2 texture and can be drawn in one batch.
+//
+// The bitmaps are added lazily when they are first bound. Each page is
+// filled with a shelf packer: a sprite goes onto the shelf with the least
+// wasted height, and a new shelf is opened when none fits. When all the
+// pages are full, the least recently used page is cleared; the sprites on it
+// notice the new generation of the page and are added again when they are
+// drawn next time.
+class TextureAtlas {
+    private static final String TAG = "TextureAtlas";
+
+    private static final int PAGE_SIZE = 512;
+    private static final int MAX_PAGE_COUNT = 3;
+
+    // Only the bitmaps within these bounds go into the atlas.
+    private static final int MAX_SPRITE_WIDTH = PAGE_SIZE / 2;
+    private static final int MAX_SPRITE_HEIGHT = PAGE_SIZE / 4;
+
+    // The transparent gap between the sprites, so that the linear filter
+    // won't pick up the pixels of the neighbors.
+    private static final int PADDING = 1;
+
+    private final ArrayList<Page> mPages = new ArrayList<Page>();
+    private long mUseCount;
+
+    private static class Shelf {
+        final int mY;
+        final int mHeight;
+        int mX;
+
+        Shelf(int y, int height) {
+            mY = y;
+            mHeight = height;
+        }
+    }
+
+    static class Page extends BasicTexture {
+        private final TextureAtlas mAtlas;
+        private final ArrayList<Shelf> mShelves = new ArrayList<Shelf>();
+        private int mNextShelfY;
+        private int mGeneration;
+        private long mLastUsed;
+
+        private Page(TextureAtlas atlas, GL11 gl, int id) {
+            super(gl, id, STATE_LOADED);
+            mAtlas = atlas;
+            setSize(PAGE_SIZE, PAGE_SIZE);
+            setTextureSize(PAGE_SIZE, PAGE_SIZE);
+        }
+
+        boolean holds(BitmapTexture texture, GL11 gl) {
+            return mState == STATE_LOADED && mGL == gl
+                    && texture.mAtlasGeneration == mGeneration;
+        }
+
+        void touch() {
+            mLastUsed = ++mAtlas.mUseCount;
+        }
+
+        @Override
+        protected boolean bind(GLRootView root, GL11 gl) {
+            if (mState == STATE_LOADED && mGL == gl) {
+                gl.glBindTexture(GL11.GL_TEXTURE_2D, getId());
+                return true;
+            }
+            return false;
+        }
+
+        // Finds a place for a sprite of the given size (including the
+        // padding) and returns the shelf holding it, or null if it is full.
+        private Shelf allocate(int width, int height) {
+            Shelf best = null;
+            for (int i = 0, n = mShelves.size(); i < n; ++i) {
+                Shelf shelf = mShelves.get(i);
+                if (shelf.mHeight < height
+                        || shelf.mX + width > PAGE_SIZE) continue;
+                if (best == null || shelf.mHeight < best.mHeight) best = shelf;
+            }
+            // Don't put small sprites on a much taller shelf unless there is
+            // no room for a new one.
+            boolean roomForShelf = mNextShelfY + height <= PAGE_SIZE;
+            if (best != null
+                    && (best.mHeight <= height * 3 / 2 || !roomForShelf)) {
+                return best;
+            }
+            if (!roomForShelf) return null;
+            Shelf shelf = new Shelf(mNextShelfY, height);
+            mNextShelfY += height;
+            mShelves.add(shelf);
+            return shelf;
+        }
+
+        // Drops all the sprites. They are uploaded again when needed.
+        private void clear(GL11 gl) {
+            mShelves.clear();
+            mNextShelfY = 0;
+            ++mGeneration;
+            clearPixels(gl, getId());
+        }
+    }
+
+    public boolean isCandidate(BasicTexture texture) {
+        return texture.getWidth() <= MAX_SPRITE_WIDTH
+                && texture.getHeight() <= MAX_SPRITE_HEIGHT;
+    }
+
+    /**
+     * Uploads the bitmap of the texture into a page. On success, the texture
+     * is updated to refer to its area in the page, the page is bound, and
+     * true is returned.
+     */
+    public boolean add(GL11 gl, BitmapTexture texture) {
+        if (!isCandidate(texture)) return false;
+
+        int width = texture.getWidth() + PADDING;
+        int height = texture.getHeight() + PADDING;
+
+        // Check the bitmap before taking any space, so that a texture which
+        // can't be uploaded never wastes a shelf or evicts a page.
+        Bitmap bitmap = texture.getBitmap();
+        if (bitmap == null) return false;
+        Page page = null;
+        Shelf shelf = null;
+        try {
+            if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) return false;
+
+            for (int i = 0, n = mPages.size(); i < n && shelf == null; ++i) {
+                page = mPages.get(i);
+                shelf = page.allocate(width, height);
+            }
+            if (shelf == null) {
+                page = mPages.size() < MAX_PAGE_COUNT
+                        ? newPage(gl)
+                        : evictLeastRecentlyUsed(gl);
+                if (page == null) return false;
+                shelf = page.allocate(width, height);
+            }
+
+            gl.glBindTexture(GL11.GL_TEXTURE_2D, page.getId());
+            GLUtils.texSubImage2D(GL11.GL_TEXTURE_2D, 0, shelf.mX, shelf.mY,
+                    bitmap, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE);
+        } finally {
+            texture.freeBitmap(bitmap);
+        }
+
+        texture.mAtlasPage = page;
+        texture.mAtlasGeneration = page.mGeneration;
+        texture.mOffsetX = shelf.mX;
+        texture.mOffsetY = shelf.mY;
+        texture.setTextureSize(PAGE_SIZE, PAGE_SIZE);
+        texture.mGL = gl;
+        texture.mId = page.getId();
+        texture.mState = BasicTexture.STATE_LOADED;
+        shelf.mX += width;
+        page.touch();
+        return true;
+    }
+
+    private Page newPage(GL11 gl) {
+        int[] textureId = new int[1];
+        gl.glGenTextures(1, textureId, 0);
+        gl.glBindTexture(GL11.GL_TEXTURE_2D, textureId[0]);
+        gl.glTexParameteri(GL11.GL_TEXTURE_2D,
+                GL11.GL_TEXTURE_WRAP_S, GL11.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL11.GL_TEXTURE_2D,
+                GL11.GL_TEXTURE_WRAP_T, GL11.GL_CLAMP_TO_EDGE);
+        gl.glTexParameterf(GL11.GL_TEXTURE_2D,
+                GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+        gl.glTexParameterf(GL11.GL_TEXTURE_2D,
+                GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        clearPixels(gl, textureId[0]);
+
+        int glError = gl.glGetError();
+        if (glError != GL11.GL_NO_ERROR) {
+            Log.w(TAG, "cannot allocate a page, glError " + glError);
+            gl.glDeleteTextures(1, textureId, 0);
+            return null;
+        }
+        Page page = new Page(this, gl, textureId[0]);
+        mPages.add(page);
+        return page;
+    }
+
+    private Page evictLeastRecentlyUsed(GL11 gl) {
+        Page victim = null;
+        for (int i = 0, n = mPages.size(); i < n; ++i) {
+            Page page = mPages.get(i);
+            if (victim == null || page.mLastUsed < victim.mLastUsed) {
+                victim = page;
+            }
+        }
+        if (victim != null) victim.clear(gl);
+        return victim;
+    }
+
+    // Fills the texture with transparent pixels, so the padding is clean.
+    private static void clearPixels(GL11 gl, int id) {
+        ByteBuffer pixels =
+                ByteBuffer.allocateDirect(PAGE_SIZE * PAGE_SIZE * 4);
+        gl.glBindTexture(GL11.GL_TEXTURE_2D, id);
+        gl.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, PAGE_SIZE,
+                PAGE_SIZE, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixels);
+    }
+}
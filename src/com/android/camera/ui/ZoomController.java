@@ -53,7 +53,7 @@ class ZoomController extends GLView {
     private static BitmapTexture sTickMark;
     private static BitmapTexture sFineTickMark;
 
-    private StringTexture mTickLabels[];
+    private TextTexture mTickLabels[];
     private float mRatios[];
     private int mIndex;
 
@@ -158,10 +158,10 @@ class ZoomController extends GLView {
         if (Arrays.equals(ratios, mRatios)) return;
         mRatios = ratios;
         mLabelStep = getLabelStep(ratios.length);
-        mTickLabels = new StringTexture[
+        mTickLabels = new TextTexture[
                 (ratios.length + mLabelStep - 1) / mLabelStep];
         for (int i = 0, n = mTickLabels.length; i < n; ++i) {
-            mTickLabels[i] = StringTexture.newInstance(
+            mTickLabels[i] = new TextTexture(
                     sZoomFormat.format(ratios[i * mLabelStep]),
                     sLabelSize, LABEL_COLOR);
         }
@@ -221,7 +221,7 @@ class ZoomController extends GLView {
         int xoffset = mPaddings.left + mMaxLabelWidth;
         float yoffset = mSliderBottom - sSlider.getHeight() / 2;
         for (int i = 0, n = mTickLabels.length; i < n; ++i) {
-            BitmapTexture t = mTickLabels[i];
+            TextTexture t = mTickLabels[i];
             t.draw(root, xoffset - t.getWidth(),
                     (int) (yoffset - t.getHeight() / 2));
             yoffset -= labelStep * gap;
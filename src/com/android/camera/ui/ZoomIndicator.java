@@ -40,39 +40,36 @@ class ZoomIndicator extends AbstractIndicator {
     private int mZoomIndex = 0;
     private int mDrawIndex = -1;
     private float mZoomRatios[];
+    private String mZoomLabels[];
 
-    private StringTexture mTitle;
+    // The title is drawn from cached glyphs, so changing the zoom doesn't
+    // allocate or upload a bitmap.
+    private final TextTexture mTitle;
 
     public ZoomIndicator(Context context) {
         super(context);
         mFontSize = GLRootView.dpToPixel(context, FONT_SIZE);
+        mTitle = new TextTexture(GlyphCache.get(mFontSize, FONT_COLOR));
     }
 
     @Override
     protected void onMeasure(int widthSpec, int heightSpec) {
+        GlyphCache glyphs = GlyphCache.get(mFontSize, FONT_COLOR);
         int maxWidth = 0;
-        int maxHeight = 0;
-        int n = mZoomRatios == null ? 0: mZoomRatios.length;
+        int n = mZoomLabels == null ? 0: mZoomLabels.length;
         for (int i = 0; i < n; ++i) {
-            float value = mZoomRatios[i];
-            BitmapTexture tex = StringTexture.newInstance(
-                    sZoomFormat.format(value), mFontSize, FONT_COLOR);
-            if (maxWidth < tex.getWidth()) maxWidth = tex.getWidth();
-            if (maxHeight < tex.getHeight()) maxHeight = tex.getHeight();
+            maxWidth = Math.max(maxWidth, glyphs.measureWidth(mZoomLabels[i]));
         }
         new MeasureHelper(this)
-                .setPreferredContentSize(maxWidth, maxHeight)
+                .setPreferredContentSize(maxWidth, glyphs.getHeight())
                 .measure(widthSpec, heightSpec);
     }
 
     @Override
-    protected BitmapTexture getIcon() {
+    protected Texture getIcon() {
         if (mDrawIndex != mZoomIndex) {
             mDrawIndex = mZoomIndex;
-            if (mTitle != null) mTitle.deleteFromGL();
-            float value = mZoomRatios[mZoomIndex];
-            mTitle = StringTexture.newInstance(
-                    sZoomFormat.format(value), mFontSize, FONT_COLOR);
+            mTitle.setText(mZoomLabels[mZoomIndex]);
         }
         return mTitle;
     }
@@ -111,6 +108,10 @@ class ZoomIndicator extends AbstractIndicator {
 
     public void setZoomRatios(float[] ratios) {
         mZoomRatios = ratios;
+        mZoomLabels = new String[ratios.length];
+        for (int i = 0, n = ratios.length; i < n; ++i) {
+            mZoomLabels[i] = sZoomFormat.format(ratios[i]);
+        }
         mDrawIndex = -1;
         invalidate();
     }
@@ -30,6 +30,11 @@ public class CameraStressTestRunner extends InstrumentationTestRunner {
     public static int mVideoIterations = 100; // set default to 100 videos
     public static int mImageIterations = 100; // set default to 100 images
 
+    // Default launch benchmark settings
+    public static int mLaunchIterations = 20;
+    public static int mLaunchThreshold = 10; // percent over the baseline
+    public static boolean mLaunchUpdateBaseline = false;
+
     @Override
     public TestSuite getAllTests() {
         TestSuite suite = new InstrumentationTestSuite(this);
@@ -48,6 +53,10 @@ public class CameraStressTestRunner extends InstrumentationTestRunner {
         String video_iterations = (String) icicle.get("video_iterations");
         String image_iterations = (String) icicle.get("image_iterations");
         String video_duration = (String) icicle.get("video_duration");
+        String launch_iterations = (String) icicle.get("launch_iterations");
+        String launch_threshold = (String) icicle.get("launch_threshold");
+        String launch_update_baseline =
+                (String) icicle.get("launch_update_baseline");
 
         if ( video_iterations != null ) {
             mVideoIterations = Integer.parseInt(video_iterations);
@@ -58,5 +67,15 @@ public class CameraStressTestRunner extends InstrumentationTestRunner {
         if ( video_duration != null) {
             mVideoDuration = Integer.parseInt(video_duration);
         }
+        if (launch_iterations != null) {
+            mLaunchIterations = Integer.parseInt(launch_iterations);
+        }
+        if (launch_threshold != null) {
+            mLaunchThreshold = Integer.parseInt(launch_threshold);
+        }
+        if (launch_update_baseline != null) {
+            mLaunchUpdateBaseline =
+                    Boolean.parseBoolean(launch_update_baseline);
+        }
     }
 }
@@ -20,6 +20,7 @@ import com.android.camera.stress.ImageCapture;
 import com.android.camera.stress.SwitchPreview;
 import com.android.camera.stress.CameraLatency;
 import com.android.camera.stress.CameraStartUp;
+import com.android.camera.stress.CameraLaunchBenchmark;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +42,7 @@ public class StressTests extends TestSuite {
         result.addTestSuite(ImageCapture.class);
         result.addTestSuite(CameraLatency.class);
         result.addTestSuite(CameraStartUp.class);
+        result.addTestSuite(CameraLaunchBenchmark.class);
         return result;
     }
 }
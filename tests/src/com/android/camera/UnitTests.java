@@ -29,6 +29,7 @@ public class UnitTests extends TestSuite {
     public static Test suite() {
         return new UnitTestSuiteBuilder(UnitTests.class)
                 .includePackages("com.android.camera.unittest",
+                                 "com.android.camera.exif",
                                  "com.android.camera.gallery")
                 .named("Camera Unit Tests")
                 .build();
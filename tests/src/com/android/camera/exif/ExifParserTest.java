@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.exif;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+@SmallTest
+public class ExifParserTest extends TestCase {
+
+    private static final byte[] THUMBNAIL = new byte[] {
+            (byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, (byte) 0xFF, (byte) 0xD9};
+
+    private static final String DATE_TIME = "2010:09:08 07:06:05";
+    private static final String DATE_TIME_ORIGINAL = "2010:01:02 03:04:05";
+
+    public void testOrientationLittleEndian() {
+        for (int[] pair : new int[][] {{1, 0}, {3, 180}, {6, 90}, {8, 270}}) {
+            ExifParser parser = new ExifParser();
+            assertTrue(parser.parse(new JpegBuilder(true)
+                    .orientation(pair[0]).build()));
+            assertEquals(pair[1], parser.getDegrees());
+        }
+    }
+
+    public void testOrientationBigEndian() {
+        ExifParser parser = new ExifParser();
+        assertTrue(parser.parse(new JpegBuilder(false)
+                .orientation(6).build()));
+        assertEquals(90, parser.getDegrees());
+    }
+
+    public void testDateTime() {
+        ExifParser parser = new ExifParser();
+        assertTrue(parser.parse(new JpegBuilder(true)
+                .dateTime(DATE_TIME).build()));
+        assertEquals(DATE_TIME, parser.getDateTime());
+
+        // DateTimeOriginal in the EXIF IFD takes precedence.
+        assertTrue(parser.parse(new JpegBuilder(false).dateTime(DATE_TIME)
+                .dateTimeOriginal(DATE_TIME_ORIGINAL).build()));
+        assertEquals(DATE_TIME_ORIGINAL, parser.getDateTime());
+    }
+
+    public void testGps() {
+        ExifParser parser = new ExifParser();
+        assertTrue(parser.parse(new JpegBuilder(true)
+                .gps('S', 33, 51, 36, 'E', 151, 12, 36).build()));
+        assertTrue(parser.hasLatLong());
+        assertEquals(-33.86, parser.getLatitude(), 1e-6);
+        assertEquals(151.21, parser.getLongitude(), 1e-6);
+
+        assertTrue(parser.parse(new JpegBuilder(false)
+                .gps('N', 37, 25, 12, 'W', 122, 5, 24).build()));
+        assertEquals(37.42, parser.getLatitude(), 1e-6);
+        assertEquals(-122.09, parser.getLongitude(), 1e-6);
+    }
+
+    public void testThumbnail() {
+        byte[] jpeg = new JpegBuilder(true).orientation(8)
+                .thumbnail(THUMBNAIL).build();
+        ExifParser parser = new ExifParser();
+        assertTrue(parser.parse(jpeg));
+        assertEquals(270, parser.getDegrees());
+        assertEquals(THUMBNAIL.length, parser.getThumbnailLength());
+        int offset = parser.getThumbnailOffset();
+        for (int i = 0; i < THUMBNAIL.length; ++i) {
+            assertEquals(THUMBNAIL[i], jpeg[offset + i]);
+        }
+    }
+
+    public void testByteBufferPosition() {
+        byte[] jpeg = new JpegBuilder(false).orientation(3)
+                .thumbnail(THUMBNAIL).build();
+        byte[] padded = new byte[jpeg.length + 10];
+        System.arraycopy(jpeg, 0, padded, 10, jpeg.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded);
+        buffer.position(10);
+
+        ExifParser parser = new ExifParser();
+        assertTrue(parser.parse(buffer));
+        assertEquals(10, buffer.position());
+        assertEquals(180, parser.getDegrees());
+        assertEquals(THUMBNAIL[2], padded[parser.getThumbnailOffset() + 2]);
+    }
+
+    public void testReuseResetsResults() {
+        ExifParser parser = new ExifParser();
+        assertTrue(parser.parse(new JpegBuilder(true).orientation(6)
+                .dateTime(DATE_TIME).thumbnail(THUMBNAIL).build()));
+        assertTrue(parser.parse(new JpegBuilder(true).build()));
+        assertEquals(0, parser.getDegrees());
+        assertNull(parser.getDateTime());
+        assertFalse(parser.hasLatLong());
+        assertEquals(0, parser.getThumbnailLength());
+    }
+
+    public void testNoExif() {
+        ExifParser parser = new ExifParser();
+        assertFalse(parser.parse(new byte[] {
+                (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9}));
+        assertFalse(parser.parse(new byte[] {1, 2, 3, 4, 5, 6}));
+        assertFalse(parser.parse(new byte[0]));
+    }
+
+    public void testTruncatedHeader() {
+        byte[] jpeg = new JpegBuilder(true).orientation(6)
+                .gps('N', 1, 2, 3, 'E', 4, 5, 6).build();
+        for (int length = 0; length < jpeg.length; ++length) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(jpeg, 0, truncated, 0, length);
+            // Must not throw.
+            new ExifParser().parse(truncated);
+        }
+    }
+
+    public void testThumbnailOutsideOfSegment() {
+        // The thumbnail runs into the EOI marker, past the APP1 segment but
+        // still within the buffer.
+        ExifParser parser = new ExifParser();
+        assertTrue(parser.parse(new JpegBuilder(true).thumbnail(THUMBNAIL)
+                .thumbnailPosition(-1, THUMBNAIL.length + 2).build()));
+        assertEquals(0, parser.getThumbnailLength());
+
+        // The offset and the length overflow an int when added.
+        assertTrue(parser.parse(new JpegBuilder(false).thumbnail(THUMBNAIL)
+                .thumbnailPosition(0x7FFFFFF0, 0x20).build()));
+        assertEquals(0, parser.getThumbnailLength());
+        assertTrue(parser.parse(new JpegBuilder(true).thumbnail(THUMBNAIL)
+                .thumbnailPosition(0xFFFFFFF0, THUMBNAIL.length).build()));
+        assertEquals(0, parser.getThumbnailLength());
+    }
+
+    public void testIfdOffsetOverflow() {
+        ExifParser parser = new ExifParser();
+        // Must not throw.
+        assertTrue(parser.parse(new JpegBuilder(true).orientation(6)
+                .thumbnail(THUMBNAIL).nextIfd(0x7FFFFFFF).build()));
+        assertEquals(90, parser.getDegrees());
+        assertEquals(0, parser.getThumbnailLength());
+    }
+
+    /**
+     * Builds a minimal JPEG: SOI, an APP1 EXIF segment and EOI. The TIFF
+     * layout is IFD0, followed by the EXIF IFD, the GPS IFD, IFD1 and then
+     * the data area.
+     */
+    private static class JpegBuilder {
+        private final boolean mLittleEndian;
+        private int mOrientation;
+        private String mDateTime;
+        private String mDateTimeOriginal;
+        private char mLatRef;
+        private char mLongRef;
+        private int[] mLat;
+        private int[] mLong;
+        private byte[] mThumbnail;
+        private int mThumbnailOffset = -1;
+        private int mThumbnailLength = -1;
+        private int mNextIfd = -1;
+
+        JpegBuilder(boolean littleEndian) {
+            mLittleEndian = littleEndian;
+        }
+
+        JpegBuilder orientation(int value) {
+            mOrientation = value;
+            return this;
+        }
+
+        JpegBuilder dateTime(String value) {
+            mDateTime = value;
+            return this;
+        }
+
+        JpegBuilder dateTimeOriginal(String value) {
+            mDateTimeOriginal = value;
+            return this;
+        }
+
+        JpegBuilder gps(char latRef, int latDeg, int latMin, int latSec,
+                char longRef, int longDeg, int longMin, int longSec) {
+            mLatRef = latRef;
+            mLat = new int[] {latDeg, latMin, latSec};
+            mLongRef = longRef;
+            mLong = new int[] {longDeg, longMin, longSec};
+            return this;
+        }
+
+        JpegBuilder thumbnail(byte[] data) {
+            mThumbnail = data;
+            return this;
+        }
+
+        // Overrides the thumbnail offset and length written to IFD1; -1
+        // keeps the real value.
+        JpegBuilder thumbnailPosition(int offset, int length) {
+            mThumbnailOffset = offset;
+            mThumbnailLength = length;
+            return this;
+        }
+
+        // Overrides the offset of IFD1 written at the end of IFD0.
+        JpegBuilder nextIfd(int offset) {
+            mNextIfd = offset;
+            return this;
+        }
+
+        byte[] build() {
+            int ifd0Count = (mOrientation != 0 ? 1 : 0)
+                    + (mDateTime != null ? 1 : 0)
+                    + (mDateTimeOriginal != null ? 1 : 0)
+                    + (mLat != null ? 1 : 0);
+            int exifCount = mDateTimeOriginal != null ? 1 : 0;
+            int gpsCount = mLat != null ? 4 : 0;
+            int ifd1Count = mThumbnail != null ? 2 : 0;
+
+            int ifd0 = 8;
+            int exifIfd = ifd0 + ifdSize(ifd0Count);
+            int gpsIfd = exifIfd + (exifCount > 0 ? ifdSize(exifCount) : 0);
+            int ifd1 = gpsIfd + (gpsCount > 0 ? ifdSize(gpsCount) : 0);
+            int data = ifd1 + (ifd1Count > 0 ? ifdSize(ifd1Count) : 0);
+
+            int dateOffset = data;
+            int dateOriginalOffset = dateOffset + 20;
+            int latOffset = dateOriginalOffset + 20;
+            int longOffset = latOffset + 24;
+            int thumbOffset = longOffset + 24;
+            int tiffLength = thumbOffset
+                    + (mThumbnail != null ? mThumbnail.length : 0);
+
+            byte[] tiff = new byte[tiffLength];
+            if (mLittleEndian) {
+                tiff[0] = 'I';
+                tiff[1] = 'I';
+            } else {
+                tiff[0] = 'M';
+                tiff[1] = 'M';
+            }
+            put(tiff, 2, 2, 42);
+            put(tiff, 4, 4, ifd0);
+
+            int entry = ifd0;
+            put(tiff, entry, 2, ifd0Count);
+            entry += 2;
+            if (mOrientation != 0) {
+                entry = putEntry(tiff, entry, 0x0112, 3, 1, mOrientation, 2);
+            }
+            if (mDateTime != null) {
+                entry = putEntry(tiff, entry, 0x0132, 2, 20, dateOffset, 4);
+                putString(tiff, dateOffset, mDateTime);
+            }
+            if (exifCount > 0) {
+                entry = putEntry(tiff, entry, 0x8769, 4, 1, exifIfd, 4);
+            }
+            if (gpsCount > 0) {
+                entry = putEntry(tiff, entry, 0x8825, 4, 1, gpsIfd, 4);
+            }
+            put(tiff, entry, 4,
+                    mNextIfd != -1 ? mNextIfd : ifd1Count > 0 ? ifd1 : 0);
+
+            if (exifCount > 0) {
+                entry = exifIfd;
+                put(tiff, entry, 2, exifCount);
+                entry += 2;
+                entry = putEntry(tiff, entry, 0x9003, 2, 20,
+                        dateOriginalOffset, 4);
+                putString(tiff, dateOriginalOffset, mDateTimeOriginal);
+                put(tiff, entry, 4, 0);
+            }
+
+            if (gpsCount > 0) {
+                entry = gpsIfd;
+                put(tiff, entry, 2, gpsCount);
+                entry += 2;
+                entry = putEntry(tiff, entry, 1, 2, 2, 0, 4);
+                tiff[entry - 4] = (byte) mLatRef;
+                entry = putEntry(tiff, entry, 2, 5, 3, latOffset, 4);
+                entry = putEntry(tiff, entry, 3, 2, 2, 0, 4);
+                tiff[entry - 4] = (byte) mLongRef;
+                entry = putEntry(tiff, entry, 4, 5, 3, longOffset, 4);
+                put(tiff, entry, 4, 0);
+                putDegrees(tiff, latOffset, mLat);
+                putDegrees(tiff, longOffset, mLong);
+            }
+
+            if (ifd1Count > 0) {
+                entry = ifd1;
+                put(tiff, entry, 2, ifd1Count);
+                entry += 2;
+                entry = putEntry(tiff, entry, 0x0201, 4, 1,
+                        mThumbnailOffset != -1 ? mThumbnailOffset : thumbOffset,
+                        4);
+                entry = putEntry(tiff, entry, 0x0202, 4, 1,
+                        mThumbnailLength != -1
+                                ? mThumbnailLength : mThumbnail.length, 4);
+                put(tiff, entry, 4, 0);
+                System.arraycopy(mThumbnail, 0, tiff, thumbOffset,
+                        mThumbnail.length);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(0xFF);
+            out.write(0xD8);
+            out.write(0xFF);
+            out.write(0xE1);
+            int length = 2 + 6 + tiff.length;
+            out.write(length >> 8);
+            out.write(length & 0xFF);
+            out.write('E');
+            out.write('x');
+            out.write('i');
+            out.write('f');
+            out.write(0);
+            out.write(0);
+            out.write(tiff, 0, tiff.length);
+            out.write(0xFF);
+            out.write(0xD9);
+            return out.toByteArray();
+        }
+
+        private static int ifdSize(int count) {
+            return 2 + count * 12 + 4;
+        }
+
+        private int putEntry(byte[] tiff, int entry, int tag, int type,
+                int count, int value, int valueSize) {
+            put(tiff, entry, 2, tag);
+            put(tiff, entry + 2, 2, type);
+            put(tiff, entry + 4, 4, count);
+            put(tiff, entry + 8, valueSize, value);
+            return entry + 12;
+        }
+
+        private void putDegrees(byte[] tiff, int offset, int[] values) {
+            for (int i = 0; i < 3; ++i) {
+                put(tiff, offset + i * 8, 4, values[i]);
+                put(tiff, offset + i * 8 + 4, 4, 1);
+            }
+        }
+
+        private static void putString(byte[] tiff, int offset, String s) {
+            for (int i = 0; i < s.length(); ++i) {
+                tiff[offset + i] = (byte) s.charAt(i);
+            }
+        }
+
+        private void put(byte[] tiff, int offset, int length, int value) {
+            for (int i = 0; i < length; ++i) {
+                int shift = mLittleEndian ? i * 8 : (length - 1 - i) * 8;
+                tiff[offset + i] = (byte) (value >> shift);
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.android.camera.gallery;
+
+import com.android.camera.ImageManager;
+
+import android.content.ContentResolver;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+public class BaseImageListUnitTests extends AndroidTestCase {
+
+    private static final Uri URI =
+            Uri.parse("content://com.android.camera.tests/images");
+
+    // The rows of the fake provider: {id, date taken}.
+    private final ArrayList<long[]> mTable = new ArrayList<long[]>();
+
+    private TableImageList mList;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mList != null) mList.close();
+        super.tearDown();
+    }
+
+    private void insert(long id, long dateTaken) {
+        mTable.add(new long[] {id, dateTaken});
+    }
+
+    private TableImageList createList(int sort) {
+        mList = new TableImageList(getContext().getContentResolver(), sort);
+        return mList;
+    }
+
+    private static void assertIds(BaseImageList list, long... ids) {
+        assertEquals(ids.length, list.getCount());
+        for (int i = 0; i < ids.length; ++i) {
+            assertEquals(ids[i], list.getImageId(i));
+        }
+        assertEquals(-1, list.getImageId(ids.length));
+        assertEquals(-1, list.getImageId(-1));
+    }
+
+    @SmallTest
+    public void testAddedRowsDescending() {
+        insert(1, 10);
+        insert(2, 20);
+        insert(3, 30);
+        TableImageList list = createList(ImageManager.SORT_DESCENDING);
+        assertIds(list, 3, 2, 1);
+        IImage oldest = list.getImageAt(2);
+
+        insert(4, 40);
+        insert(5, 50);
+        list.onContentChanged();
+        // The new rows come first and the cursor rows keep their images.
+        assertIds(list, 5, 4, 3, 2, 1);
+        assertEquals(3, list.mAfterId);
+        assertEquals(1, list.mQueryCount);
+        assertEquals(0, list.getGeneration());
+        assertEquals(50, list.getImageAt(0).getDateTaken());
+        assertSame(oldest, list.getImageAt(4));
+
+        long[] dates = new long[5];
+        assertEquals(5, list.getDatesTaken(0, dates));
+        assertEquals(40, dates[1]);
+        assertEquals(10, dates[4]);
+    }
+
+    @SmallTest
+    public void testAddedRowsAscending() {
+        insert(1, 10);
+        insert(2, 20);
+        TableImageList list = createList(ImageManager.SORT_ASCENDING);
+        assertIds(list, 1, 2);
+
+        insert(3, 30);
+        list.onContentChanged();
+        assertIds(list, 1, 2, 3);
+        assertEquals(2, list.mAfterId);
+
+        // The added rows grow from the newest one known.
+        insert(4, 40);
+        list.onContentChanged();
+        assertIds(list, 1, 2, 3, 4);
+        assertEquals(3, list.mAfterId);
+        assertEquals(2, list.mQueryCount);
+        assertEquals(0, list.getGeneration());
+        assertEquals(40, list.getImageAt(3).getDateTaken());
+        assertNull(list.getImageAt(4));
+    }
+
+    @SmallTest
+    public void testSameDateNewerId() {
+        insert(1, 10);
+        TableImageList list = createList(ImageManager.SORT_DESCENDING);
+        insert(2, 10);
+        list.onContentChanged();
+        // The id breaks the tie, so the row still sorts after the others.
+        assertIds(list, 2, 1);
+        assertEquals(0, list.getGeneration());
+    }
+
+    @SmallTest
+    public void testRowInTheMiddleRequeries() {
+        for (int sort : new int[] {
+                ImageManager.SORT_DESCENDING, ImageManager.SORT_ASCENDING}) {
+            mTable.clear();
+            insert(1, 10);
+            insert(2, 30);
+            TableImageList list = createList(sort);
+            insert(3, 40);
+            list.onContentChanged();
+            assertEquals(3, list.getCount());
+            assertEquals(0, list.getGeneration());
+
+            // An older picture, for example copied from another device.
+            insert(4, 20);
+            list.onContentChanged();
+            if (sort == ImageManager.SORT_DESCENDING) {
+                assertIds(list, 3, 2, 4, 1);
+            } else {
+                assertIds(list, 1, 4, 2, 3);
+            }
+            assertEquals(1, list.getGeneration());
+            assertEquals(2, list.mQueryCount);
+            list.close();
+            mList = null;
+        }
+    }
+
+    @SmallTest
+    public void testNothingAdded() {
+        insert(1, 10);
+        TableImageList list = createList(ImageManager.SORT_DESCENDING);
+        list.onContentChanged();
+        assertIds(list, 1);
+        assertEquals(1, list.mAfterId);
+        assertEquals(0, list.getGeneration());
+    }
+
+    // A list over mTable. The cursors sort the rows like the media provider
+    // does, by date and then by id.
+    private class TableImageList extends BaseImageList {
+        int mQueryCount;
+        long mAfterId = -1;
+
+        TableImageList(ContentResolver resolver, int sort) {
+            super(resolver, URI, sort, null);
+        }
+
+        @Override
+        protected Cursor createCursor() {
+            return new TableCursor(
+                    -1, mSort == ImageManager.SORT_ASCENDING);
+        }
+
+        @Override
+        protected Cursor createCursorAfter(long id) {
+            ++mQueryCount;
+            mAfterId = id;
+            return new TableCursor(id, true);
+        }
+
+        @Override
+        protected BaseImage loadImageFromCursor(Cursor cursor) {
+            long id = cursor.getLong(0);
+            return new Image(mContentResolver, id, contentUri(id), 0,
+                    cursor.getLong(1), 0, 0);
+        }
+
+        @Override
+        protected long loadDateTakenFromCursor(Cursor cursor) {
+            return cursor.getLong(1);
+        }
+
+        @Override
+        protected long loadIdFromCursor(Cursor cursor) {
+            return cursor.getLong(0);
+        }
+
+        @Override
+        protected String loadMimeTypeFromCursor(Cursor cursor) {
+            return "image/jpeg";
+        }
+
+        @Override
+        protected String loadDataPathFromCursor(Cursor cursor) {
+            return null;
+        }
+
+        @Override
+        protected void loadRowFromCursor(
+                Cursor cursor, ColumnSnapshot snapshot, int row) {
+            snapshot.setRow(row, cursor.getLong(0), cursor.getLong(1), 0, 0,
+                    0, "image/jpeg", null);
+        }
+
+        @Override
+        protected BaseImage loadImageFromSnapshot(
+                ColumnSnapshot snapshot, int row) {
+            long id = snapshot.getId(row);
+            return new Image(mContentResolver, id, contentUri(id), 0,
+                    snapshot.getDateTaken(row), 0, 0);
+        }
+    }
+
+    // The rows of mTable with an id above a limit. requery() reads the
+    // table again.
+    private class TableCursor extends AbstractCursor {
+        private final long mAfterId;
+        private final boolean mAscending;
+        private ArrayList<long[]> mRows;
+
+        TableCursor(long afterId, boolean ascending) {
+            mAfterId = afterId;
+            mAscending = ascending;
+            load();
+        }
+
+        private void load() {
+            mRows = new ArrayList<long[]>();
+            for (long[] row : mTable) {
+                if (row[0] > mAfterId) mRows.add(row);
+            }
+            Collections.sort(mRows, new Comparator<long[]>() {
+                public int compare(long[] a, long[] b) {
+                    int result = a[1] != b[1]
+                            ? (a[1] < b[1] ? -1 : 1)
+                            : (a[0] < b[0] ? -1 : a[0] == b[0] ? 0 : 1);
+                    return mAscending ? result : -result;
+                }
+            });
+        }
+
+        @Override
+        public boolean requery() {
+            load();
+            return super.requery();
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.size();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return new String[] {"_id", "datetaken"};
+        }
+
+        @Override
+        public long getLong(int column) {
+            return mRows.get(getPosition())[column];
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public String getString(int column) {
+            return String.valueOf(getLong(column));
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.android.camera.gallery;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class ColumnSnapshotUnitTests extends AndroidTestCase {
+
+    @SmallTest
+    public void testRows() {
+        ColumnSnapshot snapshot = new ColumnSnapshot(3);
+        snapshot.setRow(0, 7, 1000, 1, 11, 90, "image/jpeg",
+                "/sdcard/DCIM/Camera/IMG_1.jpg");
+        snapshot.setRow(1, 8, 2000, 2, 12, 0, null, null);
+        snapshot.setRow(2, 9, 3000, 3, 13, 270, "image/jpeg", "noslash.png");
+
+        assertEquals(3, snapshot.getCount());
+        assertEquals(7, snapshot.getId(0));
+        assertEquals(2, snapshot.getDateModified(1));
+        assertEquals(12, snapshot.getMiniThumbMagic(1));
+        assertEquals(270, snapshot.getOrientation(2));
+        assertEquals("image/jpeg", snapshot.getMimeType(0));
+        assertNull(snapshot.getMimeType(1));
+        assertEquals("/sdcard/DCIM/Camera/IMG_1.jpg", snapshot.getDataPath(0));
+        assertNull(snapshot.getDataPath(1));
+        assertEquals("noslash.png", snapshot.getDataPath(2));
+        // The pooled strings are shared between the rows.
+        assertSame(snapshot.getMimeType(0), snapshot.getMimeType(2));
+    }
+
+    @SmallTest
+    public void testLongPaths() {
+        int count = 100;
+        ColumnSnapshot snapshot = new ColumnSnapshot(count);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            name.append('x');
+            snapshot.setRow(i, i, i, i, 0, 0, "video/mp4", "/dir/" + name);
+        }
+        assertEquals("/dir/" + name, snapshot.getDataPath(count - 1));
+        assertEquals("/dir/x", snapshot.getDataPath(0));
+    }
+
+    @SmallTest
+    public void testGetDatesTaken() {
+        ColumnSnapshot snapshot = new ColumnSnapshot(3);
+        for (int i = 0; i < 3; ++i) {
+            snapshot.setRow(i, i, 100 + i, 0, 0, 0, null, null);
+        }
+        long[] dates = new long[4];
+        assertEquals(2, snapshot.getDatesTaken(1, dates));
+        assertEquals(101, dates[0]);
+        assertEquals(102, dates[1]);
+        assertEquals(0, snapshot.getDatesTaken(3, dates));
+    }
+}
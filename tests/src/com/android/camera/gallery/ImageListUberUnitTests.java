@@ -0,0 +1,99 @@
+package com.android.camera.gallery;
+
+import com.android.camera.ImageManager;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class ImageListUberUnitTests extends AndroidTestCase {
+
+    private static MockImageList createList(long id, long... dates) {
+        MockImageList list = new MockImageList();
+        for (long date : dates) {
+            list.addImage(new MockImage(id++, date));
+        }
+        return list;
+    }
+
+    private static void assertDates(IImageList list, long... dates) {
+        assertEquals(dates.length, list.getCount());
+        for (int i = 0; i < dates.length; ++i) {
+            assertEquals(dates[i], list.getImageAt(i).getDateTaken());
+        }
+        assertNull(list.getImageAt(dates.length));
+    }
+
+    @SmallTest
+    public void testDescendingMerge() {
+        ImageListUber uber = new ImageListUber(new IImageList[] {
+                createList(0, 9, 7, 3), createList(10, 8, 7, 2, 1)},
+                ImageManager.SORT_DESCENDING);
+        assertDates(uber, 9, 8, 7, 7, 3, 2, 1);
+        // Ties are resolved in favor of the first sublist.
+        assertEquals(1, ((MockImage) uber.getImageAt(2)).fullSizeImageId());
+        assertEquals(11, ((MockImage) uber.getImageAt(3)).fullSizeImageId());
+    }
+
+    @SmallTest
+    public void testAscendingMerge() {
+        ImageListUber uber = new ImageListUber(new IImageList[] {
+                createList(0, 1, 4), createList(10), createList(20, 2, 3, 5)},
+                ImageManager.SORT_ASCENDING);
+        assertDates(uber, 1, 2, 3, 4, 5);
+    }
+
+    @SmallTest
+    public void testRandomAccessBeforeSequential() {
+        ImageListUber uber = new ImageListUber(new IImageList[] {
+                createList(0, 6, 4, 2), createList(10, 5, 3, 1)},
+                ImageManager.SORT_DESCENDING);
+        assertEquals(1, uber.getImageAt(5).getDateTaken());
+        assertEquals(6, uber.getImageAt(0).getDateTaken());
+        assertEquals(3, uber.getImageAt(3).getDateTaken());
+    }
+
+    @SmallTest
+    public void testGrowingSublist() {
+        MockImageList images = createList(0, 9, 5);
+        ImageListUber uber = new ImageListUber(new IImageList[] {
+                images, createList(10, 7, 3)}, ImageManager.SORT_DESCENDING);
+        assertDates(uber, 9, 7, 5, 3);
+        // New entries come at the newest end.
+        images.addImage(0, new MockImage(2, 11));
+        // The new entry is merged when it is asked for.
+        assertEquals(3, uber.getImageAt(4).getDateTaken());
+        assertDates(uber, 11, 9, 7, 5, 3);
+    }
+
+    @SmallTest
+    public void testGrowingAscendingSublist() {
+        MockImageList videos = createList(10, 2, 6);
+        ImageListUber uber = new ImageListUber(new IImageList[] {
+                createList(0, 1, 4), videos}, ImageManager.SORT_ASCENDING);
+        assertDates(uber, 1, 2, 4, 6);
+        videos.addImage(new MockImage(12, 8));
+        videos.addImage(new MockImage(13, 9));
+        // The count sees the new entries without an access past the end.
+        assertEquals(6, uber.getCount());
+        assertEquals(8, uber.getImageAt(4).getDateTaken());
+        assertDates(uber, 1, 2, 4, 6, 8, 9);
+    }
+
+    @SmallTest
+    public void testOutOfRange() {
+        ImageListUber uber = new ImageListUber(new IImageList[] {
+                createList(0, 1)}, ImageManager.SORT_DESCENDING);
+        try {
+            uber.getImageAt(-1);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            uber.getImageAt(2);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+}
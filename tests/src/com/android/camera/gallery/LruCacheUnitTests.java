@@ -4,6 +4,8 @@ import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.util.Log;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 public class LruCacheUnitTests extends AndroidTestCase {
 
     @SmallTest
@@ -75,4 +77,91 @@ public class LruCacheUnitTests extends AndroidTestCase {
             accessor[i].join();
         }
     }
+
+    // Weighs an integer by its value.
+    private static class ValueWeigher
+            implements LruCache.Weigher<Integer, Integer> {
+        public int weigh(Integer key, Integer value) {
+            return value;
+        }
+    }
+
+    @SmallTest
+    public void testWeightedEviction() {
+        LruCache<Integer, Integer> cache =
+                new LruCache<Integer, Integer>(10, new ValueWeigher());
+        cache.put(1, 4);
+        cache.put(2, 4);
+        assertEquals(8, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+
+        // Touch 1, so that 2 is the eldest and goes first.
+        cache.get(1);
+        cache.put(3, 5);
+        assertEquals(9, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        // Replacing an entry updates the weight.
+        cache.put(3, 1);
+        assertEquals(5, cache.size());
+    }
+
+    @SmallTest
+    public void testHitAndMissCounts() {
+        LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(2);
+        cache.put(1, 1);
+        cache.get(1);
+        cache.get(1);
+        cache.get(2);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    // An assertion thrown on a worker thread would not fail the test, so
+    // the writers report the first failure here.
+    static class Writer extends Thread {
+        private final LruCache<Integer, Integer> mMap;
+        private final int mBase;
+        private final AtomicReference<String> mFailure;
+
+        public Writer(LruCache<Integer, Integer> map, int base,
+                AtomicReference<String> failure) {
+            mMap = map;
+            mBase = base;
+            mFailure = failure;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < TEST_COUNT; ++i) {
+                int key = mBase + i % 1000;
+                mMap.put(key, key);
+                Integer value = mMap.get(key);
+                if (value != null && value != key) {
+                    mFailure.compareAndSet(null, "wrong value for " + key);
+                    return;
+                }
+            }
+        }
+    }
+
+    @SmallTest
+    public void testConcurrentWrites() throws Exception {
+        // Large enough to be split into segments.
+        LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(512);
+        AtomicReference<String> failure = new AtomicReference<String>();
+        Writer writers[] = new Writer[4];
+        for (int i = 0; i < writers.length; ++i) {
+            writers[i] = new Writer(cache, i * 1000, failure);
+        }
+        for (int i = 0; i < writers.length; ++i) {
+            writers[i].start();
+        }
+        for (int i = 0; i < writers.length; ++i) {
+            writers[i].join();
+        }
+        assertNull(failure.get(), failure.get());
+        assertTrue(cache.size() <= 512);
+        assertTrue(cache.getEvictionCount() > 0);
+    }
 }
@@ -54,6 +54,11 @@ public class MockImageList implements IImageList {
         image.setContainer(this);
     }
 
+    public void addImage(int index, MockImage image) {
+        mList.add(index, image);
+        image.setContainer(this);
+    }
+
     public void open(ContentResolver resolver) {
     }
 
@@ -0,0 +1,118 @@
+package com.android.camera.gallery;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class ThumbnailBlobFileUnitTests extends AndroidTestCase {
+    private String mPath;
+
+    @Override
+    protected void setUp() throws Exception {
+        File dir = File.createTempFile("blob", "");
+        dir.delete();
+        dir.mkdirs();
+        mPath = new File(dir, "thumbs").getPath();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File dir = new File(mPath).getParentFile();
+        for (File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    private static byte[] data(int seed, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) data[i] = (byte) (seed + i);
+        return data;
+    }
+
+    @SmallTest
+    public void testPutAndGet() {
+        ThumbnailBlobFile file = new ThumbnailBlobFile(mPath, 4096);
+        file.put(1, 10, data(1, 100));
+        file.put(2, 20, data(2, 200));
+        assertTrue(Arrays.equals(data(1, 100), file.get(1, 10)));
+        assertTrue(Arrays.equals(data(2, 200), file.get(2, 20)));
+        // A different version is a miss.
+        assertNull(file.get(1, 11));
+        assertNull(file.get(3, 10));
+        file.close();
+    }
+
+    @SmallTest
+    public void testReopen() {
+        ThumbnailBlobFile file = new ThumbnailBlobFile(mPath, 4096);
+        file.put(1, 10, data(1, 100));
+        file.close();
+        file.put(2, 20, data(2, 200));
+
+        // The second record is not in the saved index, as if we crashed.
+        file = new ThumbnailBlobFile(mPath, 4096);
+        assertTrue(Arrays.equals(data(1, 100), file.get(1, 10)));
+        assertTrue(Arrays.equals(data(2, 200), file.get(2, 20)));
+        file.close();
+    }
+
+    @SmallTest
+    public void testCorruptedRecord() throws Exception {
+        ThumbnailBlobFile file = new ThumbnailBlobFile(mPath, 4096);
+        file.put(1, 10, data(1, 100));
+        file.put(2, 20, data(2, 100));
+        file.close();
+
+        // Flip a byte in the data of the first record.
+        RandomAccessFile raf = new RandomAccessFile(mPath + ".blob", "rw");
+        raf.seek(8 + 28 + 50);
+        raf.write(0xff);
+        // And tear the end of the second one.
+        raf.setLength(raf.length() - 10);
+        raf.close();
+
+        file = new ThumbnailBlobFile(mPath, 4096);
+        assertNull(file.get(1, 10));
+        assertNull(file.get(2, 20));
+        file.put(3, 30, data(3, 100));
+        assertTrue(Arrays.equals(data(3, 100), file.get(3, 30)));
+        file.close();
+    }
+
+    @SmallTest
+    public void testEviction() {
+        ThumbnailBlobFile file = new ThumbnailBlobFile(mPath, 4096);
+        for (int i = 0; i < 40; ++i) {
+            file.put(i, 0, data(i, 100));
+            // Keep the first record in use.
+            assertNotNull(file.get(0, 0));
+        }
+        assertTrue(new File(mPath + ".blob").length() <= 4096);
+        assertTrue(Arrays.equals(data(0, 100), file.get(0, 0)));
+        assertTrue(Arrays.equals(data(39, 100), file.get(39, 0)));
+        assertNull(file.get(1, 0));
+        file.close();
+    }
+
+    @SmallTest
+    public void testEvictionAfterReopen() {
+        ThumbnailBlobFile file = new ThumbnailBlobFile(mPath, 4096);
+        for (int i = 0; i < 20; ++i) file.put(i, 0, data(i, 100));
+        // The records used last have the lowest keys.
+        for (int i = 0; i < 4; ++i) assertNotNull(file.get(i, 0));
+        file.close();
+
+        // Fill the file until it is compacted. The new records and the ones
+        // used before the restart are kept.
+        file = new ThumbnailBlobFile(mPath, 4096);
+        for (int i = 100; i < 112; ++i) file.put(i, 0, data(i, 100));
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(Arrays.equals(data(i, 100), file.get(i, 0)));
+        }
+        for (int i = 4; i < 20; ++i) assertNull(file.get(i, 0));
+        assertTrue(Arrays.equals(data(111, 100), file.get(111, 0)));
+        file.close();
+    }
+}
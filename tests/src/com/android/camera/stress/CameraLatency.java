@@ -17,6 +17,7 @@
 package com.android.camera.stress;
 
 import com.android.camera.Camera;
+import com.android.camera.CameraMetrics;
 
 import android.app.Instrumentation;
 import android.os.Environment;
@@ -27,6 +28,7 @@ import android.view.KeyEvent;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.io.PrintWriter;
 
 /**
  * Junit / Instrumentation test case for camera test
@@ -70,6 +72,7 @@ public class CameraLatency extends ActivityInstrumentationTestCase2 <Camera> {
     public void testImageCapture() {
         Log.v(TAG, "start testImageCapture test");
         Instrumentation inst = getInstrumentation();
+        CameraMetrics.instance().reset();
         try {
             for (int i = 0; i < TOTAL_NUMBER_OF_IMAGECAPTURE; i++) {
                 Thread.sleep(WAIT_FOR_IMAGE_CAPTURE_TO_BE_TAKEN);
@@ -120,6 +123,8 @@ public class CameraLatency extends ActivityInstrumentationTestCase2 <Camera> {
                     + mAvgPictureDisplayedToJpegCallbackTime + "\n");
             out.write("Avg mJpegCallbackFinishTime = " +
                     mAvgJpegCallbackFinishTime + "\n");
+            // Per-stage distributions, including the background save.
+            CameraMetrics.instance().dump(new PrintWriter(out));
             out.close();
             fstream.close();
         } catch (Exception e) {
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.camera.stress;
+
+import com.android.camera.StartupTrace;
+import com.android.camera.Util;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.Environment;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Measures the launch phases of the camera with the trace points of
+ * {@link StartupTrace}:
+ *
+ * cold: the first launch in a new process. Only one sample can be taken per
+ * instrumentation run, so the samples are kept in a file until there are
+ * enough of them. Run it alone, once per iteration:
+ *
+ * adb shell am instrument -w -e class \
+ *    com.android.camera.stress.CameraLaunchBenchmark#testColdLaunch \
+ *    com.android.camera.tests/com.android.camera.stress.CameraStressTestRunner
+ *
+ * warm: the activity is finished and started again in the same process.
+ * hot: the activity is paused and resumed.
+ *
+ * The median, 90th percentile and maximum of every phase are written to
+ * cameraLaunchBenchmark.txt on the sdcard. If cameraLaunchBaseline.txt
+ * exists, a test fails when the median of a phase is slower than the
+ * baseline by more than the threshold. Pass "-e launch_update_baseline true"
+ * to write the baseline instead.
+ */
+public class CameraLaunchBenchmark extends InstrumentationTestCase {
+    private static final String TAG = "CameraLaunchBenchmark";
+
+    private static final String OUTPUT_DIR =
+            Environment.getExternalStorageDirectory().toString();
+    private static final String RESULT_FILE =
+            OUTPUT_DIR + "/cameraLaunchBenchmark.txt";
+    private static final String BASELINE_FILE =
+            OUTPUT_DIR + "/cameraLaunchBaseline.txt";
+    private static final String COLD_SAMPLES_FILE =
+            OUTPUT_DIR + "/cameraLaunchColdSamples.txt";
+    private static final String CAMERA_ACTIVITY_NAME =
+            "com.android.camera.Camera";
+
+    private static final String[] PHASES = {
+            StartupTrace.ON_RESUME,
+            StartupTrace.CAMERA_OPEN,
+            StartupTrace.START_PREVIEW,
+            StartupTrace.SURFACE_CHANGED,
+            StartupTrace.HUD_FIRST_FRAME,
+            StartupTrace.SHUTTER_READY};
+
+    private static final long TRACE_TIMEOUT = 10000;
+    // Let the camera be released and the preview settle between launches.
+    private static final long SETTLE_TIME = 1500;
+    // Differences below this are noise, whatever the threshold says.
+    private static final long MIN_REGRESSION = 20;
+
+    // The samples of every phase, in milliseconds.
+    private final HashMap<String, ArrayList<Long>> mSamples =
+            new HashMap<String, ArrayList<Long>>();
+
+    @LargeTest
+    public void testColdLaunch() throws Exception {
+        if (StartupTrace.getTraceCount() != 0) {
+            Log.w(TAG, "camera already launched in this process; "
+                    + "run testColdLaunch alone for a cold sample");
+            return;
+        }
+        Activity activity = launch();
+        Map<String, Long> points = StartupTrace.getPoints();
+        activity.finish();
+
+        int count = appendColdSample(points);
+        if (count < CameraStressTestRunner.mLaunchIterations) {
+            Log.v(TAG, "cold samples: " + count + " of "
+                    + CameraStressTestRunner.mLaunchIterations);
+            return;
+        }
+        readColdSamples();
+        new File(COLD_SAMPLES_FILE).delete();
+        report("cold");
+    }
+
+    @LargeTest
+    public void testWarmLaunch() throws Exception {
+        for (int i = 0; i < CameraStressTestRunner.mLaunchIterations; ++i) {
+            Activity activity = launch();
+            addSamples(StartupTrace.getPoints());
+            activity.finish();
+            getInstrumentation().waitForIdleSync();
+            Thread.sleep(SETTLE_TIME);
+        }
+        report("warm");
+    }
+
+    @LargeTest
+    public void testHotResume() throws Exception {
+        final Instrumentation inst = getInstrumentation();
+        final Activity activity = launch();
+        try {
+            for (int i = 0; i < CameraStressTestRunner.mLaunchIterations;
+                    ++i) {
+                Thread.sleep(SETTLE_TIME);
+                inst.runOnMainSync(new Runnable() {
+                    public void run() {
+                        inst.callActivityOnPause(activity);
+                    }
+                });
+                int traceCount = StartupTrace.getTraceCount();
+                inst.runOnMainSync(new Runnable() {
+                    public void run() {
+                        inst.callActivityOnResume(activity);
+                    }
+                });
+                assertTrue("shutter not ready after resume",
+                        StartupTrace.await(StartupTrace.SHUTTER_READY,
+                        traceCount, TRACE_TIMEOUT));
+                addSamples(StartupTrace.getPoints());
+            }
+        } finally {
+            activity.finish();
+        }
+        report("hot");
+    }
+
+    // Starts the camera and waits until the shutter is ready.
+    private Activity launch() throws Exception {
+        Instrumentation inst = getInstrumentation();
+        Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.setClassName(inst.getTargetContext(), CAMERA_ACTIVITY_NAME);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        int traceCount = StartupTrace.getTraceCount();
+        Activity activity = inst.startActivitySync(intent);
+        if (!StartupTrace.await(StartupTrace.SHUTTER_READY, traceCount,
+                TRACE_TIMEOUT)) {
+            activity.finish();
+            fail("shutter not ready after launch");
+        }
+        return activity;
+    }
+
+    private void addSamples(Map<String, Long> points) {
+        for (Map.Entry<String, Long> e : points.entrySet()) {
+            ArrayList<Long> samples = mSamples.get(e.getKey());
+            if (samples == null) {
+                samples = new ArrayList<Long>();
+                mSamples.put(e.getKey(), samples);
+            }
+            samples.add(e.getValue());
+        }
+    }
+
+    // Appends the points as one "phase=ms ..." line and returns the number
+    // of samples in the file.
+    private static int appendColdSample(Map<String, Long> points)
+            throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, Long> e : points.entrySet()) {
+            if (line.length() > 0) line.append(' ');
+            line.append(e.getKey()).append('=').append(e.getValue());
+        }
+        FileWriter writer = new FileWriter(COLD_SAMPLES_FILE, true);
+        try {
+            writer.write(line.append('\n').toString());
+        } finally {
+            writer.close();
+        }
+        BufferedReader reader =
+                new BufferedReader(new FileReader(COLD_SAMPLES_FILE));
+        int count = 0;
+        try {
+            while (reader.readLine() != null) ++count;
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    private void readColdSamples() throws IOException {
+        BufferedReader reader =
+                new BufferedReader(new FileReader(COLD_SAMPLES_FILE));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                HashMap<String, Long> points = new HashMap<String, Long>();
+                for (String point : line.trim().split(" ")) {
+                    int split = point.indexOf('=');
+                    if (split <= 0) continue;
+                    points.put(point.substring(0, split),
+                            Long.parseLong(point.substring(split + 1)));
+                }
+                addSamples(points);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Writes the distribution of every phase and compares the medians with
+    // the baseline.
+    private void report(String mode) throws IOException {
+        Properties results = load(RESULT_FILE);
+        Properties baseline = load(BASELINE_FILE);
+        int threshold = CameraStressTestRunner.mLaunchThreshold;
+        StringBuilder regressions = new StringBuilder();
+
+        for (String phase : PHASES) {
+            ArrayList<Long> samples = mSamples.get(phase);
+            if (samples == null) continue;
+            Collections.sort(samples);
+            String key = mode + "." + phase;
+            long median = percentile(samples, 50);
+            results.setProperty(key + ".count",
+                    String.valueOf(samples.size()));
+            results.setProperty(key + ".p50", String.valueOf(median));
+            results.setProperty(key + ".p90",
+                    String.valueOf(percentile(samples, 90)));
+            results.setProperty(key + ".max",
+                    String.valueOf(samples.get(samples.size() - 1)));
+            Log.v(TAG, key + ": " + samples);
+
+            if (CameraStressTestRunner.mLaunchUpdateBaseline) {
+                baseline.setProperty(key + ".p50", String.valueOf(median));
+                continue;
+            }
+            String base = baseline.getProperty(key + ".p50");
+            if (base == null) continue;
+            long limit = Long.parseLong(base) * (100 + threshold) / 100;
+            if (median > limit
+                    && median - Long.parseLong(base) > MIN_REGRESSION) {
+                regressions.append(key + " median " + median
+                        + "ms, baseline " + base + "ms\n");
+            }
+        }
+
+        store(results, RESULT_FILE);
+        if (CameraStressTestRunner.mLaunchUpdateBaseline) {
+            store(baseline, BASELINE_FILE);
+        }
+        assertTrue("launch regressed past " + threshold + "%:\n"
+                + regressions, regressions.length() == 0);
+    }
+
+    // Returns the sample at the given percentile of the sorted samples.
+    private static long percentile(ArrayList<Long> sorted, int percentile) {
+        int rank = (sorted.size() * percentile + 99) / 100;
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    private static Properties load(String path) throws IOException {
+        Properties properties = new Properties();
+        File file = new File(path);
+        if (!file.exists()) return properties;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            Util.closeSilently(in);
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, String path)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(path);
+        try {
+            properties.store(out, "Camera launch benchmark");
+        } finally {
+            Util.closeSilently(out);
+        }
+    }
+}
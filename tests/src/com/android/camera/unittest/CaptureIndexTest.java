@@ -0,0 +1,85 @@
+package com.android.camera.unittest;
+
+import com.android.camera.CaptureIndex;
+
+import android.net.Uri;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+@SmallTest
+public class CaptureIndexTest extends TestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("captures", "");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    private static Uri image(int id) {
+        return Uri.parse("content://media/external/images/media/" + id);
+    }
+
+    public void testLatestOfEachType() {
+        CaptureIndex index = new CaptureIndex(mFile.getPath());
+        assertNull(index.getLatest(CaptureIndex.TYPE_IMAGE));
+        index.add(CaptureIndex.TYPE_IMAGE, image(1), 100, 90, new byte[10]);
+        index.add(CaptureIndex.TYPE_VIDEO,
+                Uri.parse("content://media/external/video/media/2"), 200, 0,
+                (byte[]) null);
+        index.add(CaptureIndex.TYPE_IMAGE, image(3), 300, 0, (byte[]) null);
+
+        CaptureIndex.Entry entry = index.getLatest(CaptureIndex.TYPE_IMAGE);
+        assertEquals(image(3), entry.mUri);
+        assertEquals(300, entry.mDateTaken);
+        assertFalse(entry.hasThumbnail());
+        assertEquals(200, index.getLatest(CaptureIndex.TYPE_VIDEO).mDateTaken);
+
+        index.remove(image(3));
+        entry = index.getLatest(CaptureIndex.TYPE_IMAGE);
+        assertEquals(image(1), entry.mUri);
+        assertEquals(90, entry.mOrientation);
+        assertTrue(entry.hasThumbnail());
+    }
+
+    public void testReopenAndWrapAround() {
+        CaptureIndex index = new CaptureIndex(mFile.getPath());
+        for (int i = 1; i <= 20; ++i) {
+            index.add(CaptureIndex.TYPE_IMAGE, image(i), i, 0, new byte[i]);
+        }
+        index.flush();
+        index = new CaptureIndex(mFile.getPath());
+        assertEquals(image(20), index.getLatest(CaptureIndex.TYPE_IMAGE).mUri);
+        index.add(CaptureIndex.TYPE_IMAGE, image(21), 21, 0, (byte[]) null);
+        assertEquals(image(21), index.getLatest(CaptureIndex.TYPE_IMAGE).mUri);
+    }
+
+    public void testTornSlotIsIgnored() throws Exception {
+        CaptureIndex index = new CaptureIndex(mFile.getPath());
+        index.add(CaptureIndex.TYPE_IMAGE, image(1), 1, 0, new byte[100]);
+        index.add(CaptureIndex.TYPE_IMAGE, image(2), 2, 0, new byte[100]);
+        index.flush();
+
+        // Corrupt the uri of the latest capture.
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        byte[] data = new byte[(int) file.length()];
+        file.readFully(data);
+        String content = new String(data, "ISO-8859-1");
+        int at = content.indexOf("media/2");
+        file.seek(at + 6);
+        file.write('7');
+        file.close();
+
+        index = new CaptureIndex(mFile.getPath());
+        assertEquals(image(1), index.getLatest(CaptureIndex.TYPE_IMAGE).mUri);
+    }
+}
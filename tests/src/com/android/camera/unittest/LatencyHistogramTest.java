@@ -0,0 +1,46 @@
+package com.android.camera.unittest;
+
+import com.android.camera.LatencyHistogram;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class LatencyHistogramTest extends TestCase {
+    public void testEmpty() {
+        LatencyHistogram h = new LatencyHistogram("empty");
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMean());
+        assertEquals(0, h.getPercentile(50));
+        assertEquals(0, h.getMax());
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram("test");
+        for (int i = 0; i < 90; ++i) h.record(40);
+        for (int i = 0; i < 9; ++i) h.record(180);
+        h.record(900);
+        assertEquals(100, h.getCount());
+        assertEquals(50, h.getPercentile(50));
+        assertEquals(200, h.getPercentile(95));
+        assertEquals(200, h.getPercentile(99));
+        assertEquals(900, h.getPercentile(100));
+        assertEquals(900, h.getMax());
+        assertEquals((90 * 40 + 9 * 180 + 900) / 100, h.getMean());
+    }
+
+    public void testOverflowBucketReportsMax() {
+        LatencyHistogram h = new LatencyHistogram("slow");
+        h.record(25000);
+        assertEquals(25000, h.getPercentile(50));
+    }
+
+    public void testReset() {
+        LatencyHistogram h = new LatencyHistogram("reset");
+        h.record(10);
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getPercentile(99));
+    }
+}
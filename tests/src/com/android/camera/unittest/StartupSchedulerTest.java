@@ -0,0 +1,67 @@
+package com.android.camera.unittest;
+
+import com.android.camera.StartupScheduler;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@SmallTest
+public class StartupSchedulerTest extends TestCase {
+    private final List<String> mLog =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    private Runnable step(final String name, final boolean onCaller) {
+        final Thread caller = Thread.currentThread();
+        return new Runnable() {
+            public void run() {
+                assertEquals(onCaller, Thread.currentThread() == caller);
+                mLog.add(name);
+            }
+        };
+    }
+
+    public void testDependencies() {
+        StartupScheduler scheduler = new StartupScheduler("test");
+        StartupScheduler.Task preferences = scheduler.add("preferences",
+                StartupScheduler.THREAD_BACKGROUND, step("preferences", false));
+        StartupScheduler.Task preview = scheduler.add("preview",
+                StartupScheduler.THREAD_BACKGROUND, step("preview", false),
+                preferences);
+        StartupScheduler.Task layout = scheduler.add("layout",
+                StartupScheduler.THREAD_MAIN, step("layout", true));
+        scheduler.add("hud", StartupScheduler.THREAD_MAIN, step("hud", true),
+                layout, preview);
+        scheduler.start();
+        scheduler.awaitAll();
+
+        assertEquals(4, mLog.size());
+        assertTrue(mLog.indexOf("preferences") < mLog.indexOf("preview"));
+        assertEquals("hud", mLog.get(3));
+    }
+
+    public void testFailureSkipsDependents() {
+        StartupScheduler scheduler = new StartupScheduler("test");
+        StartupScheduler.Task broken = scheduler.add("broken",
+                StartupScheduler.THREAD_BACKGROUND, new Runnable() {
+            public void run() {
+                throw new IllegalStateException("broken");
+            }
+        });
+        scheduler.add("after", StartupScheduler.THREAD_MAIN,
+                step("after", true), broken);
+        scheduler.start();
+        try {
+            scheduler.awaitAll();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(mLog.isEmpty());
+        assertTrue(scheduler.getTimeline().contains("skipped"));
+    }
+}
@@ -0,0 +1,129 @@
+package com.android.camera.unittest;
+
+import com.android.camera.ThumbnailController;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class ThumbnailControllerTest extends TestCase {
+    private static final String TAG = "ThumbnailControllerTest";
+    private static final Uri URI =
+            Uri.parse("content://media/external/images/media/42");
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("thumb", "");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    private static Bitmap createThumb() {
+        int width = 120;
+        int height = 90;
+        int[] colors = new int[width * height];
+        for (int i = 0; i < colors.length; ++i) {
+            colors[i] = 0xFF000000 | (i * 0x9E3779B1 & 0xFFFFFF);
+        }
+        return Bitmap.createBitmap(colors, width, height,
+                Bitmap.Config.ARGB_8888);
+    }
+
+    @SmallTest
+    public void testStoreAndLoad() {
+        Bitmap thumb = createThumb();
+        assertTrue(ThumbnailController.storeData(mFile.getPath(), URI, thumb));
+        Uri[] uri = new Uri[1];
+        Bitmap loaded = ThumbnailController.loadData(mFile.getPath(), uri);
+        assertEquals(URI, uri[0]);
+        assertEquals(thumb.getWidth(), loaded.getWidth());
+        assertEquals(thumb.getHeight(), loaded.getHeight());
+        for (int y = 0; y < thumb.getHeight(); y += 7) {
+            for (int x = 0; x < thumb.getWidth(); x += 5) {
+                assertEquals(thumb.getPixel(x, y), loaded.getPixel(x, y));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testLoadTruncated() throws IOException {
+        assertTrue(ThumbnailController.storeData(
+                mFile.getPath(), URI, createThumb()));
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(0);
+        out.close();
+        assertNull(ThumbnailController.loadData(mFile.getPath(), new Uri[1]));
+    }
+
+    // Compares the raw format with the PNG format it replaced. Loading is on
+    // the startup path, so the raw format must load faster.
+    @LargeTest
+    public void testBenchmark() throws IOException {
+        final int rounds = 50;
+        Bitmap thumb = createThumb();
+        String path = mFile.getPath();
+
+        // Run both formats once, so the class loading is not timed.
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        thumb.compress(Bitmap.CompressFormat.PNG, 100, png);
+        assertNotNull(BitmapFactory.decodeByteArray(
+                png.toByteArray(), 0, png.size()));
+        assertTrue(ThumbnailController.storeData(path, URI, thumb));
+        assertNotNull(ThumbnailController.loadData(path, new Uri[1]));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; ++i) {
+            DataOutputStream out =
+                    new DataOutputStream(new FileOutputStream(path));
+            out.writeUTF(URI.toString());
+            thumb.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+        }
+        long pngStore = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; ++i) {
+            DataInputStream in =
+                    new DataInputStream(new FileInputStream(path));
+            Uri.parse(in.readUTF());
+            assertNotNull(BitmapFactory.decodeStream(in));
+            in.close();
+        }
+        long pngLoad = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; ++i) {
+            assertTrue(ThumbnailController.storeData(path, URI, thumb));
+        }
+        long rawStore = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; ++i) {
+            assertNotNull(ThumbnailController.loadData(path, new Uri[1]));
+        }
+        long rawLoad = System.nanoTime() - start;
+
+        Log.v(TAG, "store: png " + pngStore / rounds / 1000 + "us, raw "
+                + rawStore / rounds / 1000 + "us");
+        Log.v(TAG, "load: png " + pngLoad / rounds / 1000 + "us, raw "
+                + rawLoad / rounds / 1000 + "us");
+        assertTrue("raw load " + rawLoad + "ns, png load " + pngLoad + "ns",
+                rawLoad < pngLoad);
+    }
+}